@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.benchmarks;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. Accepts the usual JMH command line
+ * options, plus two presets:
+ * <ul>
+ * <li>{@code --gc}: adds the GC profiler, which reports the allocation rate
+ * and bytes allocated per operation ({@code gc.alloc.rate.norm})</li>
+ * <li>{@code --alloc}: like {@code --gc}, but runs with the Epsilon GC so that
+ * any allocation in a steady-state path shows up as heap growth</li>
+ * </ul>
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		boolean gc = false, alloc = false;
+		String[] jmhArgs = Arrays.stream(args).filter(arg -> !arg.equals("--gc") && !arg.equals("--alloc"))
+				.toArray(String[]::new);
+		for (String arg : args) {
+			gc |= arg.equals("--gc");
+			alloc |= arg.equals("--alloc");
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(new CommandLineOptions(jmhArgs));
+		if (gc || alloc)
+			options.addProfiler(GCProfiler.class);
+		if (alloc)
+			options.jvmArgsAppend("-XX:+UnlockExperimentalVMOptions", "-XX:+UseEpsilonGC", "-Xmx4g",
+					"-XX:+AlwaysPreTouch");
+		new Runner(options.build()).run();
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.fnet.mcrconapi.server.CommandHandler;
+import org.fnet.mcrconapi.server.RConServer;
+
+/**
+ * An in-process {@link RConServer} for the client benchmarks. Commands
+ * starting with {@code echo } are answered with the rest of the command,
+ * {@code large} with a response of
+ * {@link BenchmarkServer#LARGE_RESPONSE_FRAGMENTS} full fragments plus a short
+ * one.
+ */
+final class BenchmarkServer implements AutoCloseable {
+
+	static final String PASSWORD = "benchmark";
+	static final String ECHO_PREFIX = "echo ";
+	static final String LARGE_COMMAND = "large";
+	static final int FRAGMENT_PAYLOAD_LENGTH = RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH;
+	static final int LARGE_RESPONSE_FRAGMENTS = 16;
+
+	private static final String LARGE_RESPONSE = createLargeResponse();
+
+	private final RConServer server;
+
+	BenchmarkServer() throws IOException {
+		server = new RConServer(PASSWORD, CommandHandler.of((session, command) -> {
+			if (command.equals(LARGE_COMMAND))
+				return LARGE_RESPONSE;
+			if (command.startsWith(ECHO_PREFIX))
+				return command.substring(ECHO_PREFIX.length());
+			return "";
+		}));
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	int getPort() {
+		return server.getPort();
+	}
+
+	private static String createLargeResponse() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < FRAGMENT_PAYLOAD_LENGTH * LARGE_RESPONSE_FRAGMENTS + 42; i++)
+			builder.append((char) ('a' + i % 26));
+		return builder.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+
+}
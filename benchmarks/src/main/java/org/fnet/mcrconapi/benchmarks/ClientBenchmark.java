@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.fnet.mcrconapi.AuthenticationException;
+import org.fnet.mcrconapi.RConClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips against an in-process {@link BenchmarkServer}: the auth
+ * handshake, and sequential versus concurrent command throughput
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Server {
+		BenchmarkServer server;
+
+		@Setup(Level.Trial)
+		public void start() throws IOException {
+			server = new BenchmarkServer();
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() throws IOException {
+			server.close();
+		}
+	}
+
+	/**
+	 * A blocking client per benchmark thread
+	 */
+	@State(Scope.Thread)
+	public static class BlockingClient {
+		RConClient client;
+
+		@Setup(Level.Trial)
+		public void connect(Server server) throws IOException, AuthenticationException {
+			client = new RConClient("127.0.0.1", server.server.getPort(), BenchmarkServer.PASSWORD);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			client.close();
+		}
+	}
+
+	/**
+	 * One pipelined client shared by all benchmark threads
+	 */
+	@State(Scope.Benchmark)
+	public static class SharedPipelinedClient {
+		RConClient client;
+
+		@Setup(Level.Trial)
+		public void connect(Server server) throws IOException, AuthenticationException {
+			client = new RConClient("127.0.0.1", server.server.getPort(), BenchmarkServer.PASSWORD);
+			client.enablePipelining();
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			client.close();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public boolean authHandshake(Server server) throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", server.server.getPort(), BenchmarkServer.PASSWORD)) {
+			return client.isAuthenticated();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public String sequentialCommand(BlockingClient client) throws IOException, AuthenticationException {
+		return client.client.sendCommand(BenchmarkServer.ECHO_PREFIX + "ping");
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public String sequentialLargeResponse(BlockingClient client) throws IOException, AuthenticationException {
+		return client.client.sendCommand(BenchmarkServer.LARGE_COMMAND);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(8)
+	public String concurrentCommandSeparateConnections(BlockingClient client)
+			throws IOException, AuthenticationException {
+		return client.client.sendCommand(BenchmarkServer.ECHO_PREFIX + "ping");
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(8)
+	public String concurrentCommandPipelined(SharedPipelinedClient client)
+			throws IOException, AuthenticationException {
+		return client.client.sendCommand(BenchmarkServer.ECHO_PREFIX + "ping");
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.fnet.mcrconapi.packet.ClientPacket;
+import org.fnet.mcrconapi.packet.Packet;
+import org.fnet.mcrconapi.packet.PacketEncoder;
+import org.fnet.mcrconapi.packet.PacketType;
+import org.fnet.mcrconapi.packet.ServerPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding of single packets across payload sizes, and decoding
+ * of a complete multi-fragment response, with the bulk reads of the frame
+ * decoder and with the byte-by-byte reads it replaced
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketCodecBenchmark {
+
+	@Param({ "0", "64", "1024", "4086" })
+	public int payloadSize;
+
+	private String payload;
+	private byte[] frame;
+	private byte[] fragmentedResponse;
+	private ByteBuffer frameBuffer;
+	private ByteBuffer encodeBuffer;
+	private PacketEncoder encoder;
+	private OutputStream sink;
+
+	@Setup
+	public void setUp() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < payloadSize; i++)
+			builder.append((char) ('a' + i % 26));
+		payload = builder.toString();
+		frame = encode(new ServerPacket(PacketType.COMMAND_RESPONSE, payload));
+		frameBuffer = ByteBuffer.wrap(frame);
+		ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+		for (int i = 0; i < BenchmarkServer.LARGE_RESPONSE_FRAGMENTS; i++)
+			fragments.write(encode(new ServerPacket(PacketType.COMMAND_RESPONSE, payload)));
+		fragmentedResponse = fragments.toByteArray();
+		encoder = new PacketEncoder();
+		encodeBuffer = ByteBuffer.allocateDirect(encoder.maxFrameLength(payload));
+		sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+	}
+
+	private static byte[] encode(Packet packet) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		packet.writeTo(stream);
+		return stream.toByteArray();
+	}
+
+	@Benchmark
+	public void encodePacketWriteTo() throws IOException {
+		new ClientPacket(PacketType.COMMAND, payload).writeTo(sink);
+	}
+
+	@Benchmark
+	public void encodeWithEncoderToStream() throws IOException {
+		encoder.writeTo(sink, 1, PacketType.COMMAND, payload);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeWithEncoderToDirectBuffer() {
+		encodeBuffer.clear();
+		encoder.encode(1, PacketType.COMMAND, payload, encodeBuffer);
+		return encodeBuffer;
+	}
+
+	@Benchmark
+	public Packet decodeFromStream() throws IOException {
+		return new ServerPacket(new ByteArrayInputStream(frame));
+	}
+
+	@Benchmark
+	public Packet decodeFromBuffer() throws IOException {
+		frameBuffer.clear();
+		return ServerPacket.decode(frameBuffer);
+	}
+
+	@Benchmark
+	public void decodeMultiFragmentResponse(Blackhole blackhole) throws IOException {
+		ByteArrayInputStream stream = new ByteArrayInputStream(fragmentedResponse);
+		for (int i = 0; i < BenchmarkServer.LARGE_RESPONSE_FRAGMENTS; i++)
+			blackhole.consume(new ServerPacket(stream));
+	}
+
+	@Benchmark
+	public void decodeMultiFragmentResponsePerByte(Blackhole blackhole) throws IOException {
+		ByteArrayInputStream stream = new ByteArrayInputStream(fragmentedResponse);
+		for (int i = 0; i < BenchmarkServer.LARGE_RESPONSE_FRAGMENTS; i++)
+			blackhole.consume(readPerByte(stream));
+	}
+
+	/**
+	 * The decoding of the original {@code ServerPacket.readFrom}: a new array
+	 * for every header field and one {@code read()} call per payload byte
+	 */
+	private static byte[] readPerByte(InputStream stream) throws IOException {
+		int length = readInt(stream);
+		readInt(stream);
+		readInt(stream);
+		byte[] payload = new byte[length - 10];
+		for (int i = 0; i < payload.length; i++)
+			payload[i] = (byte) stream.read();
+		if (stream.read() != 0 || stream.read() != 0)
+			throw new IOException("Terminator byte not zero");
+		return payload;
+	}
+
+	private static int readInt(InputStream stream) throws IOException {
+		byte[] bytes = new byte[Integer.BYTES];
+		if (stream.read(bytes) == -1)
+			throw new EOFException();
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+	}
+
+}
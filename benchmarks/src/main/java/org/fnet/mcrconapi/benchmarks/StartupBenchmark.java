@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wall-clock time of a complete {@code mcrconapi -c "echo ok"} process
+ * against an in-process {@link BenchmarkServer}: JVM startup, class loading,
+ * connect, auth and one command. Run from the project root after
+ * {@code mvn -Pappcds package}, the paths can be changed with
+ * {@code -p jar=...} and {@code -p nativeImage=...}. The {@code native}
+ * launcher needs {@code mvn -Pnative package} and is left out by default.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+	/**
+	 * {@code jar}: plain {@code java -jar}, {@code appcds}: with the archive of
+	 * the appcds profile and only the C1 compiler, {@code native}: the GraalVM
+	 * executable
+	 */
+	@Param({ "jar", "appcds" })
+	String launcher;
+
+	@Param("target/mcrconapi-1.1.1.jar")
+	String jar;
+
+	@Param("target/mcrcon")
+	String nativeImage;
+
+	private BenchmarkServer server;
+	private List<String> command;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		server = new BenchmarkServer();
+		command = new ArrayList<>();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		switch (launcher) {
+		case "jar":
+			command.addAll(Arrays.asList(java, "-jar", requireFile(jar)));
+			break;
+		case "appcds":
+			String archive = requireFile(jar.replaceFirst("\\.jar$", ".jsa"));
+			command.addAll(Arrays.asList(java, "-XX:SharedArchiveFile=" + archive, "-XX:TieredStopAtLevel=1", "-jar",
+					requireFile(jar)));
+			break;
+		case "native":
+			command.add(requireFile(nativeImage));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown launcher " + launcher);
+		}
+		command.addAll(Arrays.asList("--noninteractive", "--host", "127.0.0.1", "--port",
+				Integer.toString(server.getPort()), "--login", BenchmarkServer.PASSWORD, "--command",
+				BenchmarkServer.ECHO_PREFIX + "ok"));
+	}
+
+	private static String requireFile(String path) {
+		File file = new File(path);
+		if (!file.isFile())
+			throw new IllegalStateException(file.getAbsolutePath() + " not found, see the javadoc of StartupBenchmark");
+		return file.getPath();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Benchmark
+	public int startAndSend() throws IOException, InterruptedException {
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		byte[] buffer = new byte[1024];
+		try (InputStream output = process.getInputStream()) {
+			while (output.read(buffer) != -1)
+				;
+		}
+		int status = process.waitFor();
+		if (status != 0)
+			throw new IllegalStateException("The CLI exited with status " + status);
+		return status;
+	}
+
+}
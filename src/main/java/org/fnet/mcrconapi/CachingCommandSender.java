@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the output of read-only commands, so that many dashboards polling
+ * {@code list} every second cause one command per second on the server
+ * instead of one per viewer:
+ *
+ * <pre>
+ * CachingCommandSender cached = new CachingCommandSender(client);
+ * cached.cache("list", 1, TimeUnit.SECONDS);
+ * cached.cache("time query .*", 500, TimeUnit.MILLISECONDS);
+ * String players = cached.sendCommand("list");
+ * </pre>
+ *
+ * Only commands that match a pattern registered with
+ * {@link CachingCommandSender#cache(String, long, TimeUnit)} are cached, all
+ * others are passed through. Commands are normalized before matching and
+ * lookup: leading and trailing whitespace and a leading slash are removed, runs
+ * of whitespace are collapsed to a single space and the command name is
+ * lowercased. The arguments keep their case. Cached commands are sent in
+ * their normalized form, so all forms that share an entry get the output of
+ * the same command.
+ * <p>
+ * Concurrent requests for a command that is not cached share one round trip:
+ * the first caller sends the command, the others wait for its output. Failures
+ * are passed to all waiting callers but not cached. The cache holds at most a
+ * fixed number of entries and evicts the least recently used one.
+ */
+public class CachingCommandSender implements CommandSender {
+
+	/**
+	 * The default maximum number of cached commands
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private final CommandSender delegate;
+	private final int maxEntries;
+	private final LongSupplier clock;
+	private final List<Rule> rules = new CopyOnWriteArrayList<>();
+	/**
+	 * The cached and in-flight commands in access order, guarded by
+	 * {@code this}
+	 */
+	private final LinkedHashMap<String, CacheEntry> entries;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a cache with room for {@link #DEFAULT_MAX_ENTRIES} commands
+	 *
+	 * @param delegate
+	 *            the sender that executes commands on a cache miss
+	 */
+	public CachingCommandSender(CommandSender delegate) {
+		this(delegate, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param delegate
+	 *            the sender that executes commands on a cache miss
+	 * @param maxEntries
+	 *            the maximum number of cached commands
+	 */
+	public CachingCommandSender(CommandSender delegate, int maxEntries) {
+		this(delegate, maxEntries, System::nanoTime);
+	}
+
+	/**
+	 * @param clock
+	 *            the time source in nanoseconds
+	 */
+	CachingCommandSender(CommandSender delegate, int maxEntries, LongSupplier clock) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("Maximum entries must be at least one");
+		this.delegate = Objects.requireNonNull(delegate, "delegate");
+		this.maxEntries = maxEntries;
+		this.clock = clock;
+		entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > CachingCommandSender.this.maxEntries;
+			}
+
+		};
+	}
+
+	/**
+	 * Caches the output of all commands that match the given regular
+	 * expression. The expression is matched against the whole normalized
+	 * command. If several patterns match a command, the one registered first
+	 * applies.
+	 *
+	 * @param regex
+	 *            the pattern, e.g. {@code list} or {@code time query .*}
+	 * @param ttl
+	 *            how long the output is reused
+	 * @param unit
+	 *            the unit of the time to live
+	 */
+	public void cache(String regex, long ttl, TimeUnit unit) {
+		if (ttl <= 0)
+			throw new IllegalArgumentException("Time to live must be positive");
+		rules.add(new Rule(Pattern.compile(regex), unit.toNanos(ttl)));
+	}
+
+	/**
+	 * Normalizes a command like the cache does before matching it against the
+	 * patterns
+	 *
+	 * @param command
+	 *            the command
+	 * @return the normalized command
+	 */
+	public static String normalize(String command) {
+		String normalized = WHITESPACE.matcher(command.trim()).replaceAll(" ");
+		if (normalized.startsWith("/"))
+			normalized = normalized.substring(1);
+		int space = normalized.indexOf(' ');
+		if (space == -1)
+			return normalized.toLowerCase(Locale.ROOT);
+		return normalized.substring(0, space).toLowerCase(Locale.ROOT) + normalized.substring(space);
+	}
+
+	/**
+	 * Returns the cached output of a command if it is cacheable and fresh,
+	 * otherwise sends it
+	 *
+	 * @param command
+	 *            the command to send
+	 * @return the output of the command
+	 * @throws AuthenticationException
+	 *             if the delegate is not authenticated
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public String sendCommand(String command) throws AuthenticationException, IOException {
+		String key = normalize(command);
+		Rule rule = findRule(key);
+		if (rule == null)
+			return delegate.sendCommand(command);
+		CacheEntry entry;
+		boolean owner = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null || entry.isExpired(clock.getAsLong())) {
+				entry = new CacheEntry();
+				entries.put(key, entry);
+				owner = true;
+			}
+		}
+		if (!owner) {
+			hits.increment();
+			return entry.await();
+		}
+		misses.increment();
+		try {
+			String output = delegate.sendCommand(key);
+			entry.complete(output, clock.getAsLong() + rule.ttl);
+			return output;
+		} catch (Throwable e) {
+			// Fail the entry on errors, too, or the waiting callers would
+			// block forever
+			synchronized (this) {
+				entries.remove(key, entry);
+			}
+			entry.fail(e);
+			throw e;
+		}
+	}
+
+	private Rule findRule(String command) {
+		for (Rule rule : rules)
+			if (rule.pattern.matcher(command).matches())
+				return rule;
+		return null;
+	}
+
+	/**
+	 * Drops the cached output of a command, e.g. after a command that changes
+	 * it was sent
+	 *
+	 * @param command
+	 *            the command
+	 */
+	public synchronized void invalidate(String command) {
+		entries.remove(normalize(command));
+	}
+
+	/**
+	 * Drops all cached output
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of cached and in-flight commands
+	 *
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns how often a command was answered from the cache or joined a
+	 * round trip that was already in flight
+	 *
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns how often a cacheable command had to be sent
+	 *
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	private static final class Rule {
+
+		private final Pattern pattern;
+		private final long ttl;
+
+		private Rule(Pattern pattern, long ttl) {
+			this.pattern = pattern;
+			this.ttl = ttl;
+		}
+
+	}
+
+	/**
+	 * The output of a command, or the round trip that is going to produce it
+	 */
+	private static final class CacheEntry {
+
+		private final CompletableFuture<String> output = new CompletableFuture<>();
+		/**
+		 * Only valid once the output is complete
+		 */
+		private volatile long expiresAt;
+
+		boolean isExpired(long now) {
+			return output.isDone() && now - expiresAt >= 0;
+		}
+
+		void complete(String output, long expiresAt) {
+			this.expiresAt = expiresAt;
+			this.output.complete(output);
+		}
+
+		void fail(Throwable cause) {
+			output.completeExceptionally(cause);
+		}
+
+		String await() throws AuthenticationException, IOException {
+			try {
+				return output.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a shared response");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof AuthenticationException)
+					throw (AuthenticationException) cause;
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IOException(cause);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.fnet.mcrconapi.metrics.RConMetrics;
+import org.fnet.mcrconapi.nio.FrameAccumulator;
+import org.fnet.mcrconapi.nio.SelectorLoop;
+import org.fnet.mcrconapi.packet.PacketEncoder;
+import org.fnet.mcrconapi.packet.PacketType;
+import org.fnet.mcrconapi.packet.ServerPacket;
+
+/**
+ * A {@link Transport} over a non-blocking {@link SocketChannel} that is driven
+ * by a selector thread of an {@link RConEventLoop}. Received bytes are decoded
+ * incrementally, so frames that arrive in pieces are parsed once their last
+ * byte came in.
+ */
+class ChannelTransport implements Transport, SelectorLoop.Handler {
+
+	private static final int INITIAL_WRITE_BUFFER_SIZE = 8 * 1024;
+
+	private final SocketChannel channel;
+	private final InetSocketAddress address;
+	private final SelectorLoop selectorThread;
+	private final CompletableFuture<ChannelTransport> connected;
+	private SelectionKey key;
+
+	private volatile ResponseDispatcher dispatcher;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	/**
+	 * Bytes of a frame that is not complete yet. Only accessed by the selector
+	 * thread.
+	 */
+	private final FrameAccumulator received = new FrameAccumulator(4096 + 14);
+	private volatile RConMetrics metrics = RConMetrics.NOOP;
+	private PacketEncoder encoder = new PacketEncoder();
+	/**
+	 * Encoded packets that were not written yet, in write mode. Guarded by
+	 * {@code this}, like the encoder.
+	 */
+	private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(INITIAL_WRITE_BUFFER_SIZE);
+
+	ChannelTransport(SocketChannel channel, InetSocketAddress address, SelectorLoop selectorThread,
+			CompletableFuture<ChannelTransport> connected) {
+		this.channel = channel;
+		this.address = address;
+		this.selectorThread = selectorThread;
+		this.connected = connected;
+	}
+
+	/**
+	 * Starts connecting, called on the selector thread after registering the
+	 * channel
+	 */
+	void connect(SelectionKey key) throws IOException {
+		this.key = key;
+		if (channel.connect(address))
+			finishConnect();
+		else
+			key.interestOps(SelectionKey.OP_CONNECT);
+	}
+
+	private void finishConnect() throws IOException {
+		key.interestOps(SelectionKey.OP_READ);
+		connected.complete(this);
+	}
+
+	@Override
+	public void handle(SelectionKey key, ByteBuffer readBuffer) {
+		try {
+			if (key.isConnectable() && channel.finishConnect())
+				finishConnect();
+			if (key.isValid() && key.isReadable())
+				read(readBuffer);
+			if (key.isValid() && key.isWritable())
+				flush();
+		} catch (CancelledKeyException e) {
+			fail(new IOException("Connection closed"));
+		} catch (MalformedPacketException e) {
+			metrics.malformedPacket(e);
+			fail(e);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void read(ByteBuffer readBuffer) throws IOException {
+		readBuffer.clear();
+		int read = channel.read(readBuffer);
+		if (read == -1)
+			throw new EOFException("Connection closed by server");
+		metrics.bytesReceived(read);
+		readBuffer.flip();
+		received.accept(readBuffer, this::decode);
+	}
+
+	private void decode(ByteBuffer buffer) throws IOException {
+		ResponseDispatcher dispatcher = this.dispatcher;
+		ServerPacket packet;
+		while ((packet = ServerPacket.decode(buffer)) != null) {
+			// The server never sends unsolicited packets, so every packet
+			// arrives after start() was called
+			if (dispatcher != null)
+				dispatcher.dispatch(packet);
+		}
+	}
+
+	@Override
+	public synchronized void setPayloadCharset(Charset charset) {
+		encoder = new PacketEncoder(charset);
+	}
+
+	@Override
+	public void setMetrics(RConMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Writes as much of the write buffer as the channel accepts and registers
+	 * interest in writability if something is left
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		writeBuffer.flip();
+		int written = channel.write(writeBuffer);
+		if (written > 0)
+			metrics.bytesSent(written);
+		boolean remaining = writeBuffer.hasRemaining();
+		writeBuffer.compact();
+		if (selectorThread.isCurrentThread()) {
+			key.interestOps(remaining ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		} else if (remaining) {
+			try {
+				selectorThread.execute(() -> {
+					if (key.isValid())
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				});
+			} catch (RejectedExecutionException e) {
+				// The loop aborts the connection once it stopped
+				throw new IOException("Event loop closed", e);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void write(int requestID, PacketType type, String payload) throws IOException {
+		encode(requestID, type, payload);
+		flush();
+	}
+
+	@Override
+	public synchronized void encode(int requestID, PacketType type, String payload) throws IOException {
+		if (closed.get())
+			throw new IOException("Connection closed");
+		int frameLength = encoder.maxFrameLength(payload);
+		if (writeBuffer.remaining() < frameLength) {
+			ByteBuffer grown = ByteBuffer
+					.allocateDirect(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + frameLength));
+			writeBuffer.flip();
+			writeBuffer = grown.put(writeBuffer);
+		}
+		encoder.encode(requestID, type, payload, writeBuffer);
+	}
+
+	@Override
+	public ServerPacket read() {
+		throw new UnsupportedOperationException("Packets are only delivered asynchronously");
+	}
+
+	@Override
+	public void start(ResponseDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed.get();
+	}
+
+	@Override
+	public String getServerDescription() {
+		return address.getAddress().getHostAddress() + ":" + address.getPort();
+	}
+
+	@Override
+	public void abort(IOException cause) {
+		fail(cause);
+	}
+
+	/**
+	 * Closes the connection because of an error and fails all pending
+	 * responses
+	 */
+	void fail(IOException cause) {
+		if (!closed.compareAndSet(false, true))
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Ignore: the connection is failed anyway
+		}
+		connected.completeExceptionally(cause);
+		ResponseDispatcher dispatcher = this.dispatcher;
+		if (dispatcher != null)
+			dispatcher.terminate(cause);
+	}
+
+	@Override
+	public void close() throws IOException {
+		fail(new IOException("Connection closed"));
+	}
+
+}
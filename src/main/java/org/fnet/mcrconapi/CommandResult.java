@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+/**
+ * The outcome of a single command of a batch: either the output of the
+ * command or the exception that prevented it from completing
+ * 
+ * @see RConClient#sendBatch(java.util.List)
+ */
+public final class CommandResult {
+
+	private final String command;
+	private final String response;
+	private final Exception error;
+
+	private CommandResult(String command, String response, Exception error) {
+		this.command = command;
+		this.response = response;
+		this.error = error;
+	}
+
+	/**
+	 * Creates a result for a command that completed
+	 * 
+	 * @param command
+	 *            the command
+	 * @param response
+	 *            the output of the command
+	 * @return the result
+	 */
+	public static CommandResult success(String command, String response) {
+		return new CommandResult(command, response, null);
+	}
+
+	/**
+	 * Creates a result for a command that failed
+	 * 
+	 * @param command
+	 *            the command
+	 * @param error
+	 *            the reason of the failure
+	 * @return the result
+	 */
+	public static CommandResult failure(String command, Exception error) {
+		return new CommandResult(command, null, error);
+	}
+
+	/**
+	 * Returns the command that was sent
+	 * 
+	 * @return the command
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * Returns the output of the command
+	 * 
+	 * @return the output or null if the command failed
+	 */
+	public String getResponse() {
+		return response;
+	}
+
+	/**
+	 * Returns the exception that made the command fail, e.g. an
+	 * {@link InvalidPacketException} or the {@link java.io.IOException} that
+	 * broke the connection
+	 * 
+	 * @return the exception or null if the command succeeded
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	/**
+	 * Returns if the command completed
+	 * 
+	 * @return true if there is a response and no error
+	 */
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return isSuccessful() ? "CommandResult[command=\"" + command + "\", response=\"" + response + "\"]"
+				: "CommandResult[command=\"" + command + "\", error=" + error + "]";
+	}
+
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.fnet.mcrconapi.metrics.RConMetrics;
+
+/**
+ * Queues the commands of an authenticated {@link RConClient} and sends them at
+ * a limited rate, so that automation can't lag the main thread of the server.
+ * Each command is queued with a {@link Priority}. Queued {@link Priority#URGENT
+ * urgent} commands like {@code kick} or {@code stop} are always sent before
+ * {@link Priority#NORMAL normal} ones, and those before
+ * {@link Priority#BULK bulk} work:
+ *
+ * <pre>
+ * CommandScheduler scheduler = new CommandScheduler(client, new TokenBucket(20, 5));
+ * scheduler.submit("save-all", CommandScheduler.Priority.BULK);
+ * scheduler.submit("kick Griefer", CommandScheduler.Priority.URGENT);
+ * </pre>
+ *
+ * Only a few commands are passed to the connection at a time, the others wait
+ * in their queues, so that an urgent command only has to wait for the commands
+ * that are already in flight and for the next permit of the rate limit.
+ * Queue depths and wait times are reported to the {@link RConMetrics} of the
+ * client.
+ * <p>
+ * Commands are sent from a thread of the scheduler, the client is switched to
+ * pipelined mode by the first one.
+ */
+public class CommandScheduler implements CommandSender, Closeable {
+
+	/**
+	 * The default number of commands that are sent without waiting for their
+	 * responses
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+
+	/**
+	 * The queue a command waits in. Queues are served strictly in the order
+	 * of the constants.
+	 */
+	public enum Priority {
+		/**
+		 * Commands that must not wait behind other work, e.g. {@code kick} or
+		 * {@code stop}
+		 */
+		URGENT,
+		/**
+		 * Interactive commands, used by {@link CommandScheduler#sendCommand}
+		 */
+		NORMAL,
+		/**
+		 * Background work that only runs while nothing else is queued
+		 */
+		BULK
+	}
+
+	private static final Priority[] PRIORITIES = Priority.values();
+
+	private final RConClient client;
+	private final TokenBucket rateLimit;
+	private final int maxInFlight;
+	private final ScheduledExecutorService executor;
+	/**
+	 * One queue per priority, guarded by {@code this}
+	 */
+	private final ArrayDeque<QueuedCommand>[] queues;
+	private int queuedCommands;
+	private int inFlight;
+	/**
+	 * Set while a drain is submitted to the executor
+	 */
+	private boolean drainScheduled;
+	/**
+	 * Set while the rate limit makes the scheduler wait for a permit it
+	 * reserved
+	 */
+	private boolean waitingForPermit;
+	/**
+	 * Set if a permit was reserved and its wait is over, so the next command
+	 * doesn't take another one
+	 */
+	private boolean permitReserved;
+	private boolean closed;
+
+	/**
+	 * Creates a scheduler that sends {@link #DEFAULT_MAX_IN_FLIGHT} command at
+	 * a time
+	 *
+	 * @param client
+	 *            the authenticated client
+	 * @param rateLimit
+	 *            the rate at which commands are sent, null for no limit
+	 */
+	public CommandScheduler(RConClient client, TokenBucket rateLimit) {
+		this(client, rateLimit, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * Creates a scheduler
+	 *
+	 * @param client
+	 *            the authenticated client
+	 * @param rateLimit
+	 *            the rate at which commands are sent, null for no limit
+	 * @param maxInFlight
+	 *            the number of commands that are sent without waiting for
+	 *            their responses. Higher values increase throughput, but
+	 *            urgent commands have to wait for more commands ahead of them.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public CommandScheduler(RConClient client, TokenBucket rateLimit, int maxInFlight) {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("Maximum in-flight commands must be at least one");
+		this.client = Objects.requireNonNull(client, "client");
+		this.rateLimit = rateLimit;
+		this.maxInFlight = maxInFlight;
+		queues = new ArrayDeque[PRIORITIES.length];
+		for (int i = 0; i < queues.length; i++)
+			queues[i] = new ArrayDeque<>();
+		executor = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "RCON command scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues a command
+	 *
+	 * @param command
+	 *            the command to send
+	 * @param priority
+	 *            the queue to put the command in
+	 * @return a future that is completed with the output of the command.
+	 *         Cancelling it removes the command from the queue if it was not
+	 *         sent yet.
+	 */
+	public CompletableFuture<String> submit(String command, Priority priority) {
+		Objects.requireNonNull(command, "command");
+		RConMetrics metrics = client.getMetrics();
+		boolean timed = metrics != RConMetrics.NOOP;
+		QueuedCommand queued = new QueuedCommand(command, priority, timed ? System.nanoTime() : 0);
+		int depth;
+		synchronized (this) {
+			if (closed) {
+				queued.output.completeExceptionally(new IOException("Scheduler closed"));
+				return queued.output;
+			}
+			queues[priority.ordinal()].add(queued);
+			depth = ++queuedCommands;
+			scheduleDrain();
+		}
+		if (timed)
+			metrics.commandQueued(depth);
+		return queued.output;
+	}
+
+	/**
+	 * Queues a command with {@link Priority#NORMAL} and waits for its output
+	 *
+	 * @param command
+	 *            the command to send
+	 * @return the output of the command
+	 * @throws AuthenticationException
+	 *             if the client is not authenticated
+	 * @throws IOException
+	 *             if an I/O error occurs or the scheduler is closed
+	 */
+	@Override
+	public String sendCommand(String command) throws AuthenticationException, IOException {
+		return RConClient.await(submit(command, Priority.NORMAL));
+	}
+
+	/**
+	 * Runs {@link #drain()} on the executor unless it is already scheduled.
+	 * Must be called while holding the lock.
+	 */
+	private void scheduleDrain() {
+		if (drainScheduled || waitingForPermit || closed)
+			return;
+		drainScheduled = true;
+		try {
+			executor.execute(this::drain);
+		} catch (RejectedExecutionException e) {
+			drainScheduled = false;
+		}
+	}
+
+	/**
+	 * Sends queued commands until the in-flight limit is reached, the queues
+	 * are empty or the rate limit says to wait. Runs on the executor.
+	 */
+	private void drain() {
+		while (true) {
+			QueuedCommand next;
+			synchronized (this) {
+				drainScheduled = false;
+				if (closed || waitingForPermit || inFlight >= maxInFlight)
+					return;
+				next = poll();
+				if (next == null)
+					return;
+				if (rateLimit != null && !permitReserved) {
+					long wait = rateLimit.reserve();
+					if (wait > 0) {
+						// The permit goes to whatever command is first in line
+						// once the wait is over, which may be a more urgent one
+						push(next);
+						waitingForPermit = true;
+						executor.schedule(this::permitAvailable, wait, TimeUnit.NANOSECONDS);
+						return;
+					}
+				}
+				permitReserved = false;
+				inFlight++;
+			}
+			send(next);
+		}
+	}
+
+	private void permitAvailable() {
+		synchronized (this) {
+			waitingForPermit = false;
+			permitReserved = true;
+		}
+		drain();
+	}
+
+	private QueuedCommand poll() {
+		for (ArrayDeque<QueuedCommand> queue : queues) {
+			QueuedCommand queued;
+			while ((queued = queue.poll()) != null) {
+				queuedCommands--;
+				if (!queued.output.isDone())
+					return queued;
+			}
+		}
+		return null;
+	}
+
+	private void push(QueuedCommand queued) {
+		queues[queued.priority.ordinal()].addFirst(queued);
+		queuedCommands++;
+	}
+
+	private void send(QueuedCommand queued) {
+		RConMetrics metrics = client.getMetrics();
+		if (queued.queuedAt != 0 && metrics != RConMetrics.NOOP)
+			metrics.commandDequeued(System.nanoTime() - queued.queuedAt);
+		CompletableFuture<String> output;
+		try {
+			output = client.sendCommandAsync(queued.command);
+		} catch (RuntimeException e) {
+			output = new CompletableFuture<>();
+			output.completeExceptionally(e);
+		}
+		output.whenComplete((result, error) -> {
+			synchronized (this) {
+				inFlight--;
+				scheduleDrain();
+			}
+			if (error != null)
+				queued.output.completeExceptionally(error);
+			else
+				queued.output.complete(result);
+		});
+	}
+
+	/**
+	 * Returns the number of commands waiting in all queues
+	 *
+	 * @return the queue depth
+	 */
+	public synchronized int getQueueDepth() {
+		return queuedCommands;
+	}
+
+	/**
+	 * Returns the number of commands waiting with a priority
+	 *
+	 * @param priority
+	 *            the priority
+	 * @return the depth of the queue
+	 */
+	public synchronized int getQueueDepth(Priority priority) {
+		return queues[priority.ordinal()].size();
+	}
+
+	/**
+	 * Returns the number of commands that were sent and are waiting for their
+	 * responses
+	 *
+	 * @return the number of commands in flight
+	 */
+	public synchronized int getInFlightCount() {
+		return inFlight;
+	}
+
+	/**
+	 * Returns the client commands are sent with
+	 *
+	 * @return the client
+	 */
+	public RConClient getClient() {
+		return client;
+	}
+
+	/**
+	 * Stops the scheduler. Queued commands fail with an {@link IOException},
+	 * commands in flight still complete. The client is not closed.
+	 */
+	@Override
+	public void close() {
+		List<QueuedCommand> dropped = new ArrayList<>();
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			for (ArrayDeque<QueuedCommand> queue : queues) {
+				dropped.addAll(queue);
+				queue.clear();
+			}
+			queuedCommands = 0;
+		}
+		executor.shutdownNow();
+		IOException closedException = new IOException("Scheduler closed");
+		for (QueuedCommand queued : dropped)
+			queued.output.completeExceptionally(closedException);
+	}
+
+	private static final class QueuedCommand {
+
+		private final String command;
+		private final Priority priority;
+		private final long queuedAt;
+		private final CompletableFuture<String> output = new CompletableFuture<>();
+
+		private QueuedCommand(String command, Priority priority, long queuedAt) {
+			this.command = command;
+			this.priority = priority;
+			this.queuedAt = queuedAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.IOException;
+
+/**
+ * Anything that executes commands on a server and waits for their output,
+ * like an {@link RConClient} or a {@link ResilientRConClient}. Layers such as
+ * {@link CachingCommandSender} wrap a sender and are senders themselves.
+ */
+@FunctionalInterface
+public interface CommandSender {
+
+	/**
+	 * Sends a command and waits for its output
+	 *
+	 * @param command
+	 *            the command to send
+	 * @return the output of the command
+	 * @throws AuthenticationException
+	 *             if the sender is not authenticated
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	String sendCommand(String command) throws AuthenticationException, IOException;
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.fnet.mcrconapi.packet.Packet;
+
+/**
+ * Broadcasts a command to many servers at once, with one blocking
+ * {@link RConClient} session per server. On Java 21 and newer every session
+ * runs on its own virtual thread, so thousands of targets only cost a few
+ * carrier threads. On older JVMs the sessions run on a bounded pool of
+ * platform threads instead.
+ * <p>
+ * At most {@code maxConcurrency} sessions are open at the same time, the
+ * other targets wait for a free slot. Every session is bounded by the timeout
+ * of the broadcast, measured from the moment it got its slot.
+ * 
+ * <pre>
+ * try (FleetExecutor fleet = new FleetExecutor()) {
+ * 	fleet.broadcast(servers, "save-all", 10, TimeUnit.SECONDS, result -&gt; System.out.println(result)).join();
+ * }
+ * </pre>
+ */
+public class FleetExecutor implements Closeable {
+
+	/**
+	 * The default maximum number of concurrent sessions
+	 */
+	public static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+	private static final long POOL_KEEP_ALIVE_SECONDS = 30;
+
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	private final Semaphore permits;
+	private final RConClientOptions options;
+	private volatile Charset payloadCharset = Packet.DEFAULT_PAYLOAD_CHARSET;
+	private volatile boolean closed;
+
+	/**
+	 * Creates an executor with {@link FleetExecutor#DEFAULT_MAX_CONCURRENCY}
+	 * concurrent sessions and the default client options
+	 */
+	public FleetExecutor() {
+		this(DEFAULT_MAX_CONCURRENCY, RConClientOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates an executor
+	 * 
+	 * @param maxConcurrency
+	 *            the maximum number of sessions that are open at the same time
+	 * @param options
+	 *            the socket options of the sessions, the connect timeout is
+	 *            lowered to the timeout of the broadcast if necessary
+	 */
+	public FleetExecutor(int maxConcurrency, RConClientOptions options) {
+		this(maxConcurrency, options, true);
+	}
+
+	FleetExecutor(int maxConcurrency, RConClientOptions options, boolean allowVirtualThreads) {
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("Concurrency must be at least one");
+		this.options = Objects.requireNonNull(options, "options");
+		this.permits = new Semaphore(maxConcurrency);
+		ExecutorService virtualThreadExecutor = allowVirtualThreads ? newVirtualThreadExecutor() : null;
+		this.virtualThreads = virtualThreadExecutor != null;
+		this.executor = virtualThreads ? virtualThreadExecutor : newThreadPool(maxConcurrency);
+	}
+
+	/**
+	 * Uses {@code Executors.newVirtualThreadPerTaskExecutor()} if the running
+	 * JVM has it. It is looked up reflectively so that the library still
+	 * compiles and runs on Java 8.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static ExecutorService newThreadPool(int threads) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable, "RCON fleet " + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Returns if the sessions run on virtual threads
+	 * 
+	 * @return true if virtual threads are used, false if the sessions run on a
+	 *         pool of platform threads
+	 */
+	public boolean isUsingVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Sets the charset that commands, passwords and outputs of the sessions
+	 * are encoded with, see {@link RConClient#setPayloadCharset(Charset)}. It
+	 * applies to broadcasts started afterwards.
+	 * 
+	 * @param charset
+	 *            the payload charset, {@link Packet#DEFAULT_PAYLOAD_CHARSET}
+	 *            by default
+	 */
+	public void setPayloadCharset(Charset charset) {
+		payloadCharset = Objects.requireNonNull(charset, "charset");
+	}
+
+	/**
+	 * Returns the charset that payloads of the sessions are encoded with
+	 * 
+	 * @return the payload charset
+	 */
+	public Charset getPayloadCharset() {
+		return payloadCharset;
+	}
+
+	/**
+	 * Same as
+	 * {@link FleetExecutor#broadcast(Collection, String, long, TimeUnit, Consumer)}
+	 * without a listener
+	 * 
+	 * @param targets
+	 *            the servers to send the command to
+	 * @param command
+	 *            the command
+	 * @param timeout
+	 *            the time every session may take, zero for none
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return a future that is completed with the results of all targets, in
+	 *         the order they completed
+	 */
+	public CompletableFuture<List<FleetResult>> broadcast(Collection<RConEndpoint> targets, String command,
+			long timeout, TimeUnit unit) {
+		return broadcast(targets, command, timeout, unit, result -> {
+		});
+	}
+
+	/**
+	 * Connects to every target, authenticates, sends the command and closes
+	 * the session again. Results are handed to the listener as soon as the
+	 * session of a target is finished, on the thread that ran the session.
+	 * Failing targets don't affect the others, their error is reported in
+	 * their {@link FleetResult}.
+	 * 
+	 * @param targets
+	 *            the servers to send the command to
+	 * @param command
+	 *            the command
+	 * @param timeout
+	 *            the time every session may take, zero for none
+	 * @param unit
+	 *            the unit of the timeout
+	 * @param listener
+	 *            called with the result of every target as it completes, has
+	 *            to be thread-safe
+	 * @return a future that is completed with the results of all targets, in
+	 *         the order they completed. It completes exceptionally if the
+	 *         listener threw an exception.
+	 * @throws IllegalStateException
+	 *             if the executor is closed
+	 */
+	public CompletableFuture<List<FleetResult>> broadcast(Collection<RConEndpoint> targets, String command,
+			long timeout, TimeUnit unit, Consumer<? super FleetResult> listener) {
+		Objects.requireNonNull(command, "command");
+		Objects.requireNonNull(listener, "listener");
+		if (timeout < 0)
+			throw new IllegalArgumentException("Timeout must not be negative");
+		if (closed)
+			throw new IllegalStateException("Fleet executor closed");
+		long timeoutNanos = unit.toNanos(timeout);
+		Charset charset = payloadCharset;
+		List<FleetResult> results = new ArrayList<>(targets.size());
+		CompletableFuture<List<FleetResult>> completion = new CompletableFuture<>();
+		AtomicInteger remaining = new AtomicInteger(targets.size());
+		AtomicReference<RuntimeException> listenerFailure = new AtomicReference<>();
+		if (targets.isEmpty())
+			completion.complete(results);
+		for (RConEndpoint target : targets) {
+			Consumer<FleetResult> finish = result -> {
+				try {
+					synchronized (results) {
+						results.add(result);
+					}
+					listener.accept(result);
+				} catch (RuntimeException e) {
+					listenerFailure.compareAndSet(null, e);
+				} finally {
+					if (remaining.decrementAndGet() == 0) {
+						if (listenerFailure.get() != null)
+							completion.completeExceptionally(listenerFailure.get());
+						else
+							completion.complete(results);
+					}
+				}
+			};
+			try {
+				executor.execute(() -> {
+					long start = System.nanoTime();
+					FleetResult result;
+					try {
+						result = run(target, command, charset, timeoutNanos);
+					} catch (Throwable e) {
+						// Any failure has to end up in a result, otherwise the
+						// broadcast never completes
+						result = new FleetResult(target, null, asException(e), System.nanoTime() - start);
+					}
+					finish.accept(result);
+				});
+			} catch (RejectedExecutionException e) {
+				finish.accept(new FleetResult(target, null, new IOException("Fleet executor closed", e), 0));
+			}
+		}
+		return completion;
+	}
+
+	private static Exception asException(Throwable throwable) {
+		return throwable instanceof Exception ? (Exception) throwable : new ExecutionException(throwable);
+	}
+
+	private FleetResult run(RConEndpoint target, String command, Charset charset, long timeoutNanos) {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new FleetResult(target, null, new InterruptedIOException("Interrupted while waiting for a slot"),
+					0);
+		}
+		try {
+			return session(target, command, charset, timeoutNanos);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private FleetResult session(RConEndpoint target, String command, Charset charset, long timeoutNanos) {
+		long start = System.nanoTime();
+		RConClientOptions sessionOptions = options;
+		if (timeoutNanos > 0 && (options.getConnectTimeout() == 0
+				|| TimeUnit.MILLISECONDS.toNanos(options.getConnectTimeout()) > timeoutNanos))
+			sessionOptions = options.toBuilder().connectTimeout(timeoutNanos, TimeUnit.NANOSECONDS).build();
+		AtomicBoolean timedOut = new AtomicBoolean();
+		RConClient client = null;
+		ScheduledFuture<?> watchdog = null;
+		try {
+			client = new RConClient(target.getHost(), target.getPort(), sessionOptions);
+			client.setPayloadCharset(charset);
+			if (timeoutNanos > 0) {
+				RConClient session = client;
+				// Closing the socket unblocks the session thread
+				watchdog = RConClient.TimeoutScheduler.INSTANCE.schedule(() -> {
+					timedOut.set(true);
+					closeQuietly(session);
+				}, timeoutNanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+			}
+			client.authenticate(target.getPassword());
+			String response = client.sendCommand(command);
+			return new FleetResult(target, response, null, System.nanoTime() - start);
+		} catch (IOException | AuthenticationException e) {
+			Exception error = e;
+			if (timedOut.get() || timeoutNanos > 0 && e instanceof SocketTimeoutException) {
+				error = new TimeoutException("No response from " + target + " after "
+						+ TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+				error.initCause(e);
+			}
+			return new FleetResult(target, null, error, System.nanoTime() - start);
+		} finally {
+			if (watchdog != null)
+				watchdog.cancel(false);
+			if (client != null)
+				closeQuietly(client);
+		}
+	}
+
+	private static void closeQuietly(RConClient client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			// Ignore: the session is over anyway
+		}
+	}
+
+	/**
+	 * Stops accepting broadcasts and interrupts sessions that are still
+	 * waiting for a slot. Sessions that already run finish on their own,
+	 * bounded by the timeout of their broadcast.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a broadcast command on one server of a fleet
+ * 
+ * @see FleetExecutor
+ */
+public final class FleetResult {
+
+	private final RConEndpoint endpoint;
+	private final String response;
+	private final Exception error;
+	private final long durationNanos;
+
+	FleetResult(RConEndpoint endpoint, String response, Exception error, long durationNanos) {
+		this.endpoint = endpoint;
+		this.response = response;
+		this.error = error;
+		this.durationNanos = durationNanos;
+	}
+
+	/**
+	 * Returns the server the command was sent to
+	 * 
+	 * @return the endpoint
+	 */
+	public RConEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * Returns the output of the command
+	 * 
+	 * @return the output or null if the command failed
+	 */
+	public String getResponse() {
+		return response;
+	}
+
+	/**
+	 * Returns the exception that made connecting, authenticating or sending
+	 * the command fail. Targets that didn't finish in time fail with a
+	 * {@link java.util.concurrent.TimeoutException}.
+	 * 
+	 * @return the exception or null if the command succeeded
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	/**
+	 * Returns if the command completed on this server
+	 * 
+	 * @return true if there is a response and no error
+	 */
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	/**
+	 * Returns how long the session with this server took, from connecting
+	 * until the response arrived or the session failed. Time spent waiting
+	 * for a free slot is not included.
+	 * 
+	 * @param unit
+	 *            the unit of the returned duration
+	 * @return the duration in the given unit
+	 */
+	public long getDuration(TimeUnit unit) {
+		return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return isSuccessful() ? "FleetResult[endpoint=" + endpoint + ", response=\"" + response + "\"]"
+				: "FleetResult[endpoint=" + endpoint + ", error=" + error + "]";
+	}
+
+}
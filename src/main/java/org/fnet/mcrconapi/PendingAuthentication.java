@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import org.fnet.mcrconapi.AuthenticationException.ErrorType;
+import org.fnet.mcrconapi.packet.Packet;
+import org.fnet.mcrconapi.packet.PacketType;
+
+/**
+ * The pending response to a login packet. It is registered for the request ID
+ * of the login packet and for {@link Packet#REQUEST_ID_AUTH_FAIL}.
+ */
+class PendingAuthentication extends PendingResponse<Void> {
+
+	private final int requestID;
+	private final String serverDescription;
+	private final Runnable onSuccess;
+
+	/**
+	 * @param requestID
+	 *            the request ID of the login packet
+	 * @param serverDescription
+	 *            the server address used in error messages
+	 * @param onSuccess
+	 *            called before the future is completed if the login succeeded
+	 */
+	PendingAuthentication(int requestID, String serverDescription, Runnable onSuccess) {
+		this.requestID = requestID;
+		this.serverDescription = serverDescription;
+		this.onSuccess = onSuccess;
+	}
+
+	@Override
+	boolean accept(Packet packet) {
+		if (packet.getType() != PacketType.AUTH_RESPONSE) {
+			fail(new InvalidPacketException(
+					"Packet type should be AUTH_RESPONSE (" + PacketType.AUTH_RESPONSE.getId() + ")", packet));
+		} else if (packet.getRequestID() == requestID) {
+			onSuccess.run();
+			getFuture().complete(null);
+		} else {
+			fail(new AuthenticationException("Failed to authenticate at server " + serverDescription,
+					ErrorType.WRONG_PASSWORD));
+		}
+		return true;
+	}
+
+}
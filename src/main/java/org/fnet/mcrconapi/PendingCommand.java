@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import org.fnet.mcrconapi.packet.Packet;
+import org.fnet.mcrconapi.packet.PacketType;
+import org.fnet.mcrconapi.packet.PayloadDecoder;
+
+/**
+ * The pending output of a command. Fragments are appended until a packet
+ * shorter than 4096 bytes marks the end of the output.
+ *
+ * @param <T>
+ *            the result type of the collector
+ */
+class PendingCommand<T> extends PendingResponse<T> {
+
+	private final ResponseCollector<T> collector;
+	private final PayloadDecoder decoder;
+	private boolean repeated;
+
+	/**
+	 * @param collector
+	 *            receives the fragments of the output
+	 * @param decoder
+	 *            decodes the payloads of the fragments
+	 */
+	PendingCommand(ResponseCollector<T> collector, PayloadDecoder decoder) {
+		this.collector = collector;
+		this.decoder = decoder;
+	}
+
+	@Override
+	boolean accept(Packet packet) {
+		if (packet.getType() != PacketType.COMMAND_RESPONSE) {
+			fail(new InvalidPacketException("Received packet of invalid type " + packet.getType(), packet));
+			return true;
+		}
+		countFragment();
+		if (packet.getLength() == 4096) {
+			collector.append(decoder.decode(packet.getPayload(), false));
+			repeated = true;
+			return false;
+		}
+		if (packet.getLength() == 10)
+			fail(new InvalidPacketException("Packet payload of last packet empty "
+					+ (!repeated ? "(this could mean an invalid command)" : "(this could mean a server fault)"),
+					packet));
+		else {
+			collector.append(decoder.decode(packet.getPayload(), true));
+			complete(collector);
+		}
+		return true;
+	}
+
+}
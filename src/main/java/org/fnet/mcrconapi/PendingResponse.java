@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.fnet.mcrconapi.packet.Packet;
+
+/**
+ * A response to a request that was sent in pipelined mode and has not been
+ * fully received yet. Packets are handed to it by the
+ * {@link ResponseDispatcher} as they arrive.
+ *
+ * @param <T>
+ *            the result type of the response
+ */
+abstract class PendingResponse<T> {
+
+	private final CompletableFuture<T> future = new CompletableFuture<>();
+	private int fragments;
+
+	/**
+	 * Returns the future that is completed with the result of the response
+	 *
+	 * @return the future of this response
+	 */
+	CompletableFuture<T> getFuture() {
+		return future;
+	}
+
+	/**
+	 * Counts a received fragment of the response
+	 */
+	void countFragment() {
+		fragments++;
+	}
+
+	/**
+	 * Returns the number of fragments received so far, only read after the
+	 * future completed
+	 *
+	 * @return the number of fragments
+	 */
+	int getFragmentCount() {
+		return fragments;
+	}
+
+	/**
+	 * Called by the reader thread for every packet carrying a request ID this
+	 * response is registered for
+	 *
+	 * @param packet
+	 *            the received packet
+	 * @return true if the response is complete and no more packets are
+	 *         expected
+	 */
+	abstract boolean accept(Packet packet);
+
+	/**
+	 * Completes the response with the result of the collector, or
+	 * exceptionally if the collector fails
+	 *
+	 * @param collector
+	 *            the collector that received all fragments
+	 */
+	void complete(ResponseCollector<T> collector) {
+		try {
+			future.complete(collector.finish());
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Completes the response exceptionally, e.g. because the connection was
+	 * lost
+	 *
+	 * @param cause
+	 *            the reason of the failure
+	 */
+	void fail(Throwable cause) {
+		future.completeExceptionally(cause);
+	}
+
+}
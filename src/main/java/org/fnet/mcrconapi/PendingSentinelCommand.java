@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import org.fnet.mcrconapi.packet.Packet;
+import org.fnet.mcrconapi.packet.PacketType;
+import org.fnet.mcrconapi.packet.PayloadDecoder;
+
+/**
+ * The pending output of a command that was followed by a sentinel command.
+ * Fragments are appended until the response to the sentinel arrives.
+ * 
+ * @param <T>
+ *            the result type of the collector
+ * @see ResponseTermination#SENTINEL
+ */
+class PendingSentinelCommand<T> extends PendingResponse<T> {
+
+	private static final byte[] NO_BYTES = new byte[0];
+
+	private final int sentinelRequestID;
+	private final ResponseCollector<T> collector;
+	private final PayloadDecoder decoder;
+
+	/**
+	 * @param sentinelRequestID
+	 *            the request ID of the sentinel command
+	 * @param collector
+	 *            receives the fragments of the output
+	 * @param decoder
+	 *            decodes the payloads of the fragments
+	 */
+	PendingSentinelCommand(int sentinelRequestID, ResponseCollector<T> collector, PayloadDecoder decoder) {
+		this.sentinelRequestID = sentinelRequestID;
+		this.collector = collector;
+		this.decoder = decoder;
+	}
+
+	@Override
+	boolean accept(Packet packet) {
+		if (packet.getType() != PacketType.COMMAND_RESPONSE) {
+			fail(new InvalidPacketException("Received packet of invalid type " + packet.getType(), packet));
+			return true;
+		}
+		if (packet.getRequestID() == sentinelRequestID) {
+			String rest = decoder.decode(NO_BYTES, true);
+			if (!rest.isEmpty())
+				collector.append(rest);
+			complete(collector);
+			return true;
+		}
+		countFragment();
+		collector.append(decoder.decode(packet.getPayload(), false));
+		return false;
+	}
+
+}
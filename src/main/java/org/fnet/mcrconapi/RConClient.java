@@ -5,24 +5,39 @@
 package org.fnet.mcrconapi;
 
 import java.io.Closeable;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.fnet.mcrconapi.AuthenticationException.ErrorType;
-import org.fnet.mcrconapi.packet.ClientPacket;
+import org.fnet.mcrconapi.metrics.RConMetrics;
+import org.fnet.mcrconapi.packet.AtomicRequestIdGenerator;
 import org.fnet.mcrconapi.packet.Packet;
 import org.fnet.mcrconapi.packet.PacketType;
-import org.fnet.mcrconapi.packet.ServerPacket;
+import org.fnet.mcrconapi.packet.PayloadDecoder;
+import org.fnet.mcrconapi.packet.RequestIdGenerator;
 
 /**
  * A client that can connect to a RCON server, authenticate and then send
  * minecraft commands.
  */
-public class RConClient implements Closeable {
+public class RConClient implements CommandSender, Closeable {
 
 	/**
 	 * The default port for RCON used by minecraft
@@ -34,11 +49,28 @@ public class RConClient implements Closeable {
 	 */
 	public static final String API_VERSION = "1.1.1";
 
-	private Socket socket;
-	private OutputStream outputStream;
-	private InputStream inputStream;
+	/**
+	 * The default number of commands sent with one write by
+	 * {@link RConClient#sendBatch(List)}
+	 */
+	public static final int DEFAULT_BATCH_CHUNK_SIZE = 64;
+
+	private Transport transport;
+	/**
+	 * The read timeout of the options in milliseconds, zero for none. Applies
+	 * to the blocking methods in pipelined mode as well.
+	 */
+	private int readTimeout;
 
-	private boolean authenticated;
+	private final Object writeLock = new Object();
+	private final ResponseDispatcher dispatcher = new ResponseDispatcher();
+	private volatile boolean pipelined;
+	private volatile RequestIdGenerator requestIds = new AtomicRequestIdGenerator();
+	private volatile RConMetrics metrics = RConMetrics.NOOP;
+	private volatile Charset payloadCharset = Packet.DEFAULT_PAYLOAD_CHARSET;
+	private volatile ResponseTermination responseTermination = ResponseTermination.LENGTH_HEURISTIC;
+
+	private volatile boolean authenticated;
 
 	/**
 	 * Creates a connection to the rcon server and tries to authenticate using
@@ -57,8 +89,36 @@ public class RConClient implements Closeable {
 	 *             if the client fails to authenticate at the server
 	 */
 	public RConClient(String address, int port, String password) throws IOException, AuthenticationException {
-		createConnection(address, port);
-		authenticate(password);
+		this(address, port, password, RConClientOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates a connection to the rcon server with the given socket options and
+	 * tries to authenticate using the given password
+	 * 
+	 * @param address
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @param password
+	 *            the login password
+	 * @param options
+	 *            the socket options
+	 * @throws IOException
+	 *             if the socket fails to connect or one of the streams fail to
+	 *             read/write
+	 * @throws AuthenticationException
+	 *             if the client fails to authenticate at the server
+	 */
+	public RConClient(String address, int port, String password, RConClientOptions options)
+			throws IOException, AuthenticationException {
+		this(address, port, options);
+		try {
+			authenticate(password);
+		} catch (IOException | AuthenticationException e) {
+			close();
+			throw e;
+		}
 	}
 
 	/**
@@ -91,7 +151,24 @@ public class RConClient implements Closeable {
 	 *             read/write
 	 */
 	public RConClient(String address, int port) throws IOException {
-		createConnection(address, port);
+		this(address, port, RConClientOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates a connection to the rcon server with the given socket options
+	 * 
+	 * @param address
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @param options
+	 *            the socket options
+	 * @throws IOException
+	 *             if the socket fails to connect or one of the streams fails to
+	 *             read/write
+	 */
+	public RConClient(String address, int port, RConClientOptions options) throws IOException {
+		createConnection(address, port, Objects.requireNonNull(options, "options"));
 	}
 
 	/**
@@ -108,36 +185,267 @@ public class RConClient implements Closeable {
 		this(address, DEFAULT_RCON_PORT);
 	}
 
-	private void createConnection(String host, int port) throws IOException {
-		socket = new Socket(host, port);
-		outputStream = new DataOutputStream(socket.getOutputStream());
-		inputStream = new DataInputStream(socket.getInputStream());
+	/**
+	 * Creates a non-blocking connection to the rcon server that runs on the
+	 * given event loop. The client is in pipelined mode from the start.
+	 * 
+	 * @param eventLoop
+	 *            the event loop to run the connection on
+	 * @param address
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @throws IOException
+	 *             if the connection fails
+	 * @see RConClient#connect(RConEventLoop, String, int)
+	 */
+	public RConClient(RConEventLoop eventLoop, String address, int port) throws IOException {
+		this(eventLoop, address, port, RConClientOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates a non-blocking connection with the given socket options to the
+	 * rcon server that runs on the given event loop. The client is in
+	 * pipelined mode from the start. The input buffer options don't apply to
+	 * event loop connections.
+	 * 
+	 * @param eventLoop
+	 *            the event loop to run the connection on
+	 * @param address
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @param options
+	 *            the socket options
+	 * @throws IOException
+	 *             if the connection fails
+	 * @see RConClient#connect(RConEventLoop, String, int, RConClientOptions)
+	 */
+	public RConClient(RConEventLoop eventLoop, String address, int port, RConClientOptions options)
+			throws IOException {
+		Objects.requireNonNull(options, "options");
+		try {
+			useTransport(openChannel(eventLoop, address, port, options).get(), options);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while connecting");
+		} catch (ExecutionException e) {
+			throw asIOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Creates a non-blocking connection to the rcon server that runs on the
+	 * given event loop and tries to authenticate using the given password
+	 * 
+	 * @param eventLoop
+	 *            the event loop to run the connection on
+	 * @param address
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @param password
+	 *            the login password
+	 * @throws IOException
+	 *             if the connection fails
+	 * @throws AuthenticationException
+	 *             if the client fails to authenticate at the server
+	 */
+	public RConClient(RConEventLoop eventLoop, String address, int port, String password)
+			throws IOException, AuthenticationException {
+		this(eventLoop, address, port, password, RConClientOptions.DEFAULT);
 	}
 
 	/**
+	 * Creates a non-blocking connection with the given socket options to the
+	 * rcon server that runs on the given event loop and tries to authenticate
+	 * using the given password
+	 * 
+	 * @param eventLoop
+	 *            the event loop to run the connection on
+	 * @param address
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @param password
+	 *            the login password
+	 * @param options
+	 *            the socket options
+	 * @throws IOException
+	 *             if the connection fails
+	 * @throws AuthenticationException
+	 *             if the client fails to authenticate at the server
+	 */
+	public RConClient(RConEventLoop eventLoop, String address, int port, String password,
+			RConClientOptions options) throws IOException, AuthenticationException {
+		this(eventLoop, address, port, options);
+		try {
+			authenticate(password);
+		} catch (IOException | AuthenticationException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private RConClient(Transport transport, RConClientOptions options) {
+		useTransport(transport, options);
+	}
+
+	/**
+	 * Connects to the rcon server on the given event loop without blocking the
+	 * calling thread. The client is in pipelined mode from the start, so
+	 * {@link RConClient#authenticateAsync(String)} can be chained directly.
+	 * 
+	 * @param eventLoop
+	 *            the event loop to run the connection on
+	 * @param address
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @return a future that is completed with the connected client
+	 */
+	public static CompletableFuture<RConClient> connect(RConEventLoop eventLoop, String address, int port) {
+		return connect(eventLoop, address, port, RConClientOptions.DEFAULT);
+	}
+
+	/**
+	 * Same as {@link RConClient#connect(RConEventLoop, String, int)}, but
+	 * applies the given socket options to the connection
+	 * 
+	 * @param eventLoop
+	 *            the event loop to run the connection on
+	 * @param address
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @param options
+	 *            the socket options
+	 * @return a future that is completed with the connected client
+	 */
+	public static CompletableFuture<RConClient> connect(RConEventLoop eventLoop, String address, int port,
+			RConClientOptions options) {
+		Objects.requireNonNull(options, "options");
+		return openChannel(eventLoop, address, port, options)
+				.thenApply(transport -> new RConClient(transport, options));
+	}
+
+	private static CompletableFuture<ChannelTransport> openChannel(RConEventLoop eventLoop, String address,
+			int port, RConClientOptions options) {
+		InetSocketAddress socketAddress = new InetSocketAddress(address, port);
+		if (socketAddress.isUnresolved())
+			return failedFuture(new UnknownHostException(address));
+		return eventLoop.connect(socketAddress, options);
+	}
+
+	private void createConnection(String host, int port, RConClientOptions options) throws IOException {
+		RConMetrics metrics = options.getMetrics();
+		long start = metrics == RConMetrics.NOOP ? 0 : System.nanoTime();
+		transport = new SocketTransport(host, port, options);
+		readTimeout = options.getReadTimeout();
+		setMetrics(metrics);
+		if (metrics != RConMetrics.NOOP)
+			metrics.connected(System.nanoTime() - start);
+	}
+
+	private void useTransport(Transport transport, RConClientOptions options) {
+		this.transport = transport;
+		readTimeout = options.getReadTimeout();
+		setMetrics(options.getMetrics());
+		if (transport.isAsynchronous())
+			enablePipelining();
+	}
+
+	/**
+	 * Logs in at the server using the given password. In pipelined mode this
+	 * waits for {@link RConClient#authenticateAsync(String)} to complete.
 	 * 
 	 * @param password
 	 *            the password
 	 * @throws IOException
 	 *             if one of the streams fails to read/write
 	 * @throws AuthenticationException
-	 *             if the client is already authenticated or
+	 *             if the client is already authenticated or the password is
+	 *             wrong
 	 */
 	public void authenticate(String password) throws IOException, AuthenticationException {
 		if (authenticated)
-			throw new AuthenticationException("Already authenticated", ErrorType.ALREADY_AUTHENTICATED);
-		Packet loginPacket = new ClientPacket(PacketType.AUTH, password);
-		loginPacket.writeTo(outputStream);
-		Packet loginResponse = new ServerPacket(inputStream);
-		if (loginResponse.getType() != PacketType.AUTH_RESPONSE)
-			throw new InvalidPacketException(
+			throw authenticationFailure("Already authenticated", ErrorType.ALREADY_AUTHENTICATED);
+		if (pipelined) {
+			awaitResponse(authenticateAsync(password));
+			return;
+		}
+		RConMetrics metrics = this.metrics;
+		long start = metrics == RConMetrics.NOOP ? 0 : System.nanoTime();
+		int loginRequestID = requestIds.nextRequestID();
+		transport.write(loginRequestID, PacketType.AUTH, password);
+		Packet loginResponse = transport.read();
+		if (loginResponse.getType() != PacketType.AUTH_RESPONSE) {
+			InvalidPacketException exception = new InvalidPacketException(
 					"Packet type should be AUTH_RESPONSE (" + PacketType.AUTH_RESPONSE.getId() + ")", loginResponse);
-		if (loginResponse.getRequestID() == loginPacket.getRequestID())
+			metrics.invalidPacket(exception);
+			throw exception;
+		}
+		if (loginResponse.getRequestID() == loginRequestID) {
 			authenticated = true;
-		else if (loginResponse.getRequestID() == Packet.REQUEST_ID_AUTH_FAIL)
-			throw new AuthenticationException("Failed to authenticate at server"
-					+ socket.getInetAddress().getHostAddress() + ", port " + socket.getPort(),
+			if (metrics != RConMetrics.NOOP)
+				metrics.authenticated(System.nanoTime() - start);
+		} else if (loginResponse.getRequestID() == Packet.REQUEST_ID_AUTH_FAIL) {
+			throw authenticationFailure("Failed to authenticate at server " + getServerDescription(),
 					ErrorType.WRONG_PASSWORD);
+		}
+	}
+
+	/**
+	 * Logs in at the server without blocking the calling thread. This enables
+	 * pipelined mode if it isn't enabled already. The returned future
+	 * completes exceptionally with an {@link AuthenticationException} if the
+	 * client is already authenticated or the password is wrong, or with an
+	 * {@link IOException} if the connection fails.
+	 *
+	 * @param password
+	 *            the password
+	 * @return a future that completes once the client is authenticated
+	 * @see RConClient#enablePipelining()
+	 */
+	public CompletableFuture<Void> authenticateAsync(String password) {
+		if (authenticated)
+			return failedFuture(authenticationFailure("Already authenticated", ErrorType.ALREADY_AUTHENTICATED));
+		enablePipelining();
+		synchronized (writeLock) {
+			int requestID = requestIds.nextRequestID();
+			PendingAuthentication response = new PendingAuthentication(requestID, getServerDescription(),
+					() -> authenticated = true);
+			instrumentAuthentication(response);
+			response.getFuture().whenComplete((result, error) -> {
+				dispatcher.unregister(requestID, response);
+				dispatcher.unregister(Packet.REQUEST_ID_AUTH_FAIL, response);
+			});
+			try {
+				dispatcher.register(Packet.REQUEST_ID_AUTH_FAIL, response);
+				dispatcher.register(requestID, response);
+				transport.write(requestID, PacketType.AUTH, password);
+			} catch (IOException e) {
+				response.fail(e);
+			}
+			return response.getFuture();
+		}
+	}
+
+	/**
+	 * Same as {@link RConClient#authenticateAsync(String)}, but completes the
+	 * future exceptionally with a {@link TimeoutException} if the server
+	 * didn't respond within the given time
+	 *
+	 * @param password
+	 *            the password
+	 * @param timeout
+	 *            the time to wait for the response
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return a future that completes once the client is authenticated
+	 */
+	public CompletableFuture<Void> authenticateAsync(String password, long timeout, TimeUnit unit) {
+		return withTimeout(authenticateAsync(password), timeout, unit);
 	}
 
 	/**
@@ -151,6 +459,17 @@ public class RConClient implements Closeable {
 		return authenticated;
 	}
 
+	/**
+	 * Returns if the connection to the server is still open. A connection
+	 * closed by the server is noticed by the reader thread in pipelined mode,
+	 * otherwise only when the next response is read.
+	 * 
+	 * @return true if the client is connected
+	 */
+	public boolean isConnected() {
+		return transport.isOpen() && !dispatcher.isTerminated();
+	}
+
 	/**
 	 * Sends a command to the remote server, waits for it to complete and
 	 * returns the output of the command
@@ -163,28 +482,492 @@ public class RConClient implements Closeable {
 	 * @throws IOException
 	 *             if an I/O error occurs
 	 */
+	@Override
 	public String sendCommand(String command) throws AuthenticationException, IOException {
 		if (!authenticated)
-			throw new AuthenticationException("Not yet authenticated", ErrorType.NOT_AUTHENTICATED);
-		Packet commandPacket = new ClientPacket(PacketType.COMMAND, command);
-		commandPacket.writeTo(outputStream);
-		StringBuilder builder = new StringBuilder();
-		Packet lastPacket;
-		boolean repeated = false;
-		while ((lastPacket = new ServerPacket(inputStream)).getLength() == 4096) {
-			if (lastPacket.getType() != PacketType.COMMAND_RESPONSE)
-				throw new InvalidPacketException("Received packet of invalid type " + lastPacket.getType(), lastPacket);
-			builder.append(lastPacket.getPayloadAsString());
-			repeated = true;
-		}
-		if (lastPacket.getLength() == 10)
-			throw new InvalidPacketException(
-					"Packet payload of last packet empty "
-							+ (!repeated ? "(this could mean an invalid command)" : "(this could mean a server fault)"),
-					lastPacket);
-		else
-			builder.append(lastPacket.getPayloadAsString());
-		return builder.toString();
+			throw authenticationFailure("Not yet authenticated", ErrorType.NOT_AUTHENTICATED);
+		return execute(command, new ResponseCollector.Buffering());
+	}
+
+	/**
+	 * Sends a command to the remote server without blocking the calling
+	 * thread. This enables pipelined mode if it isn't enabled already.
+	 * <p>
+	 * The returned future completes exceptionally with an
+	 * {@link AuthenticationException} if the client is not authenticated, with
+	 * an {@link InvalidPacketException} if the server responds with an invalid
+	 * packet or with an {@link IOException} if the connection fails. Cancelling
+	 * the future discards the response once it arrives.
+	 *
+	 * @param command
+	 *            the command to send
+	 * @return a future that is completed with the output of the command
+	 * @see RConClient#enablePipelining()
+	 */
+	public CompletableFuture<String> sendCommandAsync(String command) {
+		if (!authenticated)
+			return failedFuture(authenticationFailure("Not yet authenticated", ErrorType.NOT_AUTHENTICATED));
+		return executeAsync(command, new ResponseCollector.Buffering());
+	}
+
+	/**
+	 * Same as {@link RConClient#sendCommandAsync(String)}, but completes the
+	 * future exceptionally with a {@link TimeoutException} if no complete
+	 * response arrived within the given time
+	 *
+	 * @param command
+	 *            the command to send
+	 * @param timeout
+	 *            the time to wait for the response
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return a future that is completed with the output of the command
+	 */
+	public CompletableFuture<String> sendCommandAsync(String command, long timeout, TimeUnit unit) {
+		return withTimeout(sendCommandAsync(command), timeout, unit);
+	}
+
+	/**
+	 * Sends a command to the remote server and hands the output to the
+	 * consumer fragment by fragment as the packets arrive, instead of
+	 * collecting it into one string. This keeps memory use bounded for very
+	 * large outputs and lets processing start before the last fragment
+	 * arrived. A fragment can end in the middle of a line.
+	 * <p>
+	 * In pipelined mode, the consumer is called on the thread that reads the
+	 * connection, so it should not block. If the consumer throws an exception,
+	 * the rest of the output is discarded and the exception is rethrown.
+	 * 
+	 * @param command
+	 *            the command to send
+	 * @param fragmentConsumer
+	 *            called with the payload of every fragment, in order
+	 * @return the number of characters of the output
+	 * @throws AuthenticationException
+	 *             if you are not authenticated
+	 * @throws IOException
+	 *             if one of the streams fails to read/write
+	 * @throws InvalidPacketException
+	 *             if the server responds with an invalid packet
+	 */
+	public long streamCommand(String command, Consumer<? super String> fragmentConsumer)
+			throws AuthenticationException, IOException {
+		if (!authenticated)
+			throw authenticationFailure("Not yet authenticated", ErrorType.NOT_AUTHENTICATED);
+		return execute(command, new ResponseCollector.Streaming(Objects.requireNonNull(fragmentConsumer)));
+	}
+
+	/**
+	 * Same as {@link RConClient#streamCommand(String, Consumer)}, but doesn't
+	 * block the calling thread. This enables pipelined mode if it isn't
+	 * enabled already.
+	 * 
+	 * @param command
+	 *            the command to send
+	 * @param fragmentConsumer
+	 *            called with the payload of every fragment, in order
+	 * @return a future that is completed with the number of characters of the
+	 *         output once the last fragment was consumed
+	 */
+	public CompletableFuture<Long> streamCommandAsync(String command, Consumer<? super String> fragmentConsumer) {
+		if (!authenticated)
+			return failedFuture(authenticationFailure("Not yet authenticated", ErrorType.NOT_AUTHENTICATED));
+		return executeAsync(command, new ResponseCollector.Streaming(Objects.requireNonNull(fragmentConsumer)));
+	}
+
+	private <T> T execute(String command, ResponseCollector<T> collector)
+			throws AuthenticationException, IOException {
+		if (pipelined)
+			return awaitResponse(executeAsync(command, collector));
+		PendingResponse<T> response = encodeCommand(command, collector);
+		if (!response.getFuture().isDone()) {
+			transport.flush();
+			readResponse(response);
+		}
+		return await(response.getFuture());
+	}
+
+	private <T> CompletableFuture<T> executeAsync(String command, ResponseCollector<T> collector) {
+		enablePipelining();
+		synchronized (writeLock) {
+			PendingResponse<T> response = encodeCommand(command, collector);
+			flush(Collections.singletonList(response));
+			return response.getFuture();
+		}
+	}
+
+	/**
+	 * Sends a batch of commands with {@link RConClient#DEFAULT_BATCH_CHUNK_SIZE}
+	 * commands per write
+	 * 
+	 * @param commands
+	 *            the commands to send
+	 * @return the results, in the order of the commands
+	 * @throws AuthenticationException
+	 *             if you are not authenticated
+	 * @see RConClient#sendBatch(List, int)
+	 */
+	public List<CommandResult> sendBatch(List<String> commands) throws AuthenticationException {
+		return sendBatch(commands, DEFAULT_BATCH_CHUNK_SIZE);
+	}
+
+	/**
+	 * Sends a batch of commands and collects their outputs. The commands are
+	 * split into chunks of {@code chunkSize} commands. All packets of a chunk
+	 * are sent with a single write, then the responses of the chunk are
+	 * collected before the next chunk is sent, so the input buffer of the
+	 * server isn't overrun.
+	 * <p>
+	 * A command that fails doesn't abort the batch, its error is reported in
+	 * its {@link CommandResult}. If the connection fails, the remaining
+	 * commands are not sent and their results carry the {@link IOException}.
+	 * 
+	 * @param commands
+	 *            the commands to send
+	 * @param chunkSize
+	 *            the maximum number of commands sent with one write
+	 * @return the results, in the order of the commands
+	 * @throws AuthenticationException
+	 *             if you are not authenticated
+	 */
+	public List<CommandResult> sendBatch(List<String> commands, int chunkSize) throws AuthenticationException {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be at least one");
+		if (!authenticated)
+			throw authenticationFailure("Not yet authenticated", ErrorType.NOT_AUTHENTICATED);
+		List<CommandResult> results = new ArrayList<>(commands.size());
+		IOException failure = null;
+		for (int start = 0; start < commands.size(); start += chunkSize) {
+			List<String> chunk = commands.subList(start, Math.min(start + chunkSize, commands.size()));
+			if (failure == null)
+				failure = sendChunk(chunk, results);
+			else
+				for (String command : chunk)
+					results.add(CommandResult.failure(command, failure));
+		}
+		return results;
+	}
+
+	/**
+	 * Sends a chunk of a batch and appends its results
+	 * 
+	 * @return the exception that broke the connection or null
+	 */
+	private IOException sendChunk(List<String> chunk, List<CommandResult> results) {
+		List<PendingResponse<String>> responses = new ArrayList<>(chunk.size());
+		if (pipelined) {
+			synchronized (writeLock) {
+				for (String command : chunk)
+					responses.add(encodeCommand(command, new ResponseCollector.Buffering()));
+				flush(responses);
+			}
+		} else {
+			for (String command : chunk)
+				responses.add(encodeCommand(command, new ResponseCollector.Buffering()));
+			flush(responses);
+			try {
+				for (PendingResponse<String> response : responses)
+					if (!response.getFuture().isDone())
+						readResponse(response);
+			} catch (IOException e) {
+				for (PendingResponse<String> response : responses)
+					response.fail(e);
+			}
+		}
+		IOException failure = null;
+		for (int i = 0; i < chunk.size(); i++) {
+			try {
+				results.add(CommandResult.success(chunk.get(i), awaitResponse(responses.get(i).getFuture())));
+			} catch (IOException | AuthenticationException e) {
+				results.add(CommandResult.failure(chunk.get(i), e));
+				if (e instanceof IOException && !(e instanceof InvalidPacketException))
+					failure = (IOException) e;
+			}
+		}
+		return failure;
+	}
+
+	/**
+	 * Allocates the request IDs for a command and encodes it, followed by a
+	 * sentinel if enabled. In pipelined mode, the response is registered at
+	 * the dispatcher and the caller has to hold the write lock. If the packets
+	 * can't be encoded, the returned response is already failed.
+	 */
+	private <T> PendingResponse<T> encodeCommand(String command, ResponseCollector<T> collector) {
+		int requestID = requestIds.nextRequestID();
+		if (responseTermination == ResponseTermination.SENTINEL) {
+			int sentinelRequestID = requestIds.nextRequestID();
+			PendingSentinelCommand<T> response = new PendingSentinelCommand<>(sentinelRequestID, collector,
+					new PayloadDecoder(payloadCharset));
+			instrumentCommand(response);
+			try {
+				if (pipelined) {
+					response.getFuture().whenComplete((result, error) -> {
+						dispatcher.unregister(requestID, response);
+						dispatcher.unregister(sentinelRequestID, response);
+					});
+					dispatcher.register(requestID, response);
+					dispatcher.register(sentinelRequestID, response);
+				}
+				transport.encode(requestID, PacketType.COMMAND, command);
+				transport.encode(sentinelRequestID, PacketType.COMMAND, "");
+			} catch (IOException e) {
+				response.fail(e);
+			}
+			return response;
+		}
+		PendingCommand<T> response = new PendingCommand<>(collector, new PayloadDecoder(payloadCharset));
+		instrumentCommand(response);
+		try {
+			if (pipelined) {
+				response.getFuture().whenComplete((result, error) -> dispatcher.unregister(requestID, response));
+				dispatcher.register(requestID, response);
+			}
+			transport.encode(requestID, PacketType.COMMAND, command);
+		} catch (IOException e) {
+			response.fail(e);
+		}
+		return response;
+	}
+
+	private AuthenticationException authenticationFailure(String message, ErrorType type) {
+		AuthenticationException exception = new AuthenticationException(message, type);
+		metrics.authenticationFailed(exception);
+		return exception;
+	}
+
+	private void instrumentAuthentication(PendingResponse<?> response) {
+		RConMetrics metrics = this.metrics;
+		if (metrics == RConMetrics.NOOP)
+			return;
+		long start = System.nanoTime();
+		response.getFuture().whenComplete((result, error) -> {
+			if (error == null)
+				metrics.authenticated(System.nanoTime() - start);
+			else if (error instanceof AuthenticationException)
+				metrics.authenticationFailed((AuthenticationException) error);
+			else if (error instanceof InvalidPacketException)
+				metrics.invalidPacket((InvalidPacketException) error);
+		});
+	}
+
+	private void instrumentCommand(PendingResponse<?> response) {
+		RConMetrics metrics = this.metrics;
+		if (metrics == RConMetrics.NOOP)
+			return;
+		long start = System.nanoTime();
+		response.getFuture().whenComplete((result, error) -> {
+			if (error == null)
+				metrics.commandCompleted(System.nanoTime() - start, response.getFragmentCount());
+			else if (error instanceof InvalidPacketException)
+				metrics.invalidPacket((InvalidPacketException) error);
+			else if (!(error instanceof MalformedPacketException))
+				// Malformed packets are counted by the transport
+				metrics.commandFailed(error);
+		});
+	}
+
+	/**
+	 * Sends the encoded packets, failing the given responses if that is not
+	 * possible
+	 */
+	private void flush(List<? extends PendingResponse<?>> responses) {
+		try {
+			transport.flush();
+		} catch (IOException e) {
+			for (PendingResponse<?> response : responses)
+				response.fail(e);
+		}
+	}
+
+	/**
+	 * Reads packets until the response is complete, in blocking mode
+	 */
+	private void readResponse(PendingResponse<?> response) throws IOException {
+		while (!response.accept(transport.read())) {
+			// Read fragments until the response is complete
+		}
+	}
+
+	/**
+	 * Sets the charset that commands, passwords and outputs are encoded with.
+	 * The default is {@link Packet#DEFAULT_PAYLOAD_CHARSET} (UTF-8); older
+	 * servers may need {@link java.nio.charset.StandardCharsets#US_ASCII} or
+	 * {@link java.nio.charset.StandardCharsets#ISO_8859_1}. It should be set
+	 * before sending commands, responses that are already pending are decoded
+	 * with the previous charset.
+	 * 
+	 * @param charset
+	 *            the payload charset
+	 */
+	public void setPayloadCharset(Charset charset) {
+		Objects.requireNonNull(charset, "charset");
+		synchronized (writeLock) {
+			transport.setPayloadCharset(charset);
+			payloadCharset = charset;
+		}
+	}
+
+	/**
+	 * Returns the charset that payloads are encoded with
+	 * 
+	 * @return the payload charset
+	 */
+	public Charset getPayloadCharset() {
+		return payloadCharset;
+	}
+
+	/**
+	 * Sets the metrics that this client reports to from now on. Clients
+	 * created with {@link RConClientOptions} use the metrics of the options,
+	 * so that the connect duration is recorded as well.
+	 * 
+	 * @param metrics
+	 *            the metrics, {@link RConMetrics#NOOP} to disable them
+	 */
+	public void setMetrics(RConMetrics metrics) {
+		this.metrics = Objects.requireNonNull(metrics, "metrics");
+		transport.setMetrics(metrics);
+	}
+
+	/**
+	 * Returns the metrics this client reports to
+	 * 
+	 * @return the metrics
+	 */
+	public RConMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the generator for the request IDs of this connection. By default
+	 * every client has its own {@link AtomicRequestIdGenerator}, so IDs are
+	 * unique per connection without any locking.
+	 * 
+	 * @param requestIds
+	 *            the request ID generator
+	 */
+	public void setRequestIdGenerator(RequestIdGenerator requestIds) {
+		this.requestIds = Objects.requireNonNull(requestIds, "requestIds");
+	}
+
+	/**
+	 * Sets how the end of a multi-packet response is detected. The default is
+	 * {@link ResponseTermination#LENGTH_HEURISTIC}. Changing the mode only
+	 * affects commands sent afterwards.
+	 * 
+	 * @param responseTermination
+	 *            the way to detect the last fragment of a response
+	 */
+	public void setResponseTermination(ResponseTermination responseTermination) {
+		this.responseTermination = Objects.requireNonNull(responseTermination, "responseTermination");
+	}
+
+	/**
+	 * Returns how the end of a multi-packet response is detected
+	 * 
+	 * @return the response termination mode
+	 * @see RConClient#setResponseTermination(ResponseTermination)
+	 */
+	public ResponseTermination getResponseTermination() {
+		return responseTermination;
+	}
+
+	/**
+	 * Switches the client to pipelined mode. Instead of blocking the
+	 * connection until a response has been read, a reader thread routes every
+	 * response to its request using the request ID. This allows multiple
+	 * threads to call {@link RConClient#sendCommand(String)} concurrently, with
+	 * several commands in flight on the same connection.
+	 * <p>
+	 * Pipelined mode can't be disabled again. Calling this method while
+	 * pipelining is enabled does nothing.
+	 */
+	public synchronized void enablePipelining() {
+		if (pipelined)
+			return;
+		transport.start(dispatcher);
+		pipelined = true;
+	}
+
+	/**
+	 * Returns the read timeout of the options the client was created with
+	 *
+	 * @return the timeout in milliseconds, zero for none
+	 * @see RConClientOptions.Builder#readTimeout(long, TimeUnit)
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Returns if the client is in pipelined mode
+	 *
+	 * @return true if {@link RConClient#enablePipelining()} was called
+	 */
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	private String getServerDescription() {
+		return transport.getServerDescription();
+	}
+
+	private static <T> CompletableFuture<T> failedFuture(Throwable cause) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(cause);
+		return future;
+	}
+
+	static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+		return withTimeout(future, timeout, unit,
+				() -> new TimeoutException("No response after " + timeout + " " + unit));
+	}
+
+	private static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit,
+			Supplier<? extends Throwable> failure) {
+		if (future.isDone())
+			return future;
+		ScheduledFuture<?> task = TimeoutScheduler.INSTANCE
+				.schedule(() -> future.completeExceptionally(failure.get()), timeout, unit);
+		future.whenComplete((result, error) -> task.cancel(false));
+		return future;
+	}
+
+	/**
+	 * Waits for a response of a blocking method, failing with a
+	 * {@link SocketTimeoutException} after the read timeout. The connection
+	 * stays open, a late response is discarded once it arrives.
+	 */
+	private <T> T awaitResponse(CompletableFuture<T> future) throws IOException, AuthenticationException {
+		int timeout = readTimeout;
+		if (timeout > 0)
+			withTimeout(future, timeout, TimeUnit.MILLISECONDS,
+					() -> new SocketTimeoutException("No response after " + timeout + " ms"));
+		return await(future);
+	}
+
+	/**
+	 * Waits for a future and rethrows its failure
+	 */
+	static <T> T await(CompletableFuture<T> future) throws IOException, AuthenticationException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the response");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof AuthenticationException)
+				throw (AuthenticationException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw asIOException(e.getCause());
+		}
+	}
+
+	private static IOException asIOException(Throwable cause) {
+		return cause instanceof IOException ? (IOException) cause : new IOException(cause);
 	}
 
 	/**
@@ -192,9 +975,15 @@ public class RConClient implements Closeable {
 	 */
 	@Override
 	public void close() throws IOException {
-		inputStream.close();
-		outputStream.close();
-		socket.close();
+		transport.close();
+	}
+
+	static final class TimeoutScheduler {
+		static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "RCON timeouts");
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 
 }
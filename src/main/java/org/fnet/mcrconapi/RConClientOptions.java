@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.fnet.mcrconapi.metrics.RConMetrics;
+
+/**
+ * Socket and I/O settings for the blocking connection of an
+ * {@link RConClient}. Instances are immutable and created with a
+ * {@link Builder}:
+ *
+ * <pre>
+ * RConClientOptions options = RConClientOptions.builder().connectTimeout(5, TimeUnit.SECONDS)
+ * 		.readTimeout(10, TimeUnit.SECONDS).build();
+ * </pre>
+ *
+ * A timeout or buffer size of zero means that the system default is used.
+ */
+public final class RConClientOptions {
+
+	/**
+	 * The default size of the input buffer, large enough for a few full
+	 * response fragments
+	 */
+	public static final int DEFAULT_INPUT_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * The options used by the constructors of {@link RConClient} that don't
+	 * take options: no timeouts, TCP_NODELAY and buffered input enabled
+	 */
+	public static final RConClientOptions DEFAULT = builder().build();
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final boolean tcpNoDelay;
+	private final int sendBufferSize;
+	private final int receiveBufferSize;
+	private final boolean keepAlive;
+	private final boolean bufferedInput;
+	private final int inputBufferSize;
+	private final RConMetrics metrics;
+
+	private RConClientOptions(Builder builder) {
+		connectTimeout = builder.connectTimeout;
+		readTimeout = builder.readTimeout;
+		tcpNoDelay = builder.tcpNoDelay;
+		sendBufferSize = builder.sendBufferSize;
+		receiveBufferSize = builder.receiveBufferSize;
+		keepAlive = builder.keepAlive;
+		bufferedInput = builder.bufferedInput;
+		inputBufferSize = builder.inputBufferSize;
+		metrics = builder.metrics;
+	}
+
+	/**
+	 * Creates a builder initialized with the default options
+	 *
+	 * @return a new builder
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Creates a builder initialized with these options
+	 *
+	 * @return a new builder
+	 */
+	public Builder toBuilder() {
+		Builder builder = new Builder();
+		builder.connectTimeout = connectTimeout;
+		builder.readTimeout = readTimeout;
+		builder.tcpNoDelay = tcpNoDelay;
+		builder.sendBufferSize = sendBufferSize;
+		builder.receiveBufferSize = receiveBufferSize;
+		builder.keepAlive = keepAlive;
+		builder.bufferedInput = bufferedInput;
+		builder.inputBufferSize = inputBufferSize;
+		builder.metrics = metrics;
+		return builder;
+	}
+
+	/**
+	 * Returns the connect timeout
+	 *
+	 * @return the timeout in milliseconds, zero if there is none
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Returns the read timeout
+	 *
+	 * @return the timeout in milliseconds, zero if there is none
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Returns if Nagle's algorithm is disabled
+	 *
+	 * @return the value of TCP_NODELAY
+	 */
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * Returns the size of the socket send buffer
+	 *
+	 * @return the size in bytes, zero for the system default
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * Returns the size of the socket receive buffer
+	 *
+	 * @return the size in bytes, zero for the system default
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * Returns if TCP keepalive probes are sent on idle connections
+	 *
+	 * @return the value of SO_KEEPALIVE
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Returns if the input stream of the socket is buffered
+	 *
+	 * @return true if responses are read through a buffer
+	 */
+	public boolean isBufferedInput() {
+		return bufferedInput;
+	}
+
+	/**
+	 * Returns the size of the input buffer
+	 *
+	 * @return the size in bytes
+	 */
+	public int getInputBufferSize() {
+		return inputBufferSize;
+	}
+
+	/**
+	 * Returns the metrics that clients created with these options report to
+	 *
+	 * @return the metrics, {@link RConMetrics#NOOP} by default
+	 */
+	public RConMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public String toString() {
+		return "RConClientOptions[connectTimeout=" + connectTimeout + ", readTimeout=" + readTimeout
+				+ ", tcpNoDelay=" + tcpNoDelay + ", sendBufferSize=" + sendBufferSize + ", receiveBufferSize="
+				+ receiveBufferSize + ", keepAlive=" + keepAlive + ", bufferedInput=" + bufferedInput
+				+ ", inputBufferSize=" + inputBufferSize + ", metrics=" + metrics + "]";
+	}
+
+	/**
+	 * Builds {@link RConClientOptions}. All setters return the builder.
+	 */
+	public static final class Builder {
+
+		private int connectTimeout;
+		private int readTimeout;
+		private boolean tcpNoDelay = true;
+		private int sendBufferSize;
+		private int receiveBufferSize;
+		private boolean keepAlive;
+		private boolean bufferedInput = true;
+		private int inputBufferSize = DEFAULT_INPUT_BUFFER_SIZE;
+		private RConMetrics metrics = RConMetrics.NOOP;
+
+		private Builder() {
+		}
+
+		/**
+		 * Sets how long connecting may take before it fails with a
+		 * {@link java.net.SocketTimeoutException}
+		 *
+		 * @param timeout
+		 *            the timeout, zero for none
+		 * @param unit
+		 *            the unit of the timeout
+		 * @return this builder
+		 */
+		public Builder connectTimeout(long timeout, TimeUnit unit) {
+			connectTimeout = toMillis(timeout, unit);
+			return this;
+		}
+
+		/**
+		 * Sets how long a blocking read may wait for data before it fails with
+		 * a {@link java.net.SocketTimeoutException}. A read that times out
+		 * closes the connection, because the rest of the response would be
+		 * read as the response to the next command otherwise. In pipelined
+		 * mode, the blocking methods of {@link RConClient} fail with a
+		 * {@link java.net.SocketTimeoutException} after this time as well, but
+		 * the connection stays open. Asynchronous methods are not affected,
+		 * use {@link RConClient#sendCommandAsync(String, long, TimeUnit)} for
+		 * them.
+		 *
+		 * @param timeout
+		 *            the timeout, zero for none
+		 * @param unit
+		 *            the unit of the timeout
+		 * @return this builder
+		 */
+		public Builder readTimeout(long timeout, TimeUnit unit) {
+			readTimeout = toMillis(timeout, unit);
+			return this;
+		}
+
+		/**
+		 * Sets if Nagle's algorithm is disabled, so that small command packets
+		 * are sent immediately instead of waiting for outstanding
+		 * acknowledgements. Enabled by default.
+		 *
+		 * @param tcpNoDelay
+		 *            the value of TCP_NODELAY
+		 * @return this builder
+		 */
+		public Builder tcpNoDelay(boolean tcpNoDelay) {
+			this.tcpNoDelay = tcpNoDelay;
+			return this;
+		}
+
+		/**
+		 * Sets the size of the socket send buffer
+		 *
+		 * @param size
+		 *            the size in bytes, zero for the system default
+		 * @return this builder
+		 */
+		public Builder sendBufferSize(int size) {
+			sendBufferSize = requireNonNegative(size, "Send buffer size");
+			return this;
+		}
+
+		/**
+		 * Sets the size of the socket receive buffer. A larger buffer lets the
+		 * server send more fragments of a large response before the client
+		 * reads them.
+		 *
+		 * @param size
+		 *            the size in bytes, zero for the system default
+		 * @return this builder
+		 */
+		public Builder receiveBufferSize(int size) {
+			receiveBufferSize = requireNonNegative(size, "Receive buffer size");
+			return this;
+		}
+
+		/**
+		 * Sets if TCP keepalive probes are sent on idle connections, so that a
+		 * dead peer is eventually noticed
+		 *
+		 * @param keepAlive
+		 *            the value of SO_KEEPALIVE
+		 * @return this builder
+		 */
+		public Builder keepAlive(boolean keepAlive) {
+			this.keepAlive = keepAlive;
+			return this;
+		}
+
+		/**
+		 * Sets if the input stream of the socket is buffered, so that the
+		 * header, payload and terminator of a packet don't each need a system
+		 * call. Enabled by default. Packets are always written with one write
+		 * call, so the output is never buffered separately.
+		 *
+		 * @param bufferedInput
+		 *            true to read through a buffer
+		 * @return this builder
+		 */
+		public Builder bufferedInput(boolean bufferedInput) {
+			this.bufferedInput = bufferedInput;
+			return this;
+		}
+
+		/**
+		 * Sets the size of the input buffer
+		 *
+		 * @param size
+		 *            the size in bytes
+		 * @return this builder
+		 * @see Builder#bufferedInput(boolean)
+		 */
+		public Builder inputBufferSize(int size) {
+			if (size < 1)
+				throw new IllegalArgumentException("Input buffer size must be positive");
+			inputBufferSize = size;
+			return this;
+		}
+
+		/**
+		 * Sets the metrics that clients report connect and authentication
+		 * durations, command latencies, traffic and errors to
+		 *
+		 * @param metrics
+		 *            the metrics, e.g. an
+		 *            {@link org.fnet.mcrconapi.metrics.RConMetricsRecorder}
+		 * @return this builder
+		 */
+		public Builder metrics(RConMetrics metrics) {
+			this.metrics = Objects.requireNonNull(metrics, "metrics");
+			return this;
+		}
+
+		/**
+		 * Creates the options
+		 *
+		 * @return the options
+		 */
+		public RConClientOptions build() {
+			return new RConClientOptions(this);
+		}
+
+		private static int toMillis(long timeout, TimeUnit unit) {
+			if (timeout < 0)
+				throw new IllegalArgumentException("Timeout must not be negative");
+			long millis = unit.toMillis(timeout);
+			if (millis == 0 && timeout > 0)
+				return 1;
+			return (int) Math.min(millis, Integer.MAX_VALUE);
+		}
+
+		private static int requireNonNegative(int size, String name) {
+			if (size < 0)
+				throw new IllegalArgumentException(name + " must not be negative");
+			return size;
+		}
+
+	}
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of authenticated {@link RConClient}s, keyed by {@link RConEndpoint}.
+ * Borrowing a client from the pool reuses an idle session instead of paying
+ * for a TCP connect and an AUTH round trip every time.
+ * <p>
+ * A background task periodically checks the idle sessions, closes the ones
+ * that are dead and opens new ones until every endpoint that was used has at
+ * least {@code minIdle} idle sessions again.
+ */
+public class RConClientPool implements Closeable {
+
+	/**
+	 * A function that uses a borrowed client
+	 *
+	 * @param <T>
+	 *            the result type
+	 * @see RConClientPool#withClient(RConEndpoint, ClientFunction)
+	 */
+	@FunctionalInterface
+	public interface ClientFunction<T> {
+		/**
+		 * Runs the function with a borrowed client
+		 * 
+		 * @param client
+		 *            the authenticated client
+		 * @return the result
+		 * @throws IOException
+		 *             if an I/O error occurs
+		 * @throws AuthenticationException
+		 *             if an authentication error occurs
+		 */
+		T apply(RConClient client) throws IOException, AuthenticationException;
+	}
+
+	private final int minIdle;
+	private final int maxIdle;
+	private final Map<RConEndpoint, Deque<RConClient>> idleClients = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService maintenance;
+	private volatile String healthCheckCommand;
+	private volatile long healthCheckTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+	private volatile RConClientOptions clientOptions = RConClientOptions.DEFAULT;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a pool that keeps up to eight idle sessions per endpoint and
+	 * checks them every 30 seconds
+	 */
+	public RConClientPool() {
+		this(0, 8, 30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Creates a new pool
+	 * 
+	 * @param minIdle
+	 *            the number of idle sessions kept open per endpoint
+	 * @param maxIdle
+	 *            the maximum number of idle sessions per endpoint, sessions
+	 *            returned beyond that are closed
+	 * @param healthCheckInterval
+	 *            the time between two health checks of the idle sessions
+	 * @param unit
+	 *            the unit of the interval
+	 */
+	public RConClientPool(int minIdle, int maxIdle, long healthCheckInterval, TimeUnit unit) {
+		if (minIdle < 0 || maxIdle < minIdle)
+			throw new IllegalArgumentException("Need 0 <= minIdle <= maxIdle");
+		this.minIdle = minIdle;
+		this.maxIdle = maxIdle;
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "RCON pool maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		maintenance.scheduleWithFixedDelay(this::maintain, healthCheckInterval, healthCheckInterval, unit);
+	}
+
+	/**
+	 * Sets a command that is sent to idle sessions during health checks. Without
+	 * a health check command, only sessions whose connection is known to be
+	 * closed are replaced. The command should be cheap and free of side
+	 * effects, like {@code list}.
+	 * 
+	 * @param healthCheckCommand
+	 *            the command or null to disable probing
+	 */
+	public void setHealthCheckCommand(String healthCheckCommand) {
+		this.healthCheckCommand = healthCheckCommand;
+	}
+
+	/**
+	 * Sets how long a health check waits for the output of the health check
+	 * command. Sessions that don't answer in time are closed, so that a
+	 * stalled server doesn't hold up the checks of the other endpoints. The
+	 * default is five seconds.
+	 * 
+	 * @param timeout
+	 *            the timeout
+	 * @param unit
+	 *            the unit of the timeout
+	 */
+	public void setHealthCheckTimeout(long timeout, TimeUnit unit) {
+		if (timeout <= 0)
+			throw new IllegalArgumentException("Health check timeout must be positive");
+		this.healthCheckTimeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * Sets the socket options for sessions opened from now on
+	 * 
+	 * @param clientOptions
+	 *            the socket options
+	 */
+	public void setClientOptions(RConClientOptions clientOptions) {
+		this.clientOptions = Objects.requireNonNull(clientOptions, "clientOptions");
+	}
+
+	/**
+	 * Takes an idle session for the endpoint out of the pool or opens a new one
+	 * if there is none. The client has to be given back with
+	 * {@link RConClientPool#release(RConEndpoint, RConClient)} or
+	 * {@link RConClientPool#invalidate(RConClient)}.
+	 * 
+	 * @param endpoint
+	 *            the server to connect to
+	 * @return an authenticated client
+	 * @throws IOException
+	 *             if a new connection fails
+	 * @throws AuthenticationException
+	 *             if a new connection fails to authenticate
+	 */
+	public RConClient borrow(RConEndpoint endpoint) throws IOException, AuthenticationException {
+		if (closed)
+			throw new IOException("Pool is closed");
+		Deque<RConClient> idle = getIdle(endpoint);
+		RConClient client;
+		while ((client = idle.pollFirst()) != null) {
+			if (client.isConnected())
+				return client;
+			closeQuietly(client);
+		}
+		return open(endpoint);
+	}
+
+	/**
+	 * Gives a borrowed client back to the pool. If the pool already holds
+	 * {@code maxIdle} sessions for the endpoint or the client is no longer
+	 * connected, it is closed instead.
+	 * 
+	 * @param endpoint
+	 *            the endpoint the client was borrowed for
+	 * @param client
+	 *            the client
+	 */
+	public void release(RConEndpoint endpoint, RConClient client) {
+		// The deque is bounded by maxIdle, so concurrent releases can't
+		// overfill it
+		if (closed || !client.isConnected() || maxIdle == 0 || !getIdle(endpoint).offerFirst(client))
+			closeQuietly(client);
+	}
+
+	/**
+	 * Closes a borrowed client instead of returning it to the pool, e.g.
+	 * because it is in an unknown state after an I/O error
+	 * 
+	 * @param client
+	 *            the client
+	 */
+	public void invalidate(RConClient client) {
+		closeQuietly(client);
+	}
+
+	/**
+	 * Borrows a client, applies the function and gives the client back. If the
+	 * function fails with an {@link IOException} that isn't an
+	 * {@link InvalidPacketException}, the client is invalidated instead.
+	 * 
+	 * @param endpoint
+	 *            the server to run the function against
+	 * @param function
+	 *            the function to run
+	 * @param <T>
+	 *            the result type
+	 * @return the result of the function
+	 * @throws IOException
+	 *             if the connection or the function fails
+	 * @throws AuthenticationException
+	 *             if authentication or the function fails
+	 */
+	public <T> T withClient(RConEndpoint endpoint, ClientFunction<T> function)
+			throws IOException, AuthenticationException {
+		RConClient client = borrow(endpoint);
+		boolean reusable = false;
+		try {
+			T result = function.apply(client);
+			reusable = true;
+			return result;
+		} catch (InvalidPacketException | AuthenticationException e) {
+			reusable = true;
+			throw e;
+		} finally {
+			if (reusable)
+				release(endpoint, client);
+			else
+				invalidate(client);
+		}
+	}
+
+	/**
+	 * Returns the number of idle sessions for the endpoint
+	 * 
+	 * @param endpoint
+	 *            the endpoint
+	 * @return the number of idle sessions
+	 */
+	public int getIdleCount(RConEndpoint endpoint) {
+		Deque<RConClient> idle = idleClients.get(endpoint);
+		return idle == null ? 0 : idle.size();
+	}
+
+	/**
+	 * Closes all idle sessions and stops the health checks. Clients that are
+	 * still borrowed are closed when they are released.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		maintenance.shutdownNow();
+		for (Deque<RConClient> idle : idleClients.values()) {
+			RConClient client;
+			while ((client = idle.pollFirst()) != null)
+				closeQuietly(client);
+		}
+	}
+
+	private Deque<RConClient> getIdle(RConEndpoint endpoint) {
+		return idleClients.computeIfAbsent(endpoint, key -> new LinkedBlockingDeque<>(Math.max(1, maxIdle)));
+	}
+
+	private RConClient open(RConEndpoint endpoint) throws IOException, AuthenticationException {
+		return new RConClient(endpoint.getHost(), endpoint.getPort(), endpoint.getPassword(), clientOptions);
+	}
+
+	/**
+	 * Health check: replaces dead idle sessions and tops every endpoint up to
+	 * {@code minIdle} sessions
+	 */
+	private void maintain() {
+		for (Map.Entry<RConEndpoint, Deque<RConClient>> entry : idleClients.entrySet()) {
+			try {
+				maintain(entry.getKey(), entry.getValue());
+			} catch (RuntimeException e) {
+				// An exception would cancel all further health checks, try
+				// this endpoint again on the next one
+			}
+		}
+	}
+
+	private void maintain(RConEndpoint endpoint, Deque<RConClient> idle) {
+		// Check one session at a time, so that borrowers still find the
+		// others. Sessions borrowed in the meantime are skipped.
+		for (RConClient client : new ArrayList<>(idle)) {
+			if (!idle.remove(client))
+				continue;
+			if (isHealthy(client))
+				release(endpoint, client);
+			else
+				closeQuietly(client);
+		}
+		try {
+			while (!closed && idle.size() < minIdle)
+				release(endpoint, open(endpoint));
+		} catch (IOException | AuthenticationException e) {
+			// The server is unavailable, try again on the next check
+		}
+	}
+
+	private boolean isHealthy(RConClient client) {
+		if (!client.isConnected())
+			return false;
+		String command = healthCheckCommand;
+		if (command == null)
+			return true;
+		try {
+			RConClient.await(client.sendCommandAsync(command, healthCheckTimeoutNanos, TimeUnit.NANOSECONDS));
+			return true;
+		} catch (InvalidPacketException e) {
+			// The server answered, just not with output
+			return true;
+		} catch (IOException | AuthenticationException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	private static void closeQuietly(RConClient client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			// Ignore: the client is discarded anyway
+		}
+	}
+
+}
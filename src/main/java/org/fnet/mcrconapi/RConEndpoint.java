@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.util.Objects;
+
+/**
+ * The address and password of a RCON server. Two endpoints are equal if host,
+ * port and password are equal.
+ */
+public final class RConEndpoint {
+
+	private final String host;
+	private final int port;
+	private final String password;
+
+	/**
+	 * Creates a new endpoint
+	 * 
+	 * @param host
+	 *            the minecraft server address
+	 * @param port
+	 *            the rcon port
+	 * @param password
+	 *            the login password
+	 * @throws IllegalArgumentException
+	 *             if the port is not between 1 and 65535
+	 */
+	public RConEndpoint(String host, int port, String password) {
+		if (port < 1 || port > 65535)
+			throw new IllegalArgumentException("Port out of range: " + port);
+		this.host = Objects.requireNonNull(host, "host");
+		this.port = port;
+		this.password = Objects.requireNonNull(password, "password");
+	}
+
+	/**
+	 * Creates a new endpoint using the default RCON port (25575)
+	 * 
+	 * @param host
+	 *            the minecraft server address
+	 * @param password
+	 *            the login password
+	 */
+	public RConEndpoint(String host, String password) {
+		this(host, RConClient.DEFAULT_RCON_PORT, password);
+	}
+
+	/**
+	 * Returns the server address
+	 * 
+	 * @return the host
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the rcon port
+	 * 
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the login password
+	 * 
+	 * @return the password
+	 */
+	public String getPassword() {
+		return password;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof RConEndpoint))
+			return false;
+		RConEndpoint other = (RConEndpoint) obj;
+		return port == other.port && host.equals(other.host) && password.equals(other.password);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(host, port, password);
+	}
+
+	/**
+	 * Returns host and port, the password is left out on purpose
+	 */
+	@Override
+	public String toString() {
+		return host + ":" + port;
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fnet.mcrconapi.nio.SelectorLoop;
+
+/**
+ * Multiplexes many RCON connections on one or a few selector threads, instead
+ * of using a thread per connection. Clients are created with
+ * {@link RConClient#RConClient(RConEventLoop, String, int, RConClientOptions)}
+ * or {@link RConClient#connect(RConEventLoop, String, int, RConClientOptions)}
+ * and are always in pipelined mode.
+ * <p>
+ * Closing the event loop closes all connections that run on it.
+ */
+public class RConEventLoop implements Closeable {
+
+	/**
+	 * Size of the direct buffer each selector thread reads into. It is shared
+	 * by all connections of the thread.
+	 */
+	static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final SelectorLoop[] threads;
+	private final AtomicInteger nextThread = new AtomicInteger();
+
+	/**
+	 * Creates an event loop with a single selector thread
+	 * 
+	 * @throws IOException
+	 *             if the selector can't be opened
+	 */
+	public RConEventLoop() throws IOException {
+		this(1);
+	}
+
+	/**
+	 * Creates an event loop with the given number of selector threads.
+	 * Connections are distributed across the threads round robin.
+	 * 
+	 * @param threadCount
+	 *            the number of selector threads
+	 * @throws IOException
+	 *             if a selector can't be opened
+	 */
+	public RConEventLoop(int threadCount) throws IOException {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("Thread count must be at least one");
+		threads = new SelectorLoop[threadCount];
+		try {
+			for (int i = 0; i < threadCount; i++)
+				threads[i] = new SelectorLoop("RCON event loop " + i, READ_BUFFER_SIZE);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		for (SelectorLoop thread : threads)
+			thread.start();
+	}
+
+	/**
+	 * Opens a non-blocking connection to the given address
+	 * 
+	 * @param address
+	 *            the server address
+	 * @param options
+	 *            the socket options, including the connect timeout
+	 * @return a future that is completed once the connection is established. It
+	 *         fails if the event loop is closed.
+	 */
+	CompletableFuture<ChannelTransport> connect(InetSocketAddress address, RConClientOptions options) {
+		CompletableFuture<ChannelTransport> future = new CompletableFuture<>();
+		SelectorLoop thread = threads[Math.floorMod(nextThread.getAndIncrement(), threads.length)];
+		try {
+			thread.execute(() -> {
+				SocketChannel channel = null;
+				try {
+					channel = SocketChannel.open();
+					channel.configureBlocking(false);
+					configure(channel, options);
+					ChannelTransport transport = new ChannelTransport(channel, address, thread, future);
+					SelectionKey key = thread.register(channel, 0, transport);
+					transport.connect(key);
+					if (options.getConnectTimeout() > 0 && !future.isDone()) {
+						ScheduledFuture<?> timeout = RConClient.TimeoutScheduler.INSTANCE.schedule(
+								() -> transport.fail(new SocketTimeoutException("Connect timed out")),
+								options.getConnectTimeout(), TimeUnit.MILLISECONDS);
+						future.whenComplete((connected, error) -> timeout.cancel(false));
+					}
+				} catch (IOException | RuntimeException e) {
+					closeQuietly(channel);
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new IOException("Event loop closed", e));
+		}
+		return future;
+	}
+
+	/**
+	 * Applies the socket options that make sense for a channel. The input
+	 * buffer options only apply to blocking connections.
+	 */
+	private static void configure(SocketChannel channel, RConClientOptions options) throws IOException {
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, options.isTcpNoDelay());
+		channel.setOption(StandardSocketOptions.SO_KEEPALIVE, options.isKeepAlive());
+		if (options.getSendBufferSize() > 0)
+			channel.setOption(StandardSocketOptions.SO_SNDBUF, options.getSendBufferSize());
+		// Has to be set before connecting to take effect for large windows
+		if (options.getReceiveBufferSize() > 0)
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, options.getReceiveBufferSize());
+	}
+
+	/**
+	 * Stops all selector threads and closes every connection running on this
+	 * event loop
+	 */
+	@Override
+	public void close() throws IOException {
+		for (SelectorLoop thread : threads)
+			if (thread != null)
+				thread.shutdown();
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Ignore: the connection failed anyway
+		}
+	}
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a {@link ResilientRConClient} reconnects after the connection broke.
+ * The delay before reconnect attempt {@code n} (counting from zero) is
+ * {@code min(maxDelay, initialDelay * multiplier^n)}, shortened by a random
+ * share of up to {@code jitter}, so that clients which lost their connection
+ * at the same time, e.g. because the server restarted, don't all reconnect at
+ * once.
+ * <p>
+ * Instances are immutable and created with a {@link Builder}.
+ */
+public final class ReconnectPolicy {
+
+	/**
+	 * The default policy: starting at 100 ms, doubling up to 30 s, with 50 %
+	 * jitter, giving up after 10 attempts and retrying idempotent commands
+	 * twice
+	 */
+	public static final ReconnectPolicy DEFAULT = builder().build();
+
+	private final long initialDelay;
+	private final long maxDelay;
+	private final double multiplier;
+	private final double jitter;
+	private final int maxAttempts;
+	private final int commandRetries;
+
+	private ReconnectPolicy(Builder builder) {
+		initialDelay = builder.initialDelay;
+		maxDelay = builder.maxDelay;
+		multiplier = builder.multiplier;
+		jitter = builder.jitter;
+		maxAttempts = builder.maxAttempts;
+		commandRetries = builder.commandRetries;
+	}
+
+	/**
+	 * Creates a builder initialized with the default policy
+	 *
+	 * @return a new builder
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Returns the delay before the first reconnect attempt
+	 *
+	 * @return the delay in milliseconds
+	 */
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	/**
+	 * Returns the upper bound of the delay between two attempts
+	 *
+	 * @return the delay in milliseconds
+	 */
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * Returns the factor the delay grows by after every failed attempt
+	 *
+	 * @return the multiplier
+	 */
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	/**
+	 * Returns the share of the delay that is randomized
+	 *
+	 * @return the jitter between 0 and 1
+	 */
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Returns how often connecting is attempted before giving up
+	 *
+	 * @return the maximum number of attempts, zero for unlimited
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Returns how often an idempotent command is resent after the connection
+	 * broke while it was in flight
+	 *
+	 * @return the number of retries
+	 */
+	public int getCommandRetries() {
+		return commandRetries;
+	}
+
+	/**
+	 * Computes the delay before the given attempt. The random number decides
+	 * how much of the jitter is applied, pass
+	 * {@code ThreadLocalRandom.current().nextDouble()} to spread out the
+	 * attempts of many clients.
+	 *
+	 * @param attempt
+	 *            the number of failed attempts so far
+	 * @param random
+	 *            a random number between 0 (inclusive) and 1 (exclusive)
+	 * @return the delay in milliseconds
+	 */
+	public long getDelay(int attempt, double random) {
+		double delay = Math.min(maxDelay, initialDelay * Math.pow(multiplier, attempt));
+		return (long) (delay * (1 - jitter * random));
+	}
+
+	@Override
+	public String toString() {
+		return "ReconnectPolicy[initialDelay=" + initialDelay + ", maxDelay=" + maxDelay + ", multiplier="
+				+ multiplier + ", jitter=" + jitter + ", maxAttempts=" + maxAttempts + ", commandRetries="
+				+ commandRetries + "]";
+	}
+
+	/**
+	 * Builds a {@link ReconnectPolicy}. All setters return the builder.
+	 */
+	public static final class Builder {
+
+		private long initialDelay = 100;
+		private long maxDelay = 30_000;
+		private double multiplier = 2;
+		private double jitter = 0.5;
+		private int maxAttempts = 10;
+		private int commandRetries = 2;
+
+		private Builder() {
+		}
+
+		/**
+		 * Sets the delay before the first reconnect attempt
+		 *
+		 * @param delay
+		 *            the delay
+		 * @param unit
+		 *            the unit of the delay
+		 * @return this builder
+		 */
+		public Builder initialDelay(long delay, TimeUnit unit) {
+			if (delay < 0)
+				throw new IllegalArgumentException("Delay must not be negative");
+			initialDelay = unit.toMillis(delay);
+			return this;
+		}
+
+		/**
+		 * Sets the upper bound of the delay between two attempts
+		 *
+		 * @param delay
+		 *            the delay
+		 * @param unit
+		 *            the unit of the delay
+		 * @return this builder
+		 */
+		public Builder maxDelay(long delay, TimeUnit unit) {
+			if (delay < 0)
+				throw new IllegalArgumentException("Delay must not be negative");
+			maxDelay = unit.toMillis(delay);
+			return this;
+		}
+
+		/**
+		 * Sets the factor the delay grows by after every failed attempt
+		 *
+		 * @param multiplier
+		 *            the multiplier, at least 1
+		 * @return this builder
+		 */
+		public Builder multiplier(double multiplier) {
+			if (!(multiplier >= 1))
+				throw new IllegalArgumentException("Multiplier must be at least one");
+			this.multiplier = multiplier;
+			return this;
+		}
+
+		/**
+		 * Sets the share of the delay that is randomized. With a jitter of
+		 * 0.5, the delay is between half and all of the computed delay.
+		 *
+		 * @param jitter
+		 *            the jitter between 0 (no randomization) and 1
+		 * @return this builder
+		 */
+		public Builder jitter(double jitter) {
+			if (!(jitter >= 0 && jitter <= 1))
+				throw new IllegalArgumentException("Jitter must be between zero and one");
+			this.jitter = jitter;
+			return this;
+		}
+
+		/**
+		 * Sets how often connecting is attempted before giving up
+		 *
+		 * @param maxAttempts
+		 *            the maximum number of attempts, zero for unlimited
+		 * @return this builder
+		 */
+		public Builder maxAttempts(int maxAttempts) {
+			if (maxAttempts < 0)
+				throw new IllegalArgumentException("Attempts must not be negative");
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		/**
+		 * Sets how often an idempotent command is resent after the connection
+		 * broke while it was in flight
+		 *
+		 * @param commandRetries
+		 *            the number of retries
+		 * @return this builder
+		 */
+		public Builder commandRetries(int commandRetries) {
+			if (commandRetries < 0)
+				throw new IllegalArgumentException("Retries must not be negative");
+			this.commandRetries = commandRetries;
+			return this;
+		}
+
+		/**
+		 * Creates the policy
+		 *
+		 * @return the policy
+		 */
+		public ReconnectPolicy build() {
+			return new ReconnectPolicy(this);
+		}
+
+	}
+
+}
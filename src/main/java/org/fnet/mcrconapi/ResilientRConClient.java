@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fnet.mcrconapi.packet.Packet;
+
+/**
+ * A client that survives server restarts. It keeps the password of its
+ * {@link RConEndpoint} and, whenever the connection turns out to be broken,
+ * opens a new one and authenticates again, waiting between failed attempts as
+ * described by its {@link ReconnectPolicy}.
+ * <p>
+ * A command that was in flight when the connection broke may or may not have
+ * been executed by the server. It is only resent if it is idempotent, i.e. if
+ * it was sent with {@link ResilientRConClient#sendCommand(String, boolean)}
+ * and {@code idempotent} set, or if its name was registered with
+ * {@link ResilientRConClient#addIdempotentCommand(String)}. Otherwise the
+ * {@link IOException} is thrown and the next command reconnects.
+ * <p>
+ * The underlying connection is in pipelined mode, so the client can be used
+ * by several threads at the same time. Only one of them reconnects, the others
+ * wait for it.
+ */
+public class ResilientRConClient implements CommandSender, Closeable {
+
+	private final RConEndpoint endpoint;
+	private final RConClientOptions options;
+	private final ReconnectPolicy policy;
+	private final Set<String> idempotentCommands = ConcurrentHashMap.newKeySet();
+	private final Object connectLock = new Object();
+	private final AtomicInteger reconnects = new AtomicInteger();
+	private volatile Charset payloadCharset = Packet.DEFAULT_PAYLOAD_CHARSET;
+	private volatile RConClient client;
+	private volatile boolean connectedBefore;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a client with the default options and
+	 * {@link ReconnectPolicy#DEFAULT}. No connection is opened until the first
+	 * command is sent or {@link ResilientRConClient#connect()} is called.
+	 *
+	 * @param endpoint
+	 *            the server and its password
+	 */
+	public ResilientRConClient(RConEndpoint endpoint) {
+		this(endpoint, RConClientOptions.DEFAULT, ReconnectPolicy.DEFAULT);
+	}
+
+	/**
+	 * Creates a client. No connection is opened until the first command is
+	 * sent or {@link ResilientRConClient#connect()} is called.
+	 *
+	 * @param endpoint
+	 *            the server and its password
+	 * @param options
+	 *            the socket options of every connection
+	 * @param policy
+	 *            how to reconnect
+	 */
+	public ResilientRConClient(RConEndpoint endpoint, RConClientOptions options, ReconnectPolicy policy) {
+		this.endpoint = Objects.requireNonNull(endpoint, "endpoint");
+		this.options = Objects.requireNonNull(options, "options");
+		this.policy = Objects.requireNonNull(policy, "policy");
+	}
+
+	/**
+	 * Marks a command as safe to resend, like {@code list} or
+	 * {@code whitelist reload}. Commands are matched by their first word,
+	 * ignoring case and a leading slash.
+	 *
+	 * @param commandName
+	 *            the name of the command
+	 */
+	public void addIdempotentCommand(String commandName) {
+		idempotentCommands.add(commandName(commandName));
+	}
+
+	/**
+	 * Returns if a command is marked as safe to resend
+	 *
+	 * @param command
+	 *            the command, including its arguments
+	 * @return true if the name of the command was registered with
+	 *         {@link ResilientRConClient#addIdempotentCommand(String)}
+	 */
+	public boolean isIdempotent(String command) {
+		return idempotentCommands.contains(commandName(command));
+	}
+
+	private static String commandName(String command) {
+		String name = command.trim();
+		if (name.startsWith("/"))
+			name = name.substring(1);
+		int space = name.indexOf(' ');
+		return (space == -1 ? name : name.substring(0, space)).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Sets the payload charset of the current and all future connections
+	 *
+	 * @param charset
+	 *            the payload charset
+	 * @see RConClient#setPayloadCharset(Charset)
+	 */
+	public void setPayloadCharset(Charset charset) {
+		payloadCharset = Objects.requireNonNull(charset, "charset");
+		RConClient current = client;
+		if (current != null)
+			current.setPayloadCharset(charset);
+	}
+
+	/**
+	 * Sends a command, resending it after reconnecting if it is registered as
+	 * idempotent
+	 *
+	 * @param command
+	 *            the command to send
+	 * @return the output of the command
+	 * @throws IOException
+	 *             if no connection could be established or the connection
+	 *             broke while a command that is not idempotent was in flight
+	 * @throws AuthenticationException
+	 *             if the password was rejected
+	 * @see ResilientRConClient#addIdempotentCommand(String)
+	 */
+	@Override
+	public String sendCommand(String command) throws IOException, AuthenticationException {
+		return sendCommand(command, isIdempotent(command));
+	}
+
+	/**
+	 * Sends a command. If the connection breaks while it is in flight and it
+	 * is idempotent, it is resent on a new connection up to
+	 * {@link ReconnectPolicy#getCommandRetries()} times. A response that
+	 * doesn't arrive within the read timeout of the options counts as a
+	 * broken connection. If the calling thread is interrupted, the connection
+	 * is kept for the other threads and the command is not resent.
+	 *
+	 * @param command
+	 *            the command to send
+	 * @param idempotent
+	 *            true if the command may be executed twice
+	 * @return the output of the command
+	 * @throws IOException
+	 *             if no connection could be established or the connection
+	 *             broke and the command can't be resent
+	 * @throws AuthenticationException
+	 *             if the password was rejected
+	 * @throws InvalidPacketException
+	 *             if the server responds with an invalid packet
+	 */
+	public String sendCommand(String command, boolean idempotent) throws IOException, AuthenticationException {
+		for (int retries = 0;; retries++) {
+			RConClient current = connect();
+			try {
+				return current.sendCommand(command);
+			} catch (InvalidPacketException e) {
+				// The connection is fine, the server just didn't like the command
+				throw e;
+			} catch (IOException e) {
+				// Only the calling thread was interrupted, the connection is
+				// still fine for the others
+				if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))
+					throw e;
+				invalidate(current);
+				if (!idempotent || closed || retries >= policy.getCommandRetries())
+					throw e;
+			}
+		}
+	}
+
+	/**
+	 * Returns an authenticated connection, reconnecting if the current one is
+	 * broken
+	 *
+	 * @return the connected client
+	 * @throws IOException
+	 *             if connecting failed {@link ReconnectPolicy#getMaxAttempts()}
+	 *             times or this client is closed
+	 * @throws AuthenticationException
+	 *             if the password was rejected, this is not retried
+	 */
+	public RConClient connect() throws IOException, AuthenticationException {
+		RConClient current = client;
+		if (current != null && current.isConnected())
+			return current;
+		synchronized (connectLock) {
+			current = client;
+			if (current != null && current.isConnected())
+				return current;
+			if (current != null)
+				invalidate(current);
+			for (int attempt = 0;; attempt++) {
+				if (closed)
+					throw new IOException("Client closed");
+				try {
+					RConClient fresh = open();
+					if (connectedBefore)
+						reconnects.incrementAndGet();
+					connectedBefore = true;
+					client = fresh;
+					if (closed)
+						closeQuietly(fresh);
+					return fresh;
+				} catch (IOException e) {
+					if (policy.getMaxAttempts() > 0 && attempt + 1 >= policy.getMaxAttempts())
+						throw e;
+					backOff(attempt);
+				}
+			}
+		}
+	}
+
+	private RConClient open() throws IOException, AuthenticationException {
+		RConClient fresh = new RConClient(endpoint.getHost(), endpoint.getPort(), options);
+		try {
+			fresh.setPayloadCharset(payloadCharset);
+			fresh.authenticate(endpoint.getPassword());
+			fresh.enablePipelining();
+		} catch (IOException | AuthenticationException e) {
+			closeQuietly(fresh);
+			throw e;
+		}
+		return fresh;
+	}
+
+	private void backOff(int attempt) throws InterruptedIOException {
+		try {
+			Thread.sleep(policy.getDelay(attempt, ThreadLocalRandom.current().nextDouble()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to reconnect");
+		}
+	}
+
+	/**
+	 * Drops a broken connection, unless another thread already replaced it
+	 */
+	private void invalidate(RConClient broken) {
+		synchronized (connectLock) {
+			if (client == broken)
+				client = null;
+		}
+		closeQuietly(broken);
+	}
+
+	private static void closeQuietly(RConClient client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			// Ignore: the connection is dropped anyway
+		}
+	}
+
+	/**
+	 * Returns if there currently is a working connection
+	 *
+	 * @return true if connected
+	 */
+	public boolean isConnected() {
+		RConClient current = client;
+		return current != null && current.isConnected();
+	}
+
+	/**
+	 * Returns how often a new connection was established after the first one
+	 *
+	 * @return the number of reconnects
+	 */
+	public int getReconnectCount() {
+		return reconnects.get();
+	}
+
+	/**
+	 * Returns the server this client connects to
+	 *
+	 * @return the endpoint
+	 */
+	public RConEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * Closes the current connection and stops reconnecting. A thread that is
+	 * waiting between two attempts notices this once its delay is over.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		RConClient current = client;
+		client = null;
+		if (current != null)
+			current.close();
+	}
+
+}
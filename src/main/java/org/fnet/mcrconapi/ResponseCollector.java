@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.util.function.Consumer;
+
+/**
+ * Receives the payloads of the fragments of a command response as they arrive
+ * and turns them into the result of the response.
+ *
+ * @param <T>
+ *            the result type
+ */
+interface ResponseCollector<T> {
+
+	/**
+	 * Called for every fragment of the response, in order
+	 *
+	 * @param fragment
+	 *            the payload of the fragment
+	 */
+	void append(String fragment);
+
+	/**
+	 * Called once the last fragment was appended
+	 *
+	 * @return the result of the response
+	 * @throws RuntimeException
+	 *             if the response could not be processed
+	 */
+	T finish();
+
+	/**
+	 * Collects the whole output into one string
+	 */
+	final class Buffering implements ResponseCollector<String> {
+
+		private final StringBuilder builder = new StringBuilder();
+
+		@Override
+		public void append(String fragment) {
+			builder.append(fragment);
+		}
+
+		@Override
+		public String finish() {
+			return builder.toString();
+		}
+
+	}
+
+	/**
+	 * Hands every fragment to a consumer instead of keeping it, so memory use
+	 * doesn't grow with the size of the output. If the consumer throws an
+	 * exception, the remaining fragments are skipped and the exception is
+	 * rethrown by {@link Streaming#finish()}.
+	 */
+	final class Streaming implements ResponseCollector<Long> {
+
+		private final Consumer<? super String> consumer;
+		private long length;
+		private RuntimeException failure;
+
+		Streaming(Consumer<? super String> consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void append(String fragment) {
+			if (failure != null)
+				return;
+			try {
+				consumer.accept(fragment);
+				length += fragment.length();
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+
+		@Override
+		public Long finish() {
+			if (failure != null)
+				throw failure;
+			return length;
+		}
+
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.fnet.mcrconapi.packet.Packet;
+import org.fnet.mcrconapi.packet.ServerPacket;
+
+/**
+ * Routes each {@link ServerPacket} received by a {@link Transport} to the
+ * {@link PendingResponse} registered for its request ID.
+ */
+class ResponseDispatcher {
+
+	private final Map<Integer, PendingResponse<?>> pending = new ConcurrentHashMap<>();
+	private volatile IOException failure;
+
+	/**
+	 * Registers a response that waits for packets with the given request ID.
+	 * This has to happen before the request is written, otherwise the response
+	 * could arrive before it is registered.
+	 *
+	 * @param requestID
+	 *            the request ID of the sent packet
+	 * @param response
+	 *            the pending response
+	 * @throws IOException
+	 *             if the connection already terminated
+	 */
+	void register(int requestID, PendingResponse<?> response) throws IOException {
+		pending.put(requestID, response);
+		IOException failure = this.failure;
+		if (failure != null && pending.remove(requestID, response))
+			throw failure;
+	}
+
+	/**
+	 * Removes a registered response, e.g. because the request could not be
+	 * written
+	 *
+	 * @param requestID
+	 *            the request ID of the response
+	 * @param response
+	 *            the pending response
+	 */
+	void unregister(int requestID, PendingResponse<?> response) {
+		pending.remove(requestID, response);
+	}
+
+	/**
+	 * Hands a received packet to the response registered for its request ID.
+	 * Responses to requests that were given up on are dropped.
+	 *
+	 * @param packet
+	 *            the received packet
+	 */
+	void dispatch(Packet packet) {
+		PendingResponse<?> response = pending.get(packet.getRequestID());
+		if (response != null && response.accept(packet))
+			pending.remove(packet.getRequestID(), response);
+	}
+
+	/**
+	 * Returns if the connection terminated
+	 *
+	 * @return true if {@link ResponseDispatcher#terminate(IOException)} was
+	 *         called
+	 */
+	boolean isTerminated() {
+		return failure != null;
+	}
+
+	/**
+	 * Fails all pending and future responses, called once the connection is
+	 * lost
+	 *
+	 * @param cause
+	 *            the reason the connection terminated
+	 */
+	void terminate(IOException cause) {
+		failure = cause;
+		for (Iterator<PendingResponse<?>> iterator = pending.values().iterator(); iterator.hasNext();) {
+			iterator.next().fail(cause);
+			iterator.remove();
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+/**
+ * How a client detects that the last fragment of a command response was
+ * received
+ * 
+ * @see RConClient#setResponseTermination(ResponseTermination)
+ */
+public enum ResponseTermination {
+	/**
+	 * A fragment with a packet length of 4096 is assumed to be followed by
+	 * more fragments, any shorter fragment ends the response. This needs no
+	 * extra packets, but a response whose last fragment is exactly 4096 bytes
+	 * long never completes, and an empty response is reported as an
+	 * {@link InvalidPacketException}.
+	 */
+	LENGTH_HEURISTIC,
+	/**
+	 * An empty sentinel command is sent right after every command. Since the
+	 * server processes commands in order, the response to the sentinel marks
+	 * the end of the previous response, regardless of fragment sizes. This
+	 * costs one extra packet per command in each direction.
+	 */
+	SENTINEL
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.fnet.mcrconapi.metrics.RConMetrics;
+import org.fnet.mcrconapi.packet.PacketEncoder;
+import org.fnet.mcrconapi.packet.PacketType;
+import org.fnet.mcrconapi.packet.ServerPacket;
+
+/**
+ * A {@link Transport} over a blocking {@link Socket}. Once started, a reader
+ * thread hands every received packet to the dispatcher.
+ */
+class SocketTransport implements Transport {
+
+	private static final int INITIAL_WRITE_BUFFER_SIZE = 1024;
+
+	private final Socket socket;
+	private final OutputStream outputStream;
+	private final InputStream inputStream;
+	private PacketEncoder encoder = new PacketEncoder();
+	private volatile RConMetrics metrics = RConMetrics.NOOP;
+	/**
+	 * Encoded packets that were not written yet
+	 */
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_WRITE_BUFFER_SIZE);
+
+	SocketTransport(String host, int port, RConClientOptions options) throws IOException {
+		socket = new Socket();
+		try {
+			socket.setTcpNoDelay(options.isTcpNoDelay());
+			socket.setKeepAlive(options.isKeepAlive());
+			if (options.getSendBufferSize() > 0)
+				socket.setSendBufferSize(options.getSendBufferSize());
+			// Has to be set before connecting to take effect for large windows
+			if (options.getReceiveBufferSize() > 0)
+				socket.setReceiveBufferSize(options.getReceiveBufferSize());
+			socket.connect(new InetSocketAddress(host, port), options.getConnectTimeout());
+			socket.setSoTimeout(options.getReadTimeout());
+			outputStream = socket.getOutputStream();
+			InputStream socketInput = socket.getInputStream();
+			inputStream = options.isBufferedInput()
+					? new BufferedInputStream(socketInput, options.getInputBufferSize())
+					: socketInput;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(int requestID, PacketType type, String payload) throws IOException {
+		encode(requestID, type, payload);
+		flush();
+	}
+
+	@Override
+	public void encode(int requestID, PacketType type, String payload) {
+		int frameLength = encoder.maxFrameLength(payload);
+		if (writeBuffer.remaining() < frameLength) {
+			ByteBuffer grown = ByteBuffer
+					.allocate(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + frameLength));
+			writeBuffer.flip();
+			writeBuffer = grown.put(writeBuffer);
+		}
+		encoder.encode(requestID, type, payload, writeBuffer);
+	}
+
+	@Override
+	public void setPayloadCharset(Charset charset) {
+		encoder = new PacketEncoder(charset);
+	}
+
+	@Override
+	public void setMetrics(RConMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		try {
+			outputStream.write(writeBuffer.array(), 0, writeBuffer.position());
+			metrics.bytesSent(writeBuffer.position());
+		} finally {
+			writeBuffer.clear();
+		}
+	}
+
+	@Override
+	public ServerPacket read() throws IOException {
+		try {
+			return receive();
+		} catch (SocketTimeoutException e) {
+			// The stream may be in the middle of a packet now
+			close();
+			throw e;
+		}
+	}
+
+	private ServerPacket receive() throws IOException {
+		try {
+			ServerPacket packet = new ServerPacket(inputStream);
+			metrics.bytesReceived(packet.getLength() + Integer.BYTES);
+			return packet;
+		} catch (MalformedPacketException e) {
+			metrics.malformedPacket(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void start(ResponseDispatcher dispatcher) {
+		try {
+			// The reader thread idles between responses, requests time out on their own
+			socket.setSoTimeout(0);
+		} catch (IOException e) {
+			dispatcher.terminate(e);
+			return;
+		}
+		Thread thread = new Thread(() -> {
+			try {
+				while (true)
+					dispatcher.dispatch(receive());
+			} catch (EOFException e) {
+				dispatcher.terminate(new EOFException("Connection closed by server"));
+			} catch (IOException e) {
+				dispatcher.terminate(e);
+			} catch (Throwable e) {
+				// Pending responses would never complete without the reader
+				try {
+					close();
+				} catch (IOException closeException) {
+					e.addSuppressed(closeException);
+				}
+				dispatcher.terminate(new IOException("Reader thread failed", e));
+				if (e instanceof Error)
+					throw (Error) e;
+			}
+		}, "RCON reader " + getServerDescription());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return false;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !socket.isClosed();
+	}
+
+	@Override
+	public String getServerDescription() {
+		return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+	}
+
+	@Override
+	public void close() throws IOException {
+		inputStream.close();
+		outputStream.close();
+		socket.close();
+	}
+
+}
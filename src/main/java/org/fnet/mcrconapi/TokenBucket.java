@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A rate limiter that hands out permits at a fixed rate and lets up to
+ * {@code burst} of them accumulate while idle.
+ * <p>
+ * {@link TokenBucket#reserve()} never refuses a permit, it goes into debt
+ * instead and returns how long the caller has to wait. Callers that wait that
+ * long before acting are served in the order they reserved.
+ */
+public final class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	private final double permitsPerSecond;
+	private final int burst;
+	private final LongSupplier clock;
+	private double permits;
+	private long lastRefill;
+
+	/**
+	 * Creates a bucket that starts full
+	 *
+	 * @param permitsPerSecond
+	 *            the rate at which permits are added
+	 * @param burst
+	 *            the maximum number of permits that accumulate
+	 */
+	public TokenBucket(double permitsPerSecond, int burst) {
+		this(permitsPerSecond, burst, System::nanoTime);
+	}
+
+	/**
+	 * @param clock
+	 *            the time source in nanoseconds
+	 */
+	TokenBucket(double permitsPerSecond, int burst, LongSupplier clock) {
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("Rate must be positive");
+		if (burst < 1)
+			throw new IllegalArgumentException("Burst must be at least one");
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.clock = clock;
+		permits = burst;
+		lastRefill = clock.getAsLong();
+	}
+
+	private void refill() {
+		long now = clock.getAsLong();
+		permits = Math.min(burst, permits + (now - lastRefill) * permitsPerSecond / NANOS_PER_SECOND);
+		lastRefill = now;
+	}
+
+	/**
+	 * Takes a permit if one is available right now
+	 *
+	 * @return true if a permit was taken
+	 */
+	public synchronized boolean tryAcquire() {
+		refill();
+		if (permits < 1)
+			return false;
+		permits--;
+		return true;
+	}
+
+	/**
+	 * Takes a permit, borrowing it from the future if none is available
+	 *
+	 * @return the number of nanoseconds the caller has to wait before using
+	 *         the permit, zero if it can be used right away
+	 */
+	public synchronized long reserve() {
+		refill();
+		permits--;
+		if (permits >= 0)
+			return 0;
+		return (long) Math.ceil(-permits * NANOS_PER_SECOND / permitsPerSecond);
+	}
+
+	/**
+	 * Returns the rate at which permits are added
+	 *
+	 * @return the permits per second
+	 */
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	/**
+	 * Returns the maximum number of permits that accumulate
+	 *
+	 * @return the burst size
+	 */
+	public int getBurst() {
+		return burst;
+	}
+
+	@Override
+	public String toString() {
+		return "TokenBucket[permitsPerSecond=" + permitsPerSecond + ", burst=" + burst + "]";
+	}
+
+}
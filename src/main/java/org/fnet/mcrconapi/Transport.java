@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.fnet.mcrconapi.metrics.RConMetrics;
+import org.fnet.mcrconapi.packet.PacketType;
+import org.fnet.mcrconapi.packet.ServerPacket;
+
+/**
+ * The connection an {@link RConClient} sends its packets over.
+ */
+interface Transport extends Closeable {
+
+	/**
+	 * Encodes a packet and writes it to the server. Callers synchronize
+	 * writes, so implementations don't have to be safe for concurrent writers.
+	 *
+	 * @param requestID
+	 *            the request ID
+	 * @param type
+	 *            the packet type
+	 * @param payload
+	 *            the payload
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(int requestID, PacketType type, String payload) throws IOException;
+
+	/**
+	 * Encodes a packet into the output buffer without sending it yet. Buffered
+	 * packets are sent together with the next call to
+	 * {@link Transport#flush()} or
+	 * {@link Transport#write(int, PacketType, String)}.
+	 *
+	 * @param requestID
+	 *            the request ID
+	 * @param type
+	 *            the packet type
+	 * @param payload
+	 *            the payload
+	 * @throws IOException
+	 *             if the transport is closed
+	 */
+	void encode(int requestID, PacketType type, String payload) throws IOException;
+
+	/**
+	 * Sets the charset that payloads are encoded with from now on. Called
+	 * under the same lock as writes.
+	 *
+	 * @param charset
+	 *            the payload charset
+	 */
+	void setPayloadCharset(Charset charset);
+
+	/**
+	 * Sets the metrics that sent and received bytes and malformed packets are
+	 * reported to
+	 *
+	 * @param metrics
+	 *            the metrics
+	 */
+	void setMetrics(RConMetrics metrics);
+
+	/**
+	 * Sends all buffered packets with as few writes as possible
+	 *
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Blocks until the next packet from the server was read. Only supported
+	 * as long as {@link Transport#start(ResponseDispatcher)} was not called.
+	 *
+	 * @return the packet read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws UnsupportedOperationException
+	 *             if the transport can only deliver packets asynchronously
+	 */
+	ServerPacket read() throws IOException;
+
+	/**
+	 * Starts delivering every packet received from the server to the given
+	 * dispatcher. Once the connection terminates,
+	 * {@link ResponseDispatcher#terminate(IOException)} is called.
+	 *
+	 * @param dispatcher
+	 *            the dispatcher to deliver packets to
+	 */
+	void start(ResponseDispatcher dispatcher);
+
+	/**
+	 * Returns if packets can only be received through
+	 * {@link Transport#start(ResponseDispatcher)}
+	 *
+	 * @return true if {@link Transport#read()} is not supported
+	 */
+	boolean isAsynchronous();
+
+	/**
+	 * Returns if the transport has not been closed yet. A connection that was
+	 * closed by the server might only be noticed on the next read.
+	 *
+	 * @return true if the transport is open
+	 */
+	boolean isOpen();
+
+	/**
+	 * Returns the address of the server, as used in messages
+	 *
+	 * @return the server address and port
+	 */
+	String getServerDescription();
+
+}
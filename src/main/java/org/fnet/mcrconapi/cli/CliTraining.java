@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.cli;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.fnet.mcrconapi.server.CommandHandler;
+import org.fnet.mcrconapi.server.RConServer;
+
+/**
+ * The training run of the {@code appcds} build profile. It sends one command
+ * with {@link CommandLineMain} to an in-process server, so that the class
+ * data sharing archive dumped at exit contains the classes of a typical
+ * {@code java -jar mcrconapi.jar -c list} call.
+ */
+final class CliTraining {
+
+	private static final String PASSWORD = "training";
+	private static final String OUTPUT = "There are 0 of a max of 20 players online: ";
+
+	private CliTraining() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		try (RConServer server = new RConServer(PASSWORD, CommandHandler.of((session, command) -> OUTPUT))) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			CommandLineMain.main(new String[] { "--noninteractive", "--host", "127.0.0.1", "--port",
+					Integer.toString(server.getPort()), "--login", PASSWORD, "--command", "list" });
+		}
+	}
+
+}
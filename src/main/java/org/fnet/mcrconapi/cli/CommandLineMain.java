@@ -4,17 +4,49 @@
  */
 package org.fnet.mcrconapi.cli;
 
+import java.io.BufferedReader;
 import java.io.Console;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 import org.fnet.mcrconapi.AuthenticationException;
+import org.fnet.mcrconapi.FleetExecutor;
+import org.fnet.mcrconapi.FleetResult;
 import org.fnet.mcrconapi.RConClient;
+import org.fnet.mcrconapi.RConClientOptions;
+import org.fnet.mcrconapi.RConEndpoint;
+import org.fnet.mcrconapi.ReconnectPolicy;
+import org.fnet.mcrconapi.ResilientRConClient;
+import org.fnet.mcrconapi.packet.Packet;
 
 public class CommandLineMain {
 
+	/**
+	 * The file in the home directory that keeps the REPL history
+	 */
+	private static final String HISTORY_FILE_NAME = ".mcrconapi_history";
+	/**
+	 * Gives up after a few seconds, so that a wrong address is reported
+	 * quickly
+	 */
+	private static final ReconnectPolicy REPL_RECONNECT_POLICY = ReconnectPolicy.builder().maxAttempts(5).build();
+	/**
+	 * The time the session of each server of a hosts file may take by
+	 * default, so that one server that doesn't answer can't keep the whole
+	 * run from finishing
+	 */
+	private static final int DEFAULT_HOSTS_TIMEOUT_MILLIS = 30000;
+
 	public static void main(String[] args) {
 		Map<String, String> arguments = parseArguments(args);
 		if (arguments.containsKey("help") || arguments.containsKey("h")) {
@@ -29,13 +61,61 @@ public class CommandLineMain {
 		boolean interactive = !arguments.containsKey("noninteractive") && !arguments.containsKey("n");
 		String password = arguments.containsKey("login") ? arguments.get("login") : arguments.get("l");
 		String command = arguments.containsKey("command") ? arguments.get("command") : arguments.get("c");
+		String scriptFile = arguments.get("script");
+		boolean scriptFromStdin = arguments.containsKey("stdin");
+		boolean script = scriptFile != null || scriptFromStdin;
+		if (scriptFromStdin)
+			// Standard input holds the script, so nothing can be asked for
+			interactive = false;
+		String hostsFile = arguments.get("hosts-file");
+		RConClientOptions options;
+		Charset charset;
+		int pipelineDepth;
+		int port;
+		int parallelism;
+		int hostsTimeout;
+		try {
+			options = parseOptions(arguments);
+			port = RConClient.DEFAULT_RCON_PORT;
+			if (arguments.containsKey("port") || arguments.containsKey("p"))
+				port = parsePort(arguments.containsKey("port") ? arguments.get("port") : arguments.get("p"));
+			parallelism = arguments.containsKey("parallel") ? parseNumber(arguments, "parallel")
+					: FleetExecutor.DEFAULT_MAX_CONCURRENCY;
+			if (parallelism < 1)
+				throw new IllegalArgumentException("--parallel needs a positive number, got " + parallelism);
+			hostsTimeout = arguments.containsKey("timeout") ? parseNumber(arguments, "timeout")
+					: DEFAULT_HOSTS_TIMEOUT_MILLIS;
+			charset = arguments.containsKey("charset") ? Charset.forName(arguments.get("charset"))
+					: Packet.DEFAULT_PAYLOAD_CHARSET;
+			pipelineDepth = arguments.containsKey("pipeline") ? parseNumber(arguments, "pipeline") : 1;
+			if (pipelineDepth < 1)
+				throw new IllegalArgumentException("--pipeline needs a positive number, got " + pipelineDepth);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
 
-		try (Scanner sc = new Scanner(System.in)) {
+		if (hostsFile != null) {
+			if (command == null) {
+				System.err.println("--hosts-file needs a command");
+				System.exit(1);
+			}
+			System.exit(runOnHosts(hostsFile, port, command, options, charset, parallelism, hostsTimeout,
+					arguments.containsKey("json")));
+			return;
+		}
+
+		// Shared by the prompts, the REPL and --stdin, so that nothing read
+		// ahead by one of them is lost for the others
+		BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, Charset.defaultCharset()));
+		try {
 			if (host == null) {
 				if (interactive) {
 					System.out.println("Enter host address: ");
-					host = sc.nextLine();
-				} else {
+					host = stdin.readLine();
+				}
+				if (host == null) {
 					System.err.println("Need host address");
 					System.exit(1);
 				}
@@ -47,27 +127,33 @@ public class CommandLineMain {
 					if (console != null) {
 						password = new String(console.readPassword());
 					} else {
-						password = sc.nextLine();
+						password = stdin.readLine();
 					}
-				} else {
+				}
+				if (password == null) {
 					System.err.println("Need password");
 					System.exit(1);
 				}
 			}
-			if (command == null) {
-				if (interactive) {
-					System.out.println("Enter command to send: ");
-					command = sc.nextLine();
-				} else {
-					System.err.println("Need command");
-					System.exit(1);
-				}
+		} catch (IOException e) {
+			System.err.println("An exception occured while reading standard input: ");
+			e.printStackTrace(System.err);
+			System.exit(1);
+			return;
+		}
+		if (command == null && !script) {
+			if (interactive) {
+				System.exit(runRepl(new RConEndpoint(host, port, password), options, charset, stdin));
+				return;
 			}
+			System.err.println("Need command");
+			System.exit(1);
 		}
 
 		RConClient client;
 		try {
-			client = new RConClient(host);
+			client = new RConClient(host, port, options);
+			client.setPayloadCharset(charset);
 		} catch (IOException e) {
 			System.err.println("An exception occured while connecting to the server: ");
 			e.printStackTrace(System.err);
@@ -90,6 +176,16 @@ public class CommandLineMain {
 			System.exit(1);
 			return;
 		}
+		if (script) {
+			int status = runScript(client, scriptFile, stdin, arguments.containsKey("json"), pipelineDepth, charset);
+			try {
+				client.close();
+			} catch (IOException e) {
+				// Ignore: all commands are done
+			}
+			System.exit(status);
+			return;
+		}
 		try {
 			System.out.println(client.sendCommand(command));
 		} catch (AuthenticationException | IOException e) {
@@ -115,6 +211,181 @@ public class CommandLineMain {
 		}
 	}
 
+	/**
+	 * Connects and runs the REPL until the user quits
+	 * 
+	 * @return the exit status: 0 if the session ended normally, 1 if
+	 *         connecting failed
+	 */
+	private static int runRepl(RConEndpoint endpoint, RConClientOptions options, Charset charset,
+			BufferedReader stdin) {
+		try (ResilientRConClient client = new ResilientRConClient(endpoint, options, REPL_RECONNECT_POLICY)) {
+			client.setPayloadCharset(charset);
+			for (String name : new String[] { "help", "list", "seed" })
+				client.addIdempotentCommand(name);
+			try {
+				client.connect();
+			} catch (IOException | AuthenticationException e) {
+				System.err.println("An exception occured while connecting to the server: ");
+				e.printStackTrace(System.err);
+				return 1;
+			}
+			new Repl(client, stdin, System.out, Paths.get(System.getProperty("user.home"), HISTORY_FILE_NAME))
+					.run();
+			return 0;
+		} catch (IOException e) {
+			System.err.println("An exception occured while reading standard input: ");
+			e.printStackTrace(System.err);
+			return 1;
+		}
+	}
+
+	/**
+	 * Runs a script and prints its summary to the standard error stream
+	 * 
+	 * @return the exit status: 0 if all commands succeeded, 2 if some failed
+	 *         and 1 if the script could not be read or the connection broke
+	 */
+	private static int runScript(RConClient client, String scriptFile, BufferedReader stdin, boolean json,
+			int pipelineDepth, Charset charset) {
+		ScriptRunner runner = new ScriptRunner(client, System.out, json, pipelineDepth);
+		ScriptRunner.Summary summary;
+		try (BufferedReader reader = scriptFile == null ? stdin
+				: Files.newBufferedReader(Paths.get(scriptFile), charset)) {
+			summary = runner.run(reader);
+		} catch (IOException e) {
+			System.err.println("An exception occured while reading the script: ");
+			e.printStackTrace(System.err);
+			return 1;
+		}
+		System.err.println(summary);
+		if (summary.isAborted())
+			return 1;
+		return summary.getFailedCount() > 0 ? 2 : 0;
+	}
+
+	/**
+	 * Sends a command to every server of a hosts file and prints the results
+	 * as they complete
+	 * 
+	 * @return the exit status: 0 if the command succeeded on all servers, 2
+	 *         if it failed on some and 1 if the hosts file is invalid
+	 */
+	private static int runOnHosts(String hostsFile, int defaultPort, String command, RConClientOptions options,
+			Charset charset, int parallelism, int timeout, boolean json) {
+		List<RConEndpoint> hosts;
+		try {
+			hosts = parseHosts(Files.readAllLines(Paths.get(hostsFile), StandardCharsets.UTF_8), defaultPort);
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("Could not read the hosts file: " + e.getMessage());
+			return 1;
+		}
+		long start = System.nanoTime();
+		List<FleetResult> results;
+		try (FleetExecutor fleet = new FleetExecutor(parallelism, options)) {
+			fleet.setPayloadCharset(charset);
+			results = fleet.broadcast(hosts, command, timeout, TimeUnit.MILLISECONDS, result -> {
+				String formatted = formatResult(result, json);
+				synchronized (System.out) {
+					System.out.println(formatted);
+				}
+			}).join();
+		}
+		long failed = results.stream().filter(result -> !result.isSuccessful()).count();
+		System.err.printf(Locale.ROOT, "%d servers, %d failed in %.3f s%n", results.size(), failed,
+				(System.nanoTime() - start) / 1e9);
+		return failed > 0 ? 2 : 0;
+	}
+
+	/**
+	 * Parses the lines of a hosts file. Each line is {@code host:port:password},
+	 * the port may be left empty to use the default one. IPv6 addresses are
+	 * written in brackets, like {@code [::1]:25575:secret}. Everything after
+	 * the second colon belongs to the password. Empty lines and lines
+	 * starting with {@code #} are skipped.
+	 * 
+	 * @param lines
+	 *            the lines of the file
+	 * @param defaultPort
+	 *            the port of entries that don't have one
+	 * @return the servers in the order of the file
+	 * @throws IllegalArgumentException
+	 *             if a line is malformed
+	 */
+	public static List<RConEndpoint> parseHosts(List<String> lines, int defaultPort) {
+		List<RConEndpoint> hosts = new ArrayList<>();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			try {
+				String host;
+				int hostEnd;
+				if (line.startsWith("[")) {
+					hostEnd = line.indexOf(']');
+					if (hostEnd == -1)
+						throw new IllegalArgumentException("missing ]");
+					host = line.substring(1, hostEnd);
+					hostEnd++;
+				} else {
+					hostEnd = line.indexOf(':');
+					if (hostEnd == -1)
+						hostEnd = line.length();
+					host = line.substring(0, hostEnd);
+				}
+				int portEnd = hostEnd < line.length() && line.charAt(hostEnd) == ':' ? line.indexOf(':', hostEnd + 1)
+						: -1;
+				if (host.isEmpty() || portEnd == -1)
+					throw new IllegalArgumentException("expected host:port:password");
+				String port = line.substring(hostEnd + 1, portEnd);
+				hosts.add(new RConEndpoint(host, port.isEmpty() ? defaultPort : parsePort(port),
+						line.substring(portEnd + 1)));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage(), e);
+			}
+		}
+		return hosts;
+	}
+
+	/**
+	 * Formats the result of one server, prefixing every line of the response
+	 * with the server's address
+	 * 
+	 * @param result
+	 *            the result
+	 * @param json
+	 *            true to format it as a JSON object
+	 * @return the formatted result
+	 */
+	public static String formatResult(FleetResult result, boolean json) {
+		RConEndpoint endpoint = result.getEndpoint();
+		if (json) {
+			StringBuilder builder = new StringBuilder("{\"host\":");
+			ScriptRunner.appendJsonString(builder, endpoint.getHost());
+			builder.append(",\"port\":").append(endpoint.getPort()).append(",\"status\":\"")
+					.append(result.isSuccessful() ? "ok" : "error").append("\",");
+			if (result.isSuccessful()) {
+				builder.append("\"output\":");
+				ScriptRunner.appendJsonString(builder, result.getResponse());
+			} else {
+				builder.append("\"error\":");
+				ScriptRunner.appendJsonString(builder, String.valueOf(result.getError()));
+			}
+			return builder.append(",\"micros\":").append(result.getDuration(TimeUnit.MICROSECONDS)).append('}')
+					.toString();
+		}
+		String prefix = "[" + endpoint + "] ";
+		if (!result.isSuccessful())
+			return prefix + "error: " + result.getError();
+		StringBuilder builder = new StringBuilder();
+		for (String line : result.getResponse().split("\\R", -1)) {
+			if (builder.length() > 0)
+				builder.append(System.lineSeparator());
+			builder.append(prefix).append(line);
+		}
+		return builder.toString();
+	}
+
 	public static Map<String, String> parseArguments(String[] args) {
 		final Map<String, String> map = new HashMap<>();
 		for (int i = 0; i < args.length; i++) {
@@ -151,6 +422,54 @@ public class CommandLineMain {
 		return map;
 	}
 
+	/**
+	 * Builds the socket options from the parsed arguments
+	 * 
+	 * @param arguments
+	 *            the parsed arguments
+	 * @return the socket options
+	 * @throws IllegalArgumentException
+	 *             if a numeric option has an invalid value
+	 */
+	public static RConClientOptions parseOptions(Map<String, String> arguments) {
+		RConClientOptions.Builder builder = RConClientOptions.builder();
+		if (arguments.containsKey("connect-timeout"))
+			builder.connectTimeout(parseNumber(arguments, "connect-timeout"), TimeUnit.MILLISECONDS);
+		if (arguments.containsKey("read-timeout"))
+			builder.readTimeout(parseNumber(arguments, "read-timeout"), TimeUnit.MILLISECONDS);
+		if (arguments.containsKey("send-buffer"))
+			builder.sendBufferSize(parseNumber(arguments, "send-buffer"));
+		if (arguments.containsKey("receive-buffer"))
+			builder.receiveBufferSize(parseNumber(arguments, "receive-buffer"));
+		builder.tcpNoDelay(!arguments.containsKey("nagle"));
+		builder.keepAlive(arguments.containsKey("keepalive"));
+		builder.bufferedInput(!arguments.containsKey("unbuffered"));
+		return builder.build();
+	}
+
+	private static int parseNumber(Map<String, String> arguments, String name) {
+		String value = arguments.get(name);
+		try {
+			int number = Integer.parseInt(value);
+			if (number < 0)
+				throw new NumberFormatException();
+			return number;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("--" + name + " needs a non-negative number, got " + value);
+		}
+	}
+
+	private static int parsePort(String value) {
+		try {
+			int port = Integer.parseInt(value);
+			if (port < 1 || port > 65535)
+				throw new NumberFormatException();
+			return port;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid port " + value);
+		}
+	}
+
 	public static void printVersion() {
 		System.out.println("MCRCONAPI v" + RConClient.API_VERSION);
 		System.out.println("Copyright (c) 2021 fnetworks");
@@ -160,13 +479,29 @@ public class CommandLineMain {
 		System.out.println("Parameters: ");
 		System.out.println("    --host           | -a <address>  : Specify the host address");
 		System.out.println("    --login          | -l <password> : Login at the server with the given password");
+		System.out.println("    --port           | -p <port>     : Port of the server (default: 25575)");
 		System.out.println("    --help           | -h            : Show this help message");
 		System.out.println("    --version        | -v            : Prints version information");
 		System.out.println("    --noninteractive | -n            : "
-				+ "Non-Interactive mode (exit instead of asking for missing information and commands, "
+				+ "Non-Interactive mode (exit instead of asking for missing information, "
 				+ "default is interactive mode)");
 		System.out.println("    --command       | -c <command> : "
-				+ "Command that should be sent to the server (noninteractive mode)");
+				+ "Command that should be sent to the server (without it, interactive mode opens a prompt)");
+		System.out.println("    --connect-timeout   <millis> : Fail if connecting takes longer (default: no timeout)");
+		System.out.println("    --read-timeout      <millis> : Fail if a response takes longer (default: no timeout)");
+		System.out.println("    --send-buffer       <bytes>  : Size of the socket send buffer");
+		System.out.println("    --receive-buffer    <bytes>  : Size of the socket receive buffer");
+		System.out.println("    --keepalive                  : Enable TCP keepalive");
+		System.out.println("    --nagle                      : Enable Nagle's algorithm (disable TCP_NODELAY)");
+		System.out.println("    --unbuffered                 : Read responses without an input buffer");
+		System.out.println("    --charset           <name>   : Charset of commands and responses (default: UTF-8)");
+		System.out.println("    --script            <file>   : Send the commands in a file, one per line, over one connection");
+		System.out.println("    --stdin                      : Read the script from standard input instead of a file");
+		System.out.println("    --pipeline          <depth>  : Send that many script commands before waiting for responses");
+		System.out.println("    --json                       : Print one JSON object per script command or server");
+		System.out.println("    --hosts-file        <file>   : Send the command to every host:port:password in a file");
+		System.out.println("    --parallel          <count>  : Number of servers of a hosts file that run at once (default: 64)");
+		System.out.println("    --timeout           <millis> : Time each server of a hosts file may take, 0 for none (default: 30000)");
 	}
 
 }
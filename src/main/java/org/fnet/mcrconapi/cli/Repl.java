@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.fnet.mcrconapi.AuthenticationException;
+import org.fnet.mcrconapi.CommandSender;
+import org.fnet.mcrconapi.InvalidPacketException;
+
+/**
+ * An interactive prompt that sends every line as a command over one session.
+ * Lines starting with {@code :} are commands of the prompt itself, see
+ * {@link Repl#printHelp()}.
+ * <p>
+ * Standard input is read line by line, so the terminal does the line editing.
+ * Completion is therefore requested by ending a line with a tab before
+ * pressing enter: the candidates are printed instead of sending the line.
+ * They are taken from the output of the server's {@code help} command, which
+ * is fetched once and cached. Previous lines can be sent again with
+ * {@code !!} and {@code !<number>}.
+ */
+public class Repl {
+
+	/**
+	 * The number of lines that are kept in the history
+	 */
+	public static final int MAX_HISTORY = 500;
+
+	/**
+	 * The name of a command in the output of {@code help}, e.g.
+	 * {@code /gamerule} in {@code /gamerule <rule> [<value>]}. Servers don't
+	 * separate the lines of the help output over RCON, so names are found
+	 * anywhere in the text, e.g. {@code /reload/save-all [flush]}.
+	 */
+	private static final Pattern HELP_COMMAND = Pattern.compile("/([a-z0-9_:.-]+)");
+
+	private final CommandSender sender;
+	private final BufferedReader in;
+	private final PrintStream out;
+	private final Path historyFile;
+	private final List<String> history = new ArrayList<>();
+	private Set<String> commandNames;
+	private boolean timing;
+
+	/**
+	 * Creates a prompt
+	 *
+	 * @param sender
+	 *            the session commands are sent over, e.g. a
+	 *            {@link org.fnet.mcrconapi.ResilientRConClient}
+	 * @param in
+	 *            the input lines
+	 * @param out
+	 *            where the prompt and outputs are printed
+	 * @param historyFile
+	 *            the file the history is loaded from and appended to, null to
+	 *            not keep it between sessions
+	 */
+	public Repl(CommandSender sender, BufferedReader in, PrintStream out, Path historyFile) {
+		this.sender = Objects.requireNonNull(sender, "sender");
+		this.in = Objects.requireNonNull(in, "in");
+		this.out = Objects.requireNonNull(out, "out");
+		this.historyFile = historyFile;
+	}
+
+	/**
+	 * Reads and executes lines until {@code :quit} or the end of the input
+	 *
+	 * @throws IOException
+	 *             if the input can't be read
+	 */
+	public void run() throws IOException {
+		loadHistory();
+		out.println("Connected. Type :help for help, :quit to exit.");
+		while (true) {
+			out.print("> ");
+			out.flush();
+			String line = in.readLine();
+			if (line == null) {
+				out.println();
+				return;
+			}
+			if (line.endsWith("\t")) {
+				printCompletions(line.trim());
+				continue;
+			}
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			if (line.startsWith("!")) {
+				line = recall(line);
+				if (line == null)
+					continue;
+				out.println(line);
+			}
+			if (line.startsWith(":")) {
+				if (!executeMeta(line))
+					return;
+				continue;
+			}
+			addHistory(line);
+			send(line);
+		}
+	}
+
+	private void send(String command) {
+		long start = System.nanoTime();
+		try {
+			out.println(sender.sendCommand(command));
+		} catch (InvalidPacketException e) {
+			out.println("Error: " + e.getMessage());
+		} catch (AuthenticationException e) {
+			out.println("Authentication failed: " + e.getMessage());
+		} catch (IOException e) {
+			out.println("Connection lost, the command may not have been executed (" + e.getMessage() + ")");
+		}
+		if (timing)
+			out.printf(Locale.ROOT, "(%.3f ms)%n", (System.nanoTime() - start) / 1e6);
+	}
+
+	/**
+	 * @return false if the prompt should exit
+	 */
+	private boolean executeMeta(String line) {
+		String[] parts = line.split("\\s+", 2);
+		switch (parts[0]) {
+		case ":quit":
+		case ":exit":
+			return false;
+		case ":timing":
+			timing = !timing;
+			out.println("Timing " + (timing ? "on" : "off"));
+			break;
+		case ":history":
+			for (int i = 0; i < history.size(); i++)
+				out.println((i + 1) + "  " + history.get(i));
+			break;
+		case ":refresh":
+			commandNames = null;
+			out.println(getCommandNames().size() + " commands known");
+			break;
+		case ":help":
+			printHelp();
+			break;
+		default:
+			out.println("Unknown command " + parts[0] + ", type :help for help");
+		}
+		return true;
+	}
+
+	private void printHelp() {
+		out.println(":help           Show this help");
+		out.println(":timing         Toggle printing how long each command took");
+		out.println(":history        Show the previous commands");
+		out.println("!!, !<number>   Send the last or a numbered command again");
+		out.println(":refresh        Fetch the command list used for completion again");
+		out.println(":quit, :exit    Close the session");
+		out.println("End a line with a tab to list the commands it can be completed to.");
+	}
+
+	/**
+	 * Resolves {@code !!} and {@code !<number>}
+	 *
+	 * @return the recalled line, null if there is none
+	 */
+	private String recall(String line) {
+		if (history.isEmpty()) {
+			out.println("History is empty");
+			return null;
+		}
+		if (line.equals("!!"))
+			return history.get(history.size() - 1);
+		try {
+			int index = Integer.parseInt(line.substring(1));
+			if (index >= 1 && index <= history.size())
+				return history.get(index - 1);
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		out.println("No such history entry: " + line);
+		return null;
+	}
+
+	private void printCompletions(String prefix) {
+		List<String> completions = complete(prefix);
+		if (completions.isEmpty())
+			out.println("No completions");
+		else if (completions.size() == 1)
+			out.println(completions.get(0));
+		else
+			out.println(String.join("  ", completions));
+	}
+
+	/**
+	 * Returns the command names that start with the line typed so far. The
+	 * command list is fetched with {@code help} on first use.
+	 *
+	 * @param prefix
+	 *            the line typed so far
+	 * @return the command names, sorted, or an empty list if the line already
+	 *         contains arguments
+	 */
+	public List<String> complete(String prefix) {
+		String word = prefix.startsWith("/") ? prefix.substring(1) : prefix;
+		if (word.indexOf(' ') != -1)
+			return Collections.emptyList();
+		List<String> completions = new ArrayList<>();
+		for (String name : getCommandNames())
+			if (name.startsWith(word.toLowerCase(Locale.ROOT)))
+				completions.add(name);
+		return completions;
+	}
+
+	private Set<String> getCommandNames() {
+		if (commandNames == null) {
+			commandNames = new TreeSet<>();
+			try {
+				commandNames.addAll(parseHelp(sender.sendCommand("help")));
+			} catch (AuthenticationException | IOException e) {
+				// Nothing to complete, try again after :refresh
+			}
+		}
+		return commandNames;
+	}
+
+	/**
+	 * Extracts the command names from the output of {@code help}
+	 *
+	 * @param help
+	 *            the output
+	 * @return the names, without the slash
+	 */
+	public static Set<String> parseHelp(String help) {
+		Set<String> names = new TreeSet<>();
+		Matcher matcher = HELP_COMMAND.matcher(help);
+		while (matcher.find())
+			names.add(matcher.group(1));
+		return names;
+	}
+
+	private void addHistory(String line) {
+		if (!history.isEmpty() && history.get(history.size() - 1).equals(line))
+			return;
+		history.add(line);
+		if (history.size() > MAX_HISTORY)
+			history.remove(0);
+		if (historyFile == null)
+			return;
+		try {
+			Files.write(historyFile, Collections.singletonList(line), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			// The history is a convenience, the session goes on without it
+		}
+	}
+
+	private void loadHistory() {
+		if (historyFile == null || !Files.isRegularFile(historyFile))
+			return;
+		try {
+			List<String> lines = Files.readAllLines(historyFile, StandardCharsets.UTF_8);
+			history.addAll(lines.subList(Math.max(0, lines.size() - MAX_HISTORY), lines.size()));
+			if (lines.size() > MAX_HISTORY)
+				Files.write(historyFile, history, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			// Start with an empty history
+		}
+	}
+
+	/**
+	 * Returns the lines entered so far, including those loaded from the
+	 * history file
+	 *
+	 * @return the history, oldest first
+	 */
+	public List<String> getHistory() {
+		return Collections.unmodifiableList(history);
+	}
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.fnet.mcrconapi.AuthenticationException;
+import org.fnet.mcrconapi.InvalidPacketException;
+import org.fnet.mcrconapi.RConClient;
+import org.fnet.mcrconapi.metrics.Histogram;
+
+/**
+ * Sends the commands of a script over one authenticated connection, one
+ * command per line. Empty lines and lines starting with {@code #} are skipped.
+ * <p>
+ * The output of each command is written as plain text or as a JSON object per
+ * line, in the order of the script. A command that the server rejects is
+ * reported as failed and the script goes on, a broken connection stops it.
+ * With a pipeline depth above one, that many commands are sent before waiting
+ * for the first response. Each of them fails after the read timeout of the
+ * client, like the commands that are sent one by one.
+ */
+public class ScriptRunner {
+
+	private final RConClient client;
+	private final PrintStream out;
+	private final boolean json;
+	private final int pipelineDepth;
+
+	/**
+	 * Creates a runner
+	 *
+	 * @param client
+	 *            the authenticated client
+	 * @param out
+	 *            where the outputs of the commands are written to
+	 * @param json
+	 *            true to write one JSON object per command instead of plain
+	 *            text
+	 * @param pipelineDepth
+	 *            the number of commands that are sent without waiting for
+	 *            their responses, one to send them one by one
+	 */
+	public ScriptRunner(RConClient client, PrintStream out, boolean json, int pipelineDepth) {
+		if (pipelineDepth < 1)
+			throw new IllegalArgumentException("Pipeline depth must be at least one");
+		this.client = Objects.requireNonNull(client, "client");
+		this.out = Objects.requireNonNull(out, "out");
+		this.json = json;
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	/**
+	 * Runs a script until its end or until the connection breaks
+	 *
+	 * @param script
+	 *            the commands, one per line
+	 * @return the summary of the run
+	 * @throws IOException
+	 *             if the script can't be read
+	 */
+	public Summary run(BufferedReader script) throws IOException {
+		Summary summary = new Summary();
+		ArrayDeque<Execution> inFlight = new ArrayDeque<>();
+		long start = System.nanoTime();
+		String line;
+		int lineNumber = 0;
+		while (!summary.aborted && (line = script.readLine()) != null) {
+			lineNumber++;
+			String command = line.trim();
+			if (command.isEmpty() || command.startsWith("#"))
+				continue;
+			if (pipelineDepth == 1) {
+				report(execute(lineNumber, command), summary);
+				continue;
+			}
+			int timeout = client.getReadTimeout();
+			inFlight.add(new Execution(lineNumber, command, timeout > 0
+					? client.sendCommandAsync(command, timeout, TimeUnit.MILLISECONDS)
+					: client.sendCommandAsync(command)));
+			if (inFlight.size() >= pipelineDepth)
+				report(inFlight.poll().await(), summary);
+		}
+		while (!inFlight.isEmpty())
+			report(inFlight.poll().await(), summary);
+		summary.elapsedNanos = System.nanoTime() - start;
+		out.flush();
+		return summary;
+	}
+
+	private Execution execute(int lineNumber, String command) {
+		Execution execution = new Execution(lineNumber, command, null);
+		try {
+			execution.output = client.sendCommand(command);
+		} catch (AuthenticationException | IOException | RuntimeException e) {
+			execution.error = e;
+		}
+		execution.latencyNanos = System.nanoTime() - execution.start;
+		return execution;
+	}
+
+	private void report(Execution execution, Summary summary) {
+		summary.latencies.record(execution.latencyNanos);
+		if (execution.error != null) {
+			summary.failed++;
+			// Only a rejected command leaves the connection usable
+			if (!(execution.error instanceof InvalidPacketException))
+				summary.aborted = true;
+		}
+		if (json)
+			out.println(toJson(execution));
+		else if (execution.error == null)
+			out.println(execution.output);
+		else
+			out.println("Line " + execution.lineNumber + " failed: " + describe(execution.error));
+	}
+
+	private static String toJson(Execution execution) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"line\":").append(execution.lineNumber).append(",\"command\":");
+		appendJsonString(builder, execution.command);
+		builder.append(",\"status\":\"").append(execution.error == null ? "ok" : "error").append('"');
+		if (execution.error == null) {
+			builder.append(",\"output\":");
+			appendJsonString(builder, execution.output);
+		} else {
+			builder.append(",\"error\":");
+			appendJsonString(builder, describe(execution.error));
+		}
+		builder.append(",\"micros\":").append(TimeUnit.NANOSECONDS.toMicros(execution.latencyNanos)).append('}');
+		return builder.toString();
+	}
+
+	static void appendJsonString(StringBuilder builder, String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					builder.append(String.format("\\u%04x", (int) c));
+				else
+					builder.append(c);
+			}
+		}
+		builder.append('"');
+	}
+
+	private static String describe(Throwable error) {
+		return error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+	}
+
+	private static final class Execution {
+
+		private final int lineNumber;
+		private final String command;
+		private final CompletableFuture<String> pending;
+		private final long start = System.nanoTime();
+		private long latencyNanos;
+		private String output;
+		private Throwable error;
+
+		private Execution(int lineNumber, String command, CompletableFuture<String> pending) {
+			this.lineNumber = lineNumber;
+			this.command = command;
+			this.pending = pending;
+		}
+
+		/**
+		 * Waits for the response of a pipelined command. The latency includes
+		 * the time the response waited for earlier ones to be reported.
+		 */
+		private Execution await() {
+			try {
+				output = pending.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				error = e;
+			} catch (ExecutionException e) {
+				error = e.getCause();
+			}
+			latencyNanos = System.nanoTime() - start;
+			return this;
+		}
+
+	}
+
+	/**
+	 * The result of a script run
+	 */
+	public static final class Summary {
+
+		private final Histogram latencies = new Histogram();
+		private int failed;
+		private boolean aborted;
+		private long elapsedNanos;
+
+		private Summary() {
+		}
+
+		/**
+		 * Returns the number of commands that were sent
+		 *
+		 * @return the number of commands
+		 */
+		public long getCommandCount() {
+			return latencies.getCount();
+		}
+
+		/**
+		 * Returns the number of commands that failed
+		 *
+		 * @return the number of failed commands
+		 */
+		public int getFailedCount() {
+			return failed;
+		}
+
+		/**
+		 * Returns if the script was stopped because the connection broke
+		 *
+		 * @return true if not all commands were sent
+		 */
+		public boolean isAborted() {
+			return aborted;
+		}
+
+		/**
+		 * Returns how long the whole script took
+		 *
+		 * @return the duration in nanoseconds
+		 */
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		/**
+		 * Returns the latencies of the commands
+		 *
+		 * @return the histogram of latencies in nanoseconds
+		 */
+		public Histogram.Snapshot getLatencies() {
+			return latencies.snapshot();
+		}
+
+		@Override
+		public String toString() {
+			Histogram.Snapshot snapshot = latencies.snapshot();
+			double seconds = elapsedNanos / 1e9;
+			return String.format(Locale.ROOT,
+					"%d commands, %d failed%s in %.3f s (%.1f commands/s), latency p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+					snapshot.getCount(), failed, aborted ? ", aborted" : "", seconds,
+					seconds > 0 ? snapshot.getCount() / seconds : 0.0, millis(snapshot.getValueAtPercentile(50)),
+					millis(snapshot.getValueAtPercentile(99)), millis(snapshot.getMax()));
+		}
+
+		private static double millis(long nanos) {
+			return nanos / 1e6;
+		}
+
+	}
+
+}
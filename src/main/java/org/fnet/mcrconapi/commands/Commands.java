@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+import java.util.Objects;
+
+/**
+ * Typed versions of common vanilla commands. Each of them builds the command
+ * string once and parses the output into a structured result without regular
+ * expressions:
+ *
+ * <pre>
+ * PlayerList players = Commands.list().execute(client);
+ * long time = Commands.timeQuery(TimeQueryCommand.Query.DAYTIME).execute(client);
+ * int kills = Commands.scoreboardPlayersGet("Notch", "Kills").execute(client);
+ * </pre>
+ *
+ * The parsers expect the English messages of the vanilla server. Outputs that
+ * don't match, like error messages, cause an
+ * {@link UnexpectedOutputException}.
+ */
+public final class Commands {
+
+	private Commands() {
+	}
+
+	/**
+	 * Returns {@code list}
+	 *
+	 * @return the command
+	 */
+	public static ListCommand list() {
+		return ListCommand.NAMES;
+	}
+
+	/**
+	 * Returns {@code list uuids}, which also gets the UUIDs of the players
+	 *
+	 * @return the command
+	 */
+	public static ListCommand listUuids() {
+		return ListCommand.UUIDS;
+	}
+
+	/**
+	 * Returns {@code time query <query>}
+	 *
+	 * @param query
+	 *            what to query
+	 * @return the command
+	 */
+	public static TimeQueryCommand timeQuery(TimeQueryCommand.Query query) {
+		return TimeQueryCommand.COMMANDS.get(Objects.requireNonNull(query, "query"));
+	}
+
+	/**
+	 * Returns {@code worldborder get}
+	 *
+	 * @return the command
+	 */
+	public static WorldBorderGetCommand worldBorderGet() {
+		return WorldBorderGetCommand.INSTANCE;
+	}
+
+	/**
+	 * Returns {@code scoreboard players get <target> <objective>}
+	 *
+	 * @param target
+	 *            the player name, UUID or a selector that matches one entity
+	 * @param objective
+	 *            the name of the objective
+	 * @return the command
+	 */
+	public static ScoreboardGetCommand scoreboardPlayersGet(String target, String objective) {
+		return new ScoreboardGetCommand(target, objective);
+	}
+
+	/**
+	 * Returns {@code data get entity <target>}
+	 *
+	 * @param target
+	 *            the player name, UUID or a selector that matches one entity
+	 * @return the command
+	 */
+	public static DataGetCommand dataGetEntity(String target) {
+		return new DataGetCommand("entity", Outputs.requireArgument(target, "Target"), null, Double.NaN);
+	}
+
+	/**
+	 * Returns {@code data get block <x> <y> <z>}
+	 *
+	 * @param x
+	 *            the x coordinate of the block
+	 * @param y
+	 *            the y coordinate of the block
+	 * @param z
+	 *            the z coordinate of the block
+	 * @return the command
+	 */
+	public static DataGetCommand dataGetBlock(int x, int y, int z) {
+		return new DataGetCommand("block", x + " " + y + " " + z, null, Double.NaN);
+	}
+
+	/**
+	 * Returns {@code data get storage <id>}
+	 *
+	 * @param id
+	 *            the resource location of the storage, e.g.
+	 *            {@code minecraft:settings}
+	 * @return the command
+	 */
+	public static DataGetCommand dataGetStorage(String id) {
+		return new DataGetCommand("storage", Outputs.requireWord(id, "Storage"), null, Double.NaN);
+	}
+
+}
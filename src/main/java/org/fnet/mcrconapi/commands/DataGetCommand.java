@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+import java.util.Locale;
+
+/**
+ * {@code data get entity|block|storage}. Instances are immutable, a path and
+ * scale are added with {@link #path(String)} and {@link #scale(double)}:
+ *
+ * <pre>
+ * DataGetCommand health = Commands.dataGetEntity("Notch").path("Health");
+ * String value = health.execute(client); // "20.0f"
+ * </pre>
+ *
+ * The output is the requested data in SNBT, e.g. {@code [1.5d, 64.0d, -3.2d]}
+ * for {@code Pos}, or the scaled integer if a scale is set.
+ *
+ * @see Commands#dataGetEntity(String)
+ * @see Commands#dataGetBlock(int, int, int)
+ * @see Commands#dataGetStorage(String)
+ */
+public final class DataGetCommand implements TypedCommand<String> {
+
+	private static final String DATA = " has the following ";
+	private static final String SCALED = " after scale factor of ";
+	private static final String IS = " is ";
+
+	private final String targetType;
+	private final String target;
+	private final String path;
+	private final double scale;
+	private final String command;
+
+	DataGetCommand(String targetType, String target, String path, double scale) {
+		this.targetType = targetType;
+		this.target = target;
+		this.path = path;
+		this.scale = scale;
+		StringBuilder builder = new StringBuilder("data get ").append(targetType).append(' ').append(target);
+		if (path != null) {
+			builder.append(' ').append(path);
+			if (!Double.isNaN(scale))
+				builder.append(' ').append(formatScale(scale));
+		}
+		command = builder.toString();
+	}
+
+	private static String formatScale(double scale) {
+		if (scale == Math.rint(scale) && Math.abs(scale) < 1e15)
+			return Long.toString((long) scale);
+		return String.format(Locale.ROOT, "%s", scale);
+	}
+
+	/**
+	 * Returns a command that only gets the value at an NBT path
+	 *
+	 * @param path
+	 *            the path, e.g. {@code Inventory[0].id}
+	 * @return the new command
+	 */
+	public DataGetCommand path(String path) {
+		return new DataGetCommand(targetType, target, Outputs.requireWord(path, "Path"), scale);
+	}
+
+	/**
+	 * Returns a command that multiplies the numeric value at the path with a
+	 * factor and gets it as an integer
+	 *
+	 * @param scale
+	 *            the factor
+	 * @return the new command
+	 * @throws IllegalStateException
+	 *             if no path was set
+	 */
+	public DataGetCommand scale(double scale) {
+		if (path == null)
+			throw new IllegalStateException("A scale needs a path");
+		if (Double.isNaN(scale) || Double.isInfinite(scale))
+			throw new IllegalArgumentException("Scale must be finite");
+		return new DataGetCommand(targetType, target, path, scale);
+	}
+
+	/**
+	 * Returns the NBT path
+	 *
+	 * @return the path, null if all data is requested
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public String toCommandString() {
+		return command;
+	}
+
+	/**
+	 * Extracts the data from the output
+	 *
+	 * @return the data in SNBT, or the scaled value if a scale is set
+	 */
+	@Override
+	public String parse(String output) throws UnexpectedOutputException {
+		if (!Double.isNaN(scale)) {
+			// Health on Notch after scale factor of 10 is 200
+			int position = Outputs.find(output, 0, SCALED);
+			position = Outputs.find(output, position, IS);
+			Outputs.endOfNumber(output, position, false);
+			return output.substring(position);
+		}
+		// Notch has the following entity data: 20.0f
+		// Storage minecraft:test has the following contents: {a: 1}
+		int position = output.indexOf(DATA);
+		if (position == -1)
+			throw new UnexpectedOutputException("Expected \"" + DATA.trim() + "\"", output);
+		return output.substring(Outputs.find(output, position, ": "));
+	}
+
+	@Override
+	public String toString() {
+		return command;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@code list} and {@code list uuids}. Understands the output of current
+ * servers, {@code There are 2 of a max of 20 players online: Notch, jeb_},
+ * and the one of servers before 1.13, {@code There are 2/20 players online:}
+ * followed by the names.
+ *
+ * @see Commands#list()
+ * @see Commands#listUuids()
+ */
+public final class ListCommand implements TypedCommand<PlayerList> {
+
+	static final ListCommand NAMES = new ListCommand(false);
+	static final ListCommand UUIDS = new ListCommand(true);
+
+	private static final String PREFIX = "There are ";
+	private static final String MAX = " of a max of ";
+
+	private final boolean uuids;
+
+	private ListCommand(boolean uuids) {
+		this.uuids = uuids;
+	}
+
+	@Override
+	public String toCommandString() {
+		return uuids ? "list uuids" : "list";
+	}
+
+	@Override
+	public PlayerList parse(String output) throws UnexpectedOutputException {
+		int position = Outputs.expect(output, 0, PREFIX);
+		int end = Outputs.endOfNumber(output, position, false);
+		int onlineCount = Outputs.parseInt(output, position, end);
+		if (output.startsWith(MAX, end))
+			position = end + MAX.length();
+		else
+			position = Outputs.expect(output, end, "/");
+		end = Outputs.endOfNumber(output, position, false);
+		int maxPlayers = Outputs.parseInt(output, position, end);
+		position = Outputs.find(output, end, ":");
+
+		List<String> players = new ArrayList<>(onlineCount);
+		List<UUID> playerUuids = uuids ? new ArrayList<>(onlineCount) : Collections.<UUID>emptyList();
+		// Names are separated by ", " on current servers and by line breaks
+		// on old ones, and never contain either
+		int start = position;
+		for (int i = position; i <= output.length(); i++) {
+			if (i < output.length() && output.charAt(i) != ',' && output.charAt(i) != '\n')
+				continue;
+			int nameStart = start, nameEnd = i;
+			while (nameStart < nameEnd && Character.isWhitespace(output.charAt(nameStart)))
+				nameStart++;
+			while (nameEnd > nameStart && Character.isWhitespace(output.charAt(nameEnd - 1)))
+				nameEnd--;
+			if (nameStart < nameEnd)
+				addPlayer(output, nameStart, nameEnd, players, playerUuids);
+			start = i + 1;
+		}
+		return new PlayerList(onlineCount, maxPlayers, players, playerUuids);
+	}
+
+	private void addPlayer(String output, int start, int end, List<String> players, List<UUID> playerUuids)
+			throws UnexpectedOutputException {
+		if (!uuids) {
+			players.add(output.substring(start, end));
+			return;
+		}
+		// Notch (069a79f4-44e9-4726-a5be-fca90e38aaf5)
+		int open = output.lastIndexOf(" (", end);
+		if (open < start || output.charAt(end - 1) != ')')
+			throw new UnexpectedOutputException("Expected a name followed by a UUID in parentheses", output);
+		players.add(output.substring(start, open));
+		try {
+			playerUuids.add(UUID.fromString(output.substring(open + 2, end - 1)));
+		} catch (IllegalArgumentException e) {
+			throw new UnexpectedOutputException("Invalid UUID", output);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toCommandString();
+	}
+
+}
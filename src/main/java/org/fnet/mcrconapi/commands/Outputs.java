@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+/**
+ * Helpers for parsing command outputs with {@link String#startsWith} and
+ * {@link String#indexOf} instead of regular expressions
+ */
+final class Outputs {
+
+	private Outputs() {
+	}
+
+	/**
+	 * Returns the index after a marker that has to follow at a position
+	 */
+	static int expect(String output, int position, String marker) throws UnexpectedOutputException {
+		if (!output.startsWith(marker, position))
+			throw new UnexpectedOutputException("Expected \"" + marker + "\" at " + position, output);
+		return position + marker.length();
+	}
+
+	/**
+	 * Returns the index after the first occurrence of a marker at or after a
+	 * position
+	 */
+	static int find(String output, int position, String marker) throws UnexpectedOutputException {
+		int index = output.indexOf(marker, position);
+		if (index == -1)
+			throw new UnexpectedOutputException("Expected \"" + marker + "\"", output);
+		return index + marker.length();
+	}
+
+	/**
+	 * Returns the end of the number that starts at a position: an optional
+	 * minus sign followed by digits and, if {@code decimal} is set, a dot and
+	 * more digits
+	 */
+	static int endOfNumber(String output, int position, boolean decimal) throws UnexpectedOutputException {
+		int index = position;
+		if (index < output.length() && output.charAt(index) == '-')
+			index++;
+		int digitsStart = index;
+		while (index < output.length() && isDigit(output.charAt(index)))
+			index++;
+		if (decimal && index < output.length() && output.charAt(index) == '.') {
+			index++;
+			while (index < output.length() && isDigit(output.charAt(index)))
+				index++;
+		}
+		if (index == digitsStart)
+			throw new UnexpectedOutputException("Expected a number at " + position, output);
+		return index;
+	}
+
+	/**
+	 * Parses the integer between two indices without creating a substring
+	 */
+	static long parseLong(String output, int start, int end) throws UnexpectedOutputException {
+		boolean negative = output.charAt(start) == '-';
+		// Accumulate negatively like Long.parseLong, so that Long.MIN_VALUE
+		// fits as well
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		for (int i = negative ? start + 1 : start; i < end; i++) {
+			int digit = output.charAt(i) - '0';
+			if (value < (limit + digit) / 10)
+				throw new UnexpectedOutputException("Number out of range at " + start, output);
+			value = value * 10 - digit;
+		}
+		return negative ? value : -value;
+	}
+
+	static int parseInt(String output, int start, int end) throws UnexpectedOutputException {
+		long value = parseLong(output, start, end);
+		if (value != (int) value)
+			throw new UnexpectedOutputException("Number out of range at " + start, output);
+		return (int) value;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Checks an argument that is inserted into a command
+	 */
+	static String requireArgument(String argument, String name) {
+		if (argument == null || argument.isEmpty())
+			throw new IllegalArgumentException(name + " must not be empty");
+		for (int i = 0; i < argument.length(); i++)
+			if (argument.charAt(i) == '\n' || argument.charAt(i) == '\r')
+				throw new IllegalArgumentException(name + " must not contain line breaks");
+		return argument;
+	}
+
+	/**
+	 * Checks a name that must be a single word, like an objective
+	 */
+	static String requireWord(String word, String name) {
+		requireArgument(word, name);
+		for (int i = 0; i < word.length(); i++)
+			if (Character.isWhitespace(word.charAt(i)))
+				throw new IllegalArgumentException(name + " must not contain whitespace");
+		return word;
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The parsed output of {@code list}
+ *
+ * @see Commands#list()
+ */
+public final class PlayerList {
+
+	private final int onlineCount;
+	private final int maxPlayers;
+	private final List<String> players;
+	private final List<UUID> uuids;
+
+	PlayerList(int onlineCount, int maxPlayers, List<String> players, List<UUID> uuids) {
+		this.onlineCount = onlineCount;
+		this.maxPlayers = maxPlayers;
+		this.players = Collections.unmodifiableList(players);
+		this.uuids = Collections.unmodifiableList(uuids);
+	}
+
+	/**
+	 * Returns the number of players online
+	 *
+	 * @return the player count
+	 */
+	public int getOnlineCount() {
+		return onlineCount;
+	}
+
+	/**
+	 * Returns the maximum number of players
+	 *
+	 * @return the player limit of the server
+	 */
+	public int getMaxPlayers() {
+		return maxPlayers;
+	}
+
+	/**
+	 * Returns the names of the players online. Servers may leave out some of
+	 * them if many players are online, so the size of the list can be smaller
+	 * than {@link #getOnlineCount()}.
+	 *
+	 * @return the player names in the order of the output
+	 */
+	public List<String> getPlayers() {
+		return players;
+	}
+
+	/**
+	 * Returns the UUIDs of the players online if they were requested with
+	 * {@link Commands#listUuids()}
+	 *
+	 * @return the UUIDs in the order of {@link #getPlayers()}, empty for
+	 *         {@link Commands#list()}
+	 */
+	public List<UUID> getUuids() {
+		return uuids;
+	}
+
+	@Override
+	public String toString() {
+		return "PlayerList[onlineCount=" + onlineCount + ", maxPlayers=" + maxPlayers + ", players=" + players + "]";
+	}
+
+}
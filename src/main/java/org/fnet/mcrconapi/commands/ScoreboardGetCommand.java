@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+/**
+ * {@code scoreboard players get <target> <objective>}, whose output is
+ * {@code Notch has 12 [Kills]}. If the score is not set, the server answers
+ * with an error message and parsing fails with an
+ * {@link UnexpectedOutputException}.
+ *
+ * @see Commands#scoreboardPlayersGet(String, String)
+ */
+public final class ScoreboardGetCommand implements TypedCommand<Integer> {
+
+	private static final String HAS = " has ";
+
+	private final String target;
+	private final String objective;
+	private final String command;
+
+	ScoreboardGetCommand(String target, String objective) {
+		this.target = Outputs.requireWord(target, "Target");
+		this.objective = Outputs.requireWord(objective, "Objective");
+		command = "scoreboard players get " + target + " " + objective;
+	}
+
+	/**
+	 * Returns the player or entity whose score is queried
+	 *
+	 * @return the target, a name, UUID or selector
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * Returns the objective whose score is queried
+	 *
+	 * @return the name of the objective
+	 */
+	public String getObjective() {
+		return objective;
+	}
+
+	@Override
+	public String toCommandString() {
+		return command;
+	}
+
+	/**
+	 * Parses the score
+	 *
+	 * @return the score
+	 */
+	@Override
+	public Integer parse(String output) throws UnexpectedOutputException {
+		// The target is a single word, a selector is replaced by the name
+		int position = Outputs.find(output, 0, HAS);
+		int end = Outputs.endOfNumber(output, position, false);
+		Outputs.expect(output, end, " [");
+		return Outputs.parseInt(output, position, end);
+	}
+
+	@Override
+	public String toString() {
+		return command;
+	}
+
+}
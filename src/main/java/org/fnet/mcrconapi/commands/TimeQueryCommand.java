@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@code time query daytime}, {@code gametime} and {@code day}, whose output
+ * is {@code The time is 6000}
+ *
+ * @see Commands#timeQuery(TimeQueryCommand.Query)
+ */
+public final class TimeQueryCommand implements TypedCommand<Long> {
+
+	/**
+	 * What to query
+	 */
+	public enum Query {
+		/**
+		 * The time of the current day in ticks, from 0 to 23999
+		 */
+		DAYTIME,
+		/**
+		 * The age of the world in ticks
+		 */
+		GAMETIME,
+		/**
+		 * The number of in-game days that passed
+		 */
+		DAY
+	}
+
+	static final Map<Query, TimeQueryCommand> COMMANDS = new EnumMap<>(Query.class);
+
+	static {
+		for (Query query : Query.values())
+			COMMANDS.put(query, new TimeQueryCommand(query));
+	}
+
+	private static final String PREFIX = "The time is ";
+
+	private final Query query;
+	private final String command;
+
+	private TimeQueryCommand(Query query) {
+		this.query = query;
+		command = "time query " + query.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns what is queried
+	 *
+	 * @return the query
+	 */
+	public Query getQuery() {
+		return query;
+	}
+
+	@Override
+	public String toCommandString() {
+		return command;
+	}
+
+	@Override
+	public Long parse(String output) throws UnexpectedOutputException {
+		int position = Outputs.expect(output, 0, PREFIX);
+		return Outputs.parseLong(output, position, Outputs.endOfNumber(output, position, false));
+	}
+
+	@Override
+	public String toString() {
+		return command;
+	}
+
+}
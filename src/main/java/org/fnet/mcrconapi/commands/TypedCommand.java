@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.fnet.mcrconapi.AuthenticationException;
+import org.fnet.mcrconapi.CommandSender;
+import org.fnet.mcrconapi.RConClient;
+
+/**
+ * A command together with a parser for its output. Instances are immutable
+ * and can be reused, e.g. by a poller that sends the same command every
+ * second.
+ *
+ * @param <T>
+ *            the type of the parsed output
+ * @see Commands
+ */
+public interface TypedCommand<T> {
+
+	/**
+	 * Returns the command as it is sent to the server
+	 *
+	 * @return the command, without a leading slash
+	 */
+	String toCommandString();
+
+	/**
+	 * Parses the output of the command
+	 *
+	 * @param output
+	 *            the output the server sent
+	 * @return the parsed output
+	 * @throws UnexpectedOutputException
+	 *             if the output has an unexpected format, e.g. because the
+	 *             server sent an error message
+	 */
+	T parse(String output) throws UnexpectedOutputException;
+
+	/**
+	 * Sends the command and parses its output
+	 *
+	 * @param sender
+	 *            the client to send the command with
+	 * @return the parsed output
+	 * @throws UnexpectedOutputException
+	 *             if the output has an unexpected format
+	 * @throws AuthenticationException
+	 *             if the client is not authenticated
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	default T execute(CommandSender sender) throws AuthenticationException, IOException {
+		return parse(sender.sendCommand(toCommandString()));
+	}
+
+	/**
+	 * Sends the command without blocking and parses its output
+	 *
+	 * @param client
+	 *            the client to send the command with
+	 * @return a future that is completed with the parsed output, or
+	 *         exceptionally with an {@link UnexpectedOutputException} or the
+	 *         failure of {@link RConClient#sendCommandAsync(String)}
+	 */
+	default CompletableFuture<T> executeAsync(RConClient client) {
+		return client.sendCommandAsync(toCommandString()).thenApply(output -> {
+			try {
+				return parse(output);
+			} catch (UnexpectedOutputException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+import java.io.IOException;
+
+/**
+ * Thrown if the output of a {@link TypedCommand} can't be parsed, usually
+ * because the server answered with an error message like
+ * {@code No player was found} instead
+ */
+public class UnexpectedOutputException extends IOException {
+
+	private static final long serialVersionUID = 2217659437094015023L;
+	private final String output;
+
+	/**
+	 * Constructs a new UnexpectedOutputException
+	 *
+	 * @param message
+	 *            the message to show
+	 * @param output
+	 *            the output that couldn't be parsed
+	 */
+	public UnexpectedOutputException(String message, String output) {
+		super(message + ": " + output);
+		this.output = output;
+	}
+
+	/**
+	 * Returns the output that couldn't be parsed
+	 *
+	 * @return the output of the command
+	 */
+	public String getOutput() {
+		return output;
+	}
+
+}
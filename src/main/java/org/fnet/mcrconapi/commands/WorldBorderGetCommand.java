@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.commands;
+
+/**
+ * {@code worldborder get}, whose output is
+ * {@code The world border is currently 59999968 blocks wide}
+ *
+ * @see Commands#worldBorderGet()
+ */
+public final class WorldBorderGetCommand implements TypedCommand<Double> {
+
+	static final WorldBorderGetCommand INSTANCE = new WorldBorderGetCommand();
+
+	private static final String PREFIX = "The world border is currently ";
+
+	private WorldBorderGetCommand() {
+	}
+
+	@Override
+	public String toCommandString() {
+		return "worldborder get";
+	}
+
+	/**
+	 * Parses the width of the world border
+	 *
+	 * @return the width in blocks
+	 */
+	@Override
+	public Double parse(String output) throws UnexpectedOutputException {
+		int position = Outputs.expect(output, 0, PREFIX);
+		int end = Outputs.endOfNumber(output, position, true);
+		return Double.parseDouble(output.substring(position, end));
+	}
+
+	@Override
+	public String toString() {
+		return toCommandString();
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values with log-linear buckets, like
+ * an HDR histogram: every power of two is split into
+ * {@value Histogram#SUB_BUCKETS} buckets, so a recorded value is reported
+ * with a relative error of at most about 3 %, from single units up to
+ * {@link Long#MAX_VALUE}. Recording is a few atomic increments, no locks are
+ * taken and nothing is allocated.
+ */
+public final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	/**
+	 * The number of buckets every power of two is split into
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+	private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+	/**
+	 * Records a value, negative values are recorded as zero
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(bucketIndex(value));
+		count.increment();
+		sum.add(value);
+		min.accumulate(value);
+		max.accumulate(value);
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	static long highestValueInBucket(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long lowest = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Takes a snapshot of the recorded values. Values recorded while the
+	 * snapshot is taken may or may not be included.
+	 * 
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot() {
+		long[] bucketCounts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			bucketCounts[i] = counts.get(i);
+			total += bucketCounts[i];
+		}
+		return new Snapshot(bucketCounts, total, sum.sum(), total == 0 ? 0 : min.get(), total == 0 ? 0 : max.get());
+	}
+
+	/**
+	 * Returns the number of recorded values
+	 * 
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * An immutable copy of the state of a {@link Histogram}
+	 */
+	public static final class Snapshot {
+
+		private final long[] bucketCounts;
+		private final long count;
+		private final long sum;
+		private final long min;
+		private final long max;
+
+		private Snapshot(long[] bucketCounts, long count, long sum, long min, long max) {
+			this.bucketCounts = bucketCounts;
+			this.count = count;
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+		}
+
+		/**
+		 * Returns the number of values
+		 * 
+		 * @return the count
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the smallest value
+		 * 
+		 * @return the minimum or zero if there are no values
+		 */
+		public long getMin() {
+			return min;
+		}
+
+		/**
+		 * Returns the largest value
+		 * 
+		 * @return the maximum or zero if there are no values
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Returns the arithmetic mean of the values
+		 * 
+		 * @return the mean or zero if there are no values
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * Returns a value that the given share of all values are lower than or
+		 * equal to, within the precision of the buckets
+		 * 
+		 * @param percentile
+		 *            the percentile between 0 and 100, e.g. 99.9
+		 * @return the value at the percentile or zero if there are no values
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (percentile < 0 || percentile > 100)
+				throw new IllegalArgumentException("Percentile must be between 0 and 100");
+			if (count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < bucketCounts.length; i++) {
+				seen += bucketCounts[i];
+				if (seen >= rank)
+					return Math.max(min, Math.min(max, highestValueInBucket(i)));
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot[count=" + count + ", min=" + min + ", mean=" + getMean() + ", p50="
+					+ getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99) + ", max=" + max + "]";
+		}
+
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.metrics;
+
+import org.fnet.mcrconapi.AuthenticationException;
+import org.fnet.mcrconapi.InvalidPacketException;
+import org.fnet.mcrconapi.MalformedPacketException;
+
+/**
+ * Receives measurements from an {@link org.fnet.mcrconapi.RConClient}. All
+ * methods do nothing by default, so implementations only override what they
+ * are interested in. Methods are called on the threads doing the I/O and must
+ * not block.
+ * <p>
+ * Clients use {@link RConMetrics#NOOP} unless told otherwise and skip taking
+ * timestamps for it, so disabled metrics cost next to nothing.
+ * {@link RConMetricsRecorder} is a lock-free implementation that keeps
+ * histograms and counters.
+ */
+public interface RConMetrics {
+
+	/**
+	 * Metrics that discard everything
+	 */
+	RConMetrics NOOP = new RConMetrics() {
+	};
+
+	/**
+	 * Called once a connection is established
+	 * 
+	 * @param durationNanos
+	 *            how long connecting took
+	 */
+	default void connected(long durationNanos) {
+	}
+
+	/**
+	 * Called once the server accepted the password
+	 * 
+	 * @param durationNanos
+	 *            how long the authentication took
+	 */
+	default void authenticated(long durationNanos) {
+	}
+
+	/**
+	 * Called when the server rejected the password or the client was not
+	 * authenticated
+	 * 
+	 * @param exception
+	 *            the failure
+	 */
+	default void authenticationFailed(AuthenticationException exception) {
+	}
+
+	/**
+	 * Called once the complete output of a command arrived
+	 * 
+	 * @param roundTripNanos
+	 *            the time from sending the command until the last fragment
+	 *            arrived
+	 * @param fragments
+	 *            the number of packets the output was split into
+	 */
+	default void commandCompleted(long roundTripNanos, int fragments) {
+	}
+
+	/**
+	 * Called when a command failed for another reason than an invalid
+	 * response, e.g. because the connection broke or it timed out
+	 * 
+	 * @param cause
+	 *            the failure
+	 */
+	default void commandFailed(Throwable cause) {
+	}
+
+	/**
+	 * Called when the server answered with a well-formed but unexpected
+	 * packet, e.g. for an unknown command
+	 * 
+	 * @param exception
+	 *            the failure
+	 */
+	default void invalidPacket(InvalidPacketException exception) {
+	}
+
+	/**
+	 * Called when bytes from the server could not be decoded as a packet
+	 * 
+	 * @param exception
+	 *            the failure
+	 */
+	default void malformedPacket(MalformedPacketException exception) {
+	}
+
+	/**
+	 * Called after bytes were written to the connection
+	 * 
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	default void bytesSent(long bytes) {
+	}
+
+	/**
+	 * Called after bytes were read from the connection
+	 * 
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	default void bytesReceived(long bytes) {
+	}
+
+	/**
+	 * Called when a {@link org.fnet.mcrconapi.CommandScheduler} queues a
+	 * command
+	 * 
+	 * @param queueDepth
+	 *            the number of queued commands, including this one
+	 */
+	default void commandQueued(int queueDepth) {
+	}
+
+	/**
+	 * Called when a {@link org.fnet.mcrconapi.CommandScheduler} sends a queued
+	 * command
+	 * 
+	 * @param waitNanos
+	 *            how long the command was queued
+	 */
+	default void commandDequeued(long waitNanos) {
+	}
+
+}
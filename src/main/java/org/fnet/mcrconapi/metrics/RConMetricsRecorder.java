@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.fnet.mcrconapi.AuthenticationException;
+import org.fnet.mcrconapi.InvalidPacketException;
+import org.fnet.mcrconapi.MalformedPacketException;
+
+/**
+ * {@link RConMetrics} that keep lock-free {@link Histogram histograms} and
+ * counters. One recorder can be shared by any number of clients, e.g. by
+ * passing it to {@link org.fnet.mcrconapi.RConClientOptions.Builder#metrics}.
+ * The state can be read with {@link RConMetricsRecorder#snapshot()} or over
+ * JMX after {@link RConMetricsRecorder#registerMBean(String)}.
+ */
+public class RConMetricsRecorder implements RConMetrics, RConMetricsRecorderMXBean {
+
+	private final Histogram connectDurations = new Histogram();
+	private final Histogram authenticationDurations = new Histogram();
+	private final Histogram commandLatencies = new Histogram();
+	private final Histogram fragmentsPerResponse = new Histogram();
+	private final Histogram queueDepths = new Histogram();
+	private final Histogram queueWaits = new Histogram();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder failedCommands = new LongAdder();
+	private final LongAdder malformedPackets = new LongAdder();
+	private final LongAdder invalidPackets = new LongAdder();
+	private final LongAdder authenticationFailures = new LongAdder();
+
+	@Override
+	public void connected(long durationNanos) {
+		connectDurations.record(durationNanos);
+	}
+
+	@Override
+	public void authenticated(long durationNanos) {
+		authenticationDurations.record(durationNanos);
+	}
+
+	@Override
+	public void authenticationFailed(AuthenticationException exception) {
+		authenticationFailures.increment();
+	}
+
+	@Override
+	public void commandCompleted(long roundTripNanos, int fragments) {
+		commandLatencies.record(roundTripNanos);
+		fragmentsPerResponse.record(fragments);
+	}
+
+	@Override
+	public void commandFailed(Throwable cause) {
+		failedCommands.increment();
+	}
+
+	@Override
+	public void invalidPacket(InvalidPacketException exception) {
+		invalidPackets.increment();
+	}
+
+	@Override
+	public void malformedPacket(MalformedPacketException exception) {
+		malformedPackets.increment();
+	}
+
+	@Override
+	public void bytesSent(long bytes) {
+		bytesSent.add(bytes);
+	}
+
+	@Override
+	public void bytesReceived(long bytes) {
+		bytesReceived.add(bytes);
+	}
+
+	@Override
+	public void commandQueued(int queueDepth) {
+		queueDepths.record(queueDepth);
+	}
+
+	@Override
+	public void commandDequeued(long waitNanos) {
+		queueWaits.record(waitNanos);
+	}
+
+	/**
+	 * Takes a snapshot of all metrics
+	 * 
+	 * @return the snapshot
+	 */
+	public RConMetricsSnapshot snapshot() {
+		return new RConMetricsSnapshot(connectDurations.snapshot(), authenticationDurations.snapshot(),
+				commandLatencies.snapshot(), fragmentsPerResponse.snapshot(), queueDepths.snapshot(),
+				queueWaits.snapshot(), bytesSent.sum(), bytesReceived.sum(), failedCommands.sum(),
+				malformedPackets.sum(), invalidPackets.sum(), authenticationFailures.sum());
+	}
+
+	/**
+	 * Registers this recorder at the platform MBean server as
+	 * {@code org.fnet.mcrconapi:type=RConMetrics,name=<name>}
+	 * 
+	 * @param name
+	 *            the name that tells recorders apart, e.g. the server name
+	 * @return the name the recorder was registered with
+	 * @throws JMException
+	 *             if the name is invalid or already taken
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName("org.fnet.mcrconapi:type=RConMetrics,name=" + ObjectName.quote(name));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public long getConnectCount() {
+		return connectDurations.getCount();
+	}
+
+	@Override
+	public double getConnectMeanMicros() {
+		return connectDurations.snapshot().getMean() / 1000;
+	}
+
+	@Override
+	public long getAuthenticationCount() {
+		return authenticationDurations.getCount();
+	}
+
+	@Override
+	public double getAuthenticationMeanMicros() {
+		return authenticationDurations.snapshot().getMean() / 1000;
+	}
+
+	@Override
+	public long getCommandCount() {
+		return commandLatencies.getCount();
+	}
+
+	@Override
+	public double getCommandMeanMicros() {
+		return commandLatencies.snapshot().getMean() / 1000;
+	}
+
+	@Override
+	public long getCommandP50Micros() {
+		return micros(commandLatencies.snapshot().getValueAtPercentile(50));
+	}
+
+	@Override
+	public long getCommandP99Micros() {
+		return micros(commandLatencies.snapshot().getValueAtPercentile(99));
+	}
+
+	@Override
+	public long getCommandP999Micros() {
+		return micros(commandLatencies.snapshot().getValueAtPercentile(99.9));
+	}
+
+	@Override
+	public long getCommandMaxMicros() {
+		return micros(commandLatencies.snapshot().getMax());
+	}
+
+	@Override
+	public double getFragmentsPerResponseMean() {
+		return fragmentsPerResponse.snapshot().getMean();
+	}
+
+	@Override
+	public long getQueueDepthMax() {
+		return queueDepths.snapshot().getMax();
+	}
+
+	@Override
+	public double getQueueWaitMeanMicros() {
+		return queueWaits.snapshot().getMean() / 1000;
+	}
+
+	@Override
+	public long getQueueWaitP99Micros() {
+		return micros(queueWaits.snapshot().getValueAtPercentile(99));
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	@Override
+	public long getFailedCommands() {
+		return failedCommands.sum();
+	}
+
+	@Override
+	public long getMalformedPackets() {
+		return malformedPackets.sum();
+	}
+
+	@Override
+	public long getInvalidPackets() {
+		return invalidPackets.sum();
+	}
+
+	@Override
+	public long getAuthenticationFailures() {
+		return authenticationFailures.sum();
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.metrics;
+
+/**
+ * The JMX view of an {@link RConMetricsRecorder}. Durations are in
+ * microseconds.
+ * 
+ * @see RConMetricsRecorder#registerMBean(String)
+ */
+public interface RConMetricsRecorderMXBean {
+
+	long getConnectCount();
+
+	double getConnectMeanMicros();
+
+	long getAuthenticationCount();
+
+	double getAuthenticationMeanMicros();
+
+	long getCommandCount();
+
+	double getCommandMeanMicros();
+
+	long getCommandP50Micros();
+
+	long getCommandP99Micros();
+
+	long getCommandP999Micros();
+
+	long getCommandMaxMicros();
+
+	double getFragmentsPerResponseMean();
+
+	long getQueueDepthMax();
+
+	double getQueueWaitMeanMicros();
+
+	long getQueueWaitP99Micros();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	long getFailedCommands();
+
+	long getMalformedPackets();
+
+	long getInvalidPackets();
+
+	long getAuthenticationFailures();
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.metrics;
+
+/**
+ * An immutable copy of the state of an {@link RConMetricsRecorder}. Durations
+ * are in nanoseconds.
+ */
+public final class RConMetricsSnapshot {
+
+	private final Histogram.Snapshot connectDurations;
+	private final Histogram.Snapshot authenticationDurations;
+	private final Histogram.Snapshot commandLatencies;
+	private final Histogram.Snapshot fragmentsPerResponse;
+	private final Histogram.Snapshot queueDepths;
+	private final Histogram.Snapshot queueWaits;
+	private final long bytesSent;
+	private final long bytesReceived;
+	private final long failedCommands;
+	private final long malformedPackets;
+	private final long invalidPackets;
+	private final long authenticationFailures;
+
+	RConMetricsSnapshot(Histogram.Snapshot connectDurations, Histogram.Snapshot authenticationDurations,
+			Histogram.Snapshot commandLatencies, Histogram.Snapshot fragmentsPerResponse,
+			Histogram.Snapshot queueDepths, Histogram.Snapshot queueWaits, long bytesSent, long bytesReceived,
+			long failedCommands, long malformedPackets, long invalidPackets, long authenticationFailures) {
+		this.connectDurations = connectDurations;
+		this.authenticationDurations = authenticationDurations;
+		this.commandLatencies = commandLatencies;
+		this.fragmentsPerResponse = fragmentsPerResponse;
+		this.queueDepths = queueDepths;
+		this.queueWaits = queueWaits;
+		this.bytesSent = bytesSent;
+		this.bytesReceived = bytesReceived;
+		this.failedCommands = failedCommands;
+		this.malformedPackets = malformedPackets;
+		this.invalidPackets = invalidPackets;
+		this.authenticationFailures = authenticationFailures;
+	}
+
+	/**
+	 * Returns the durations of established connections
+	 * 
+	 * @return the histogram of connect durations
+	 */
+	public Histogram.Snapshot getConnectDurations() {
+		return connectDurations;
+	}
+
+	/**
+	 * Returns the durations of successful authentications
+	 * 
+	 * @return the histogram of authentication durations
+	 */
+	public Histogram.Snapshot getAuthenticationDurations() {
+		return authenticationDurations;
+	}
+
+	/**
+	 * Returns the round-trip times of completed commands
+	 * 
+	 * @return the histogram of command latencies
+	 */
+	public Histogram.Snapshot getCommandLatencies() {
+		return commandLatencies;
+	}
+
+	/**
+	 * Returns the number of packets the outputs of completed commands were
+	 * split into
+	 * 
+	 * @return the histogram of fragments per response
+	 */
+	public Histogram.Snapshot getFragmentsPerResponse() {
+		return fragmentsPerResponse;
+	}
+
+	/**
+	 * Returns the depths of {@link org.fnet.mcrconapi.CommandScheduler} queues
+	 * whenever a command was queued
+	 * 
+	 * @return the histogram of queue depths
+	 */
+	public Histogram.Snapshot getQueueDepths() {
+		return queueDepths;
+	}
+
+	/**
+	 * Returns how long commands waited in
+	 * {@link org.fnet.mcrconapi.CommandScheduler} queues before they were sent
+	 * 
+	 * @return the histogram of queue wait times
+	 */
+	public Histogram.Snapshot getQueueWaits() {
+		return queueWaits;
+	}
+
+	/**
+	 * Returns the number of bytes written to connections
+	 * 
+	 * @return the bytes sent
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Returns the number of bytes read from connections
+	 * 
+	 * @return the bytes received
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Returns the number of commands that failed because of the connection or
+	 * a timeout
+	 * 
+	 * @return the number of failed commands
+	 */
+	public long getFailedCommands() {
+		return failedCommands;
+	}
+
+	/**
+	 * Returns the number of {@link org.fnet.mcrconapi.MalformedPacketException
+	 * MalformedPacketExceptions}
+	 * 
+	 * @return the number of malformed packets
+	 */
+	public long getMalformedPackets() {
+		return malformedPackets;
+	}
+
+	/**
+	 * Returns the number of {@link org.fnet.mcrconapi.InvalidPacketException
+	 * InvalidPacketExceptions}
+	 * 
+	 * @return the number of invalid packets
+	 */
+	public long getInvalidPackets() {
+		return invalidPackets;
+	}
+
+	/**
+	 * Returns the number of
+	 * {@link org.fnet.mcrconapi.AuthenticationException
+	 * AuthenticationExceptions}
+	 * 
+	 * @return the number of authentication failures
+	 */
+	public long getAuthenticationFailures() {
+		return authenticationFailures;
+	}
+
+	@Override
+	public String toString() {
+		return "RConMetricsSnapshot[connect=" + connectDurations + ", authentication=" + authenticationDurations
+				+ ", commands=" + commandLatencies + ", fragments=" + fragmentsPerResponse + ", queueDepths="
+				+ queueDepths + ", queueWaits=" + queueWaits + ", bytesSent=" + bytesSent + ", bytesReceived="
+				+ bytesReceived + ", failedCommands=" + failedCommands + ", malformedPackets=" + malformedPackets
+				+ ", invalidPackets=" + invalidPackets + ", authenticationFailures=" + authenticationFailures + "]";
+	}
+
+}
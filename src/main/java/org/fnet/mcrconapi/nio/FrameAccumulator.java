@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers the bytes of frames that arrive in pieces on a non-blocking
+ * channel. Bytes that were read are decoded directly from the read buffer, and
+ * only the rest of an incomplete frame is copied, into a heap buffer that
+ * exists as long as such a rest is left.
+ * <p>
+ * Not thread-safe, an accumulator is used by the selector thread of its
+ * channel only.
+ */
+public final class FrameAccumulator {
+
+	/**
+	 * Decodes as many complete frames from a buffer as it wants to, advancing
+	 * the position of the buffer past them
+	 */
+	@FunctionalInterface
+	public interface Decoder {
+
+		/**
+		 * Decodes frames from the buffer
+		 *
+		 * @param buffer
+		 *            the bytes, in read mode
+		 * @throws IOException
+		 *             if a frame is malformed
+		 */
+		void decode(ByteBuffer buffer) throws IOException;
+
+	}
+
+	private final int initialCapacity;
+	/**
+	 * Bytes of a frame that is not complete yet, in write mode. Null as long
+	 * as no partial frame is buffered.
+	 */
+	private ByteBuffer partial;
+
+	/**
+	 * Creates an accumulator
+	 *
+	 * @param initialCapacity
+	 *            the minimum size of the buffer allocated for a partial frame
+	 */
+	public FrameAccumulator(int initialCapacity) {
+		this.initialCapacity = initialCapacity;
+	}
+
+	/**
+	 * Decodes bytes that were just read, after those buffered before. Bytes
+	 * the decoder leaves are buffered.
+	 *
+	 * @param input
+	 *            the bytes that were read, in read mode. They are consumed
+	 *            completely.
+	 * @param decoder
+	 *            the decoder
+	 * @throws IOException
+	 *             if the decoder fails
+	 */
+	public void accept(ByteBuffer input, Decoder decoder) throws IOException {
+		if (partial == null) {
+			decoder.decode(input);
+			if (input.hasRemaining()) {
+				partial = ByteBuffer.allocate(Math.max(input.remaining() * 2, initialCapacity));
+				partial.put(input);
+			}
+		} else {
+			if (partial.remaining() < input.remaining()) {
+				ByteBuffer grown = ByteBuffer.allocate((partial.position() + input.remaining()) * 2);
+				partial.flip();
+				partial = grown.put(partial);
+			}
+			partial.put(input);
+			decodeBuffered(decoder);
+		}
+	}
+
+	/**
+	 * Decodes the buffered bytes again, e.g. after the decoder stopped early
+	 *
+	 * @param decoder
+	 *            the decoder
+	 * @throws IOException
+	 *             if the decoder fails
+	 */
+	public void decodeBuffered(Decoder decoder) throws IOException {
+		if (partial == null)
+			return;
+		partial.flip();
+		decoder.decode(partial);
+		partial.compact();
+		if (partial.position() == 0)
+			partial = null;
+	}
+
+	/**
+	 * Returns if bytes are buffered
+	 *
+	 * @return true if the accumulator holds the beginning of a frame
+	 */
+	public boolean hasBuffered() {
+		return partial != null;
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A thread running a selector loop, shared by the client event loop and the
+ * server. Tasks that touch the selector or selection keys are queued and run
+ * on this thread. Every registered channel has a {@link Handler} as its
+ * attachment.
+ * <p>
+ * An exception thrown by a handler only aborts its own channel, and one thrown
+ * by a task is passed to the uncaught exception handler of the thread, so the
+ * loop keeps serving the other channels. Tasks that are still queued when the
+ * loop stops run before the remaining channels are aborted, so nothing waits
+ * for them forever. Tasks submitted after that are rejected.
+ * <p>
+ * This class is an implementation detail of
+ * {@link org.fnet.mcrconapi.RConEventLoop} and
+ * {@link org.fnet.mcrconapi.server.RConServer}.
+ */
+public final class SelectorLoop implements Runnable {
+
+	/**
+	 * Handles the selected keys of a channel
+	 */
+	@FunctionalInterface
+	public interface Handler {
+
+		/**
+		 * Handles a selected key on the selector thread
+		 *
+		 * @param key
+		 *            the selected key
+		 * @param readBuffer
+		 *            a buffer to read into, shared by all channels of the loop
+		 */
+		void handle(SelectionKey key, ByteBuffer readBuffer);
+
+		/**
+		 * Called on the selector thread if the channel can't be handled
+		 * anymore, because the loop stopped or {@link #handle} threw an
+		 * exception. The channel is closed afterwards.
+		 *
+		 * @param cause
+		 *            the reason
+		 */
+		default void abort(IOException cause) {
+		}
+
+	}
+
+	private final Selector selector;
+	private final Thread thread;
+	private final ByteBuffer readBuffer;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private volatile boolean running = true;
+	private volatile boolean stopped;
+
+	/**
+	 * Opens the selector of a new loop. The loop runs once
+	 * {@link #start()} is called.
+	 *
+	 * @param name
+	 *            the name of the thread
+	 * @param readBufferSize
+	 *            the size of the direct buffer handlers read into
+	 * @throws IOException
+	 *             if the selector can't be opened
+	 */
+	public SelectorLoop(String name, int readBufferSize) throws IOException {
+		selector = Selector.open();
+		readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the thread of the loop
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Runs a task on the selector thread
+	 *
+	 * @param task
+	 *            the task to run
+	 * @throws RejectedExecutionException
+	 *             if the loop has stopped
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		// The loop runs the tasks it finds after setting stopped, so the task
+		// is only rejected if it was added too late for that
+		if (stopped && tasks.remove(task))
+			throw new RejectedExecutionException("Selector loop stopped");
+		selector.wakeup();
+	}
+
+	/**
+	 * Returns if the calling thread is this selector thread
+	 *
+	 * @return true if called from the selector loop
+	 */
+	public boolean isCurrentThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Registers a channel with the selector. Has to be called on the selector
+	 * thread.
+	 *
+	 * @param channel
+	 *            the channel, in non-blocking mode
+	 * @param ops
+	 *            the initial interest set
+	 * @param handler
+	 *            handles the selected keys of the channel
+	 * @return the selection key
+	 * @throws ClosedChannelException
+	 *             if the channel is closed
+	 */
+	public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+		return channel.register(selector, ops, handler);
+	}
+
+	@Override
+	public void run() {
+		IOException cause = new IOException("Selector loop stopped");
+		try {
+			while (running) {
+				selector.select();
+				runTasks();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						((Handler) key.attachment()).handle(key, readBuffer);
+					} catch (RuntimeException e) {
+						abort(key, new IOException("Handler failed", e));
+					}
+				}
+			}
+		} catch (IOException e) {
+			// The selector itself failed, channels are aborted below
+			cause = e;
+		} finally {
+			stopped = true;
+			runTasks();
+			for (SelectionKey key : selector.keys())
+				abort(key, cause);
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Ignore: nothing left to clean up
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+			}
+		}
+	}
+
+	private static void abort(SelectionKey key, IOException cause) {
+		key.cancel();
+		try {
+			((Handler) key.attachment()).abort(cause);
+		} catch (RuntimeException e) {
+			cause.addSuppressed(e);
+		}
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Ignore: the channel is given up anyway
+		}
+	}
+
+	/**
+	 * Stops the loop and waits for its thread to end, unless called from the
+	 * loop itself
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+		if (Thread.currentThread() != thread && thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
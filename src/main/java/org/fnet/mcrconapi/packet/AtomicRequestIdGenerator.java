@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.packet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free {@link RequestIdGenerator} that counts up from one. After
+ * {@link Integer#MAX_VALUE} it wraps around to one again, so it only ever
+ * returns positive IDs.
+ */
+public final class AtomicRequestIdGenerator implements RequestIdGenerator {
+
+	private final AtomicInteger counter;
+
+	/**
+	 * Creates a generator whose first ID is one
+	 */
+	public AtomicRequestIdGenerator() {
+		this(1);
+	}
+
+	/**
+	 * Creates a generator starting at the given ID
+	 * 
+	 * @param firstID
+	 *            the first ID to return, must be positive
+	 */
+	public AtomicRequestIdGenerator(int firstID) {
+		if (firstID < 1)
+			throw new IllegalArgumentException("First ID must be positive");
+		counter = new AtomicInteger(firstID);
+	}
+
+	@Override
+	public int nextRequestID() {
+		return counter.getAndUpdate(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+	}
+
+}
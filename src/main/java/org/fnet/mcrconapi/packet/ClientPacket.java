@@ -6,6 +6,8 @@ package org.fnet.mcrconapi.packet;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.fnet.mcrconapi.MalformedPacketException;
 
@@ -18,28 +20,37 @@ public class ClientPacket extends Packet {
 		super(type, payload);
 	}
 
+	public ClientPacket(PacketType type, String payload, Charset charset) {
+		super(type, payload, charset);
+	}
+
 	public ClientPacket(InputStream stream) throws IOException {
 		super(stream);
 	}
 
+	private ClientPacket() {
+	}
+
+	/**
+	 * Decodes a packet from a buffer that may contain only part of a frame,
+	 * e.g. data read from a non-blocking channel. If the buffer holds a
+	 * complete frame, it is consumed and returned, otherwise the buffer is left
+	 * untouched.
+	 *
+	 * @param buffer
+	 *            the buffer to decode from, in read mode
+	 * @return the decoded packet or null if the frame is not complete yet
+	 * @throws MalformedPacketException
+	 *             if the frame is malformed
+	 */
+	public static ClientPacket decode(ByteBuffer buffer) throws MalformedPacketException {
+		ClientPacket packet = new ClientPacket();
+		return FrameDecoder.decodeFrame(packet, buffer, true) ? packet : null;
+	}
+
 	@Override
 	protected void readFrom(InputStream stream) throws IOException {
-		length = getByteBuffer(stream, 4).getInt();
-		if (length < 10)
-			throw new MalformedPacketException("Packet length lower than ten (minimum package size)");
-		requestID = getByteBuffer(stream, 4).getInt();
-		type = PacketType.fromID(getByteBuffer(stream, 4).getInt(), true);
-		if (type == null)
-			throw new MalformedPacketException("Packet type is none of known packet types");
-		int payloadLength = length - (Integer.BYTES * 2 + Byte.BYTES * 2);
-		payload = new byte[payloadLength];
-		for (int i = 0; i < payloadLength; i++) {
-			payload[i] = (byte) stream.read();
-		}
-		if (stream.read() != 0)
-			throw new MalformedPacketException("Payload terminator byte not zero");
-		if (stream.read() != 0)
-			throw new MalformedPacketException("Packet terminator byte not zero");
+		FrameDecoder.readFrame(this, stream, true);
 	}
 
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.packet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.fnet.mcrconapi.MalformedPacketException;
+
+/**
+ * Decodes raw RCON frames from an {@link InputStream} or a {@link ByteBuffer}.
+ * When reading from a stream, the 12-byte header and the payload are each read
+ * with a single bulk read that blocks until the requested number of bytes is
+ * available, instead of reading byte by byte. Buffers are decoded
+ * incrementally: a frame is only consumed once all of its bytes arrived.
+ */
+final class FrameDecoder {
+
+	/**
+	 * Size of the length, request ID and type fields
+	 */
+	static final int HEADER_LENGTH = Integer.BYTES * 3;
+
+	/**
+	 * Size of the fixed part that is counted by the length field (request ID,
+	 * type and the two terminator bytes)
+	 */
+	static final int MIN_PACKET_LENGTH = Integer.BYTES * 2 + Byte.BYTES * 2;
+
+	/**
+	 * Upper bound for the length field, so that a corrupt length doesn't make
+	 * the caller allocate or buffer unbounded amounts of data
+	 */
+	static final int MAX_PACKET_LENGTH = 1 << 20;
+
+	private FrameDecoder() {
+	}
+
+	/**
+	 * Reads one frame from the stream into the given packet
+	 *
+	 * @param packet
+	 *            the packet to fill
+	 * @param stream
+	 *            the stream to read from
+	 * @param clientside
+	 *            wether the frame was sent by the client
+	 * @throws IOException
+	 *             if an I/O error occurs, the stream ends prematurely or the
+	 *             frame is malformed
+	 */
+	static void readFrame(Packet packet, InputStream stream, boolean clientside) throws IOException {
+		byte[] header = new byte[HEADER_LENGTH];
+		readFully(stream, header, 0, HEADER_LENGTH);
+		int length = getIntLE(header, 0);
+		if (length < MIN_PACKET_LENGTH)
+			throw new MalformedPacketException("Packet length lower than ten (minimum package size)");
+		if (length > MAX_PACKET_LENGTH)
+			throw new MalformedPacketException("Packet length exceeds " + MAX_PACKET_LENGTH + " bytes");
+		PacketType type = PacketType.fromID(getIntLE(header, 8), clientside);
+		if (type == null)
+			throw new MalformedPacketException("Packet type is none of known packet types");
+		byte[] payload = new byte[length - MIN_PACKET_LENGTH];
+		readFully(stream, payload, 0, payload.length);
+		readFully(stream, header, 0, 2);
+		if (header[0] != 0)
+			throw new MalformedPacketException("Payload terminator byte not zero");
+		if (header[1] != 0)
+			throw new MalformedPacketException("Packet terminator byte not zero");
+		packet.length = length;
+		packet.requestID = getIntLE(header, 4);
+		packet.type = type;
+		packet.payload = payload;
+	}
+
+	/**
+	 * Decodes one frame from the buffer into the given packet if the buffer
+	 * contains the complete frame. The position of the buffer is advanced past
+	 * the frame on success and left untouched otherwise.
+	 *
+	 * @param packet
+	 *            the packet to fill
+	 * @param buffer
+	 *            the buffer to decode from, in read mode
+	 * @param clientside
+	 *            wether the frame was sent by the client
+	 * @return true if a frame was decoded, false if more bytes are needed
+	 * @throws MalformedPacketException
+	 *             if the frame is malformed
+	 */
+	static boolean decodeFrame(Packet packet, ByteBuffer buffer, boolean clientside)
+			throws MalformedPacketException {
+		int position = buffer.position();
+		if (buffer.remaining() < Integer.BYTES)
+			return false;
+		int length = getIntLE(buffer, position);
+		if (length < MIN_PACKET_LENGTH)
+			throw new MalformedPacketException("Packet length lower than ten (minimum package size)");
+		if (length > MAX_PACKET_LENGTH)
+			throw new MalformedPacketException("Packet length exceeds " + MAX_PACKET_LENGTH + " bytes");
+		if (buffer.remaining() < Integer.BYTES + length)
+			return false;
+		PacketType type = PacketType.fromID(getIntLE(buffer, position + 8), clientside);
+		if (type == null)
+			throw new MalformedPacketException("Packet type is none of known packet types");
+		int terminator = position + Integer.BYTES + length - 2;
+		if (buffer.get(terminator) != 0)
+			throw new MalformedPacketException("Payload terminator byte not zero");
+		if (buffer.get(terminator + 1) != 0)
+			throw new MalformedPacketException("Packet terminator byte not zero");
+		byte[] payload = new byte[length - MIN_PACKET_LENGTH];
+		buffer.position(position + HEADER_LENGTH);
+		buffer.get(payload);
+		buffer.position(terminator + 2);
+		packet.length = length;
+		packet.requestID = getIntLE(buffer, position + 4);
+		packet.type = type;
+		packet.payload = payload;
+		return true;
+	}
+
+	/**
+	 * Reads exactly {@code length} bytes from the stream, blocking until they
+	 * are available
+	 *
+	 * @param stream
+	 *            the stream to read from
+	 * @param buffer
+	 *            the destination array
+	 * @param offset
+	 *            the start offset in the destination array
+	 * @param length
+	 *            the number of bytes to read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws EOFException
+	 *             if the stream ends before all bytes were read
+	 */
+	static void readFully(InputStream stream, byte[] buffer, int offset, int length) throws IOException {
+		while (length > 0) {
+			int read = stream.read(buffer, offset, length);
+			if (read == -1)
+				throw new EOFException();
+			offset += read;
+			length -= read;
+		}
+	}
+
+	static int getIntLE(ByteBuffer buffer, int index) {
+		return (buffer.get(index) & 0xFF) | (buffer.get(index + 1) & 0xFF) << 8
+				| (buffer.get(index + 2) & 0xFF) << 16 | (buffer.get(index + 3) & 0xFF) << 24;
+	}
+
+	static int getIntLE(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8 | (buffer[offset + 2] & 0xFF) << 16
+				| (buffer[offset + 3] & 0xFF) << 24;
+	}
+
+}
@@ -5,7 +5,6 @@
 package org.fnet.mcrconapi.packet;
 
 import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -21,26 +20,45 @@ public abstract class Packet {
 
 	public static final int REQUEST_ID_AUTH_FAIL = -1;
 
-	private static final Charset PAYLOAD_CHARSET = StandardCharsets.US_ASCII;
+	/**
+	 * The charset of payloads if none is given. Modern servers send their
+	 * output UTF-8 encoded.
+	 */
+	public static final Charset DEFAULT_PAYLOAD_CHARSET = StandardCharsets.UTF_8;
 
-	private static int requestIdCounter = 1;
+	private static final RequestIdGenerator DEFAULT_REQUEST_IDS = new AtomicRequestIdGenerator();
 
 	protected int length;
 	protected int requestID;
 	protected PacketType type;
 	protected byte[] payload;
+	/**
+	 * The payload decoded with the default charset, decoded on first use
+	 */
+	private String payloadString;
 
 	protected static ByteBuffer getByteBuffer(InputStream stream, int length) throws IOException {
 		byte[] lengthBytes = new byte[length];
-		if (stream.read(lengthBytes) == -1)
-			throw new EOFException();
+		FrameDecoder.readFully(stream, lengthBytes, 0, length);
 		return ByteBuffer.wrap(lengthBytes).order(ByteOrder.LITTLE_ENDIAN);
 	}
 
+	/**
+	 * Returns a new request ID from the JVM-wide generator that is used for
+	 * new packets. Connections use their own {@link RequestIdGenerator}
+	 * instead, so that they don't contend on a shared counter.
+	 * 
+	 * @return the next request ID
+	 */
+	public static int nextRequestID() {
+		return DEFAULT_REQUEST_IDS.nextRequestID();
+	}
+
 	/**
 	 * Generates a new packet with a type and a payload given. The length and
 	 * requestID are automatically generated where the requestID is a value that
-	 * is incremented on every package generation and the length is calculated.
+	 * is incremented on every package generation (see
+	 * {@link Packet#nextRequestID()}) and the length is calculated.
 	 * 
 	 * @param type
 	 *            the packet type
@@ -50,12 +68,33 @@ public abstract class Packet {
 	 * @see Packet#getRequestID()
 	 */
 	public Packet(PacketType type, String payload) {
+		this(type, payload, DEFAULT_PAYLOAD_CHARSET);
+	}
+
+	/**
+	 * Same as {@link Packet#Packet(PacketType, String)}, but encodes the
+	 * payload with the given charset
+	 * 
+	 * @param type
+	 *            the packet type
+	 * @param payload
+	 *            the payload
+	 * @param charset
+	 *            the charset to encode the payload with
+	 */
+	public Packet(PacketType type, String payload, Charset charset) {
 		this.type = type;
-		this.requestID = requestIdCounter++;
-		this.payload = payload.getBytes(PAYLOAD_CHARSET);
+		this.requestID = nextRequestID();
+		this.payload = payload.getBytes(charset);
 		this.length = Integer.BYTES * 2 + this.payload.length + Byte.BYTES * 2;
 	}
 
+	/**
+	 * Creates an empty packet that is filled by a decoder
+	 */
+	protected Packet() {
+	}
+
 	/**
 	 * Reads a package from an {@link InputStream}
 	 * 
@@ -117,7 +156,7 @@ public abstract class Packet {
 	}
 
 	/**
-	 * Gets the raw payload that is an US_ASCII encoded string
+	 * Gets the raw payload, a string encoded with the charset of the connection
 	 * 
 	 * @return the payload as {@code byte[]}
 	 */
@@ -126,23 +165,44 @@ public abstract class Packet {
 	}
 
 	/**
-	 * Gets the payload as string
+	 * Gets the payload as string, decoded with
+	 * {@link Packet#DEFAULT_PAYLOAD_CHARSET}. The string is decoded once and
+	 * cached.
 	 * 
 	 * @return the payload as {@link String}
 	 */
 	public String getPayloadAsString() {
-		return new String(payload, PAYLOAD_CHARSET);
+		String payloadString = this.payloadString;
+		if (payloadString == null)
+			this.payloadString = payloadString = new String(payload, DEFAULT_PAYLOAD_CHARSET);
+		return payloadString;
+	}
+
+	/**
+	 * Gets the payload as string, decoded with the given charset. Note that a
+	 * multi-byte character can be split across the fragments of a response,
+	 * use a {@link PayloadDecoder} to decode the fragments of one response.
+	 * 
+	 * @param charset
+	 *            the charset of the payload
+	 * @return the payload as {@link String}
+	 */
+	public String getPayloadAsString(Charset charset) {
+		if (charset.equals(DEFAULT_PAYLOAD_CHARSET))
+			return getPayloadAsString();
+		return new String(payload, charset);
 	}
 
 	/**
-	 * Set the payload {@code String} directly as {@code byte[]} encoded in
-	 * {@code US_ASCII}
+	 * Set the payload {@code String} directly as {@code byte[]}, encoded in the
+	 * charset of the connection
 	 * 
 	 * @param payload
-	 *            the payload, encoded in ASCII
+	 *            the encoded payload
 	 */
 	public void setPayload(byte[] payload) {
 		this.payload = payload;
+		this.payloadString = null;
 		this.length = Integer.BYTES * 2 + payload.length + Byte.BYTES * 2;
 	}
 
@@ -153,7 +213,19 @@ public abstract class Packet {
 	 *            the payload {@link String}
 	 */
 	public void setPayload(String payload) {
-		setPayload(payload.getBytes(PAYLOAD_CHARSET));
+		setPayload(payload.getBytes(DEFAULT_PAYLOAD_CHARSET));
+	}
+
+	/**
+	 * Set the payload {@link String}, encoded with the given charset
+	 * 
+	 * @param payload
+	 *            the payload {@link String}
+	 * @param charset
+	 *            the charset to encode the payload with
+	 */
+	public void setPayload(String payload, Charset charset) {
+		setPayload(payload.getBytes(charset));
 	}
 
 	/**
@@ -186,6 +258,27 @@ public abstract class Packet {
 		outputStream.write(buffer.array());
 	}
 
+	/**
+	 * Writes the data of the packet in a raw format to the given
+	 * {@link ByteBuffer}, e.g. to send it over a channel
+	 * 
+	 * @see <a href="http://wiki.vg/RCON">http://wiki.vg/RCON</a>
+	 * @param buffer
+	 *            the buffer to write the {@link Packet} to, it needs at least
+	 *            {@code getLength() + 4} bytes remaining
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(length);
+		buffer.putInt(requestID);
+		buffer.putInt(type.getId());
+		buffer.put(payload);
+		buffer.put((byte) 0);
+		buffer.put((byte) 0);
+		buffer.order(order);
+	}
+
 	@Override
 	public String toString() {
 		return String.format("Packet[length=\"%s\",requestId=\"%s\",type=\"%s\" (id: %s), payload=\"%s\"]", length,
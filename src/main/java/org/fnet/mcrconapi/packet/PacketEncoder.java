@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.packet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes packets straight from their fields into a buffer, without creating
+ * a {@link Packet} or an intermediate {@code byte[]} for the payload. The
+ * encoder reuses its buffers, so once they have grown to the largest payload
+ * seen, encoding doesn't allocate at all.
+ * <p>
+ * An encoder is not thread-safe, it is meant to be owned by a connection and
+ * used while holding its write lock.
+ */
+public final class PacketEncoder {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final CharsetEncoder charsetEncoder;
+	private char[] chars = new char[INITIAL_CAPACITY];
+	private CharBuffer charBuffer = CharBuffer.wrap(chars);
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Creates an encoder for {@link Packet#DEFAULT_PAYLOAD_CHARSET}
+	 */
+	public PacketEncoder() {
+		this(Packet.DEFAULT_PAYLOAD_CHARSET);
+	}
+
+	/**
+	 * Creates an encoder for the given payload charset. Characters that can't
+	 * be encoded are replaced.
+	 *
+	 * @param charset
+	 *            the charset of the payloads
+	 */
+	public PacketEncoder(Charset charset) {
+		charsetEncoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Returns the charset of the payloads
+	 *
+	 * @return the charset
+	 */
+	public Charset getCharset() {
+		return charsetEncoder.charset();
+	}
+
+	/**
+	 * Returns the maximum number of bytes a frame with the given payload can
+	 * take up, including the length field
+	 *
+	 * @param payload
+	 *            the payload
+	 * @return the maximum frame size in bytes
+	 */
+	public int maxFrameLength(CharSequence payload) {
+		return FrameDecoder.HEADER_LENGTH + 2
+				+ (int) Math.ceil(payload.length() * (double) charsetEncoder.maxBytesPerChar());
+	}
+
+	/**
+	 * Encodes a packet into the given buffer, starting at its position
+	 *
+	 * @param requestID
+	 *            the request ID
+	 * @param type
+	 *            the packet type
+	 * @param payload
+	 *            the payload
+	 * @param target
+	 *            the buffer to write to, with at least
+	 *            {@link PacketEncoder#maxFrameLength(CharSequence)} bytes
+	 *            remaining
+	 */
+	public void encode(int requestID, PacketType type, CharSequence payload, ByteBuffer target) {
+		ByteOrder order = target.order();
+		target.order(ByteOrder.LITTLE_ENDIAN);
+		int start = target.position();
+		target.position(start + FrameDecoder.HEADER_LENGTH);
+		CharBuffer chars = copyChars(payload);
+		charsetEncoder.reset();
+		CoderResult result = charsetEncoder.encode(chars, target, true);
+		if (result.isUnderflow())
+			result = charsetEncoder.flush(target);
+		if (!result.isUnderflow())
+			throw new IllegalArgumentException("Target buffer too small for payload");
+		target.put((byte) 0);
+		target.put((byte) 0);
+		target.putInt(start, target.position() - start - Integer.BYTES);
+		target.putInt(start + 4, requestID);
+		target.putInt(start + 8, type.getId());
+		target.order(order);
+	}
+
+	/**
+	 * Encodes a packet into the reusable buffer of this encoder and writes it
+	 * to the stream with a single write call
+	 *
+	 * @param stream
+	 *            the stream to write to
+	 * @param requestID
+	 *            the request ID
+	 * @param type
+	 *            the packet type
+	 * @param payload
+	 *            the payload
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void writeTo(OutputStream stream, int requestID, PacketType type, CharSequence payload)
+			throws IOException {
+		int maxLength = maxFrameLength(payload);
+		if (buffer.capacity() < maxLength)
+			buffer = ByteBuffer.allocate(Math.max(maxLength, buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.clear();
+		encode(requestID, type, payload, buffer);
+		stream.write(buffer.array(), 0, buffer.position());
+	}
+
+	private CharBuffer copyChars(CharSequence payload) {
+		int length = payload.length();
+		if (chars.length < length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+			charBuffer = CharBuffer.wrap(chars);
+		}
+		if (payload instanceof String) {
+			((String) payload).getChars(0, length, chars, 0);
+		} else {
+			for (int i = 0; i < length; i++)
+				chars[i] = payload.charAt(i);
+		}
+		charBuffer.clear();
+		charBuffer.limit(length);
+		return charBuffer;
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.packet;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the payloads of the fragments of one response. Servers split long
+ * outputs at byte boundaries, so a multi-byte character can start at the end
+ * of one fragment and end in the next one. The decoder keeps the bytes of such
+ * an incomplete character and decodes them together with the next fragment.
+ * <p>
+ * The decoder reuses its buffers, only the returned strings are allocated. It
+ * is not thread-safe.
+ */
+public final class PayloadDecoder {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final CharsetDecoder charsetDecoder;
+	private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+	/**
+	 * The bytes of an incomplete character at the end of the last fragment
+	 */
+	private byte[] carry = new byte[8];
+	private int carryLength;
+	private byte[] joined = new byte[0];
+
+	/**
+	 * Creates a decoder for the given charset. Malformed input is replaced.
+	 *
+	 * @param charset
+	 *            the charset of the payloads
+	 */
+	public PayloadDecoder(Charset charset) {
+		charsetDecoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Decodes the payload of the next fragment
+	 *
+	 * @param payload
+	 *            the raw payload
+	 * @param last
+	 *            true if this is the last fragment of the response, an
+	 *            incomplete character at its end is then replaced and the
+	 *            decoder is reset for the next response
+	 * @return the characters that are complete after this fragment
+	 */
+	public String decode(byte[] payload, boolean last) {
+		ByteBuffer input;
+		if (carryLength == 0) {
+			input = ByteBuffer.wrap(payload);
+		} else {
+			int total = carryLength + payload.length;
+			if (joined.length < total)
+				joined = new byte[Math.max(total, joined.length * 2)];
+			System.arraycopy(carry, 0, joined, 0, carryLength);
+			System.arraycopy(payload, 0, joined, carryLength, payload.length);
+			input = ByteBuffer.wrap(joined, 0, total);
+			carryLength = 0;
+		}
+		int maxChars = (int) Math.ceil(input.remaining() * (double) charsetDecoder.maxCharsPerByte()) + 1;
+		if (chars.capacity() < maxChars)
+			chars = CharBuffer.allocate(Math.max(maxChars, chars.capacity() * 2));
+		chars.clear();
+		CoderResult result = charsetDecoder.decode(input, chars, last);
+		if (last && result.isUnderflow())
+			result = charsetDecoder.flush(chars);
+		if (!result.isUnderflow())
+			throw new IllegalStateException("Decode buffer too small");
+		if (last) {
+			charsetDecoder.reset();
+		} else if (input.hasRemaining()) {
+			carryLength = input.remaining();
+			if (carry.length < carryLength)
+				carry = new byte[carryLength];
+			input.get(carry, 0, carryLength);
+		}
+		chars.flip();
+		return chars.toString();
+	}
+
+	/**
+	 * Discards an incomplete character, e.g. because the response was aborted
+	 */
+	public void reset() {
+		charsetDecoder.reset();
+		carryLength = 0;
+	}
+
+}
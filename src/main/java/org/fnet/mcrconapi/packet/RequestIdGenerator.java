@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.packet;
+
+/**
+ * Generates request IDs for outgoing packets. Implementations have to be
+ * thread-safe and must never return {@link Packet#REQUEST_ID_AUTH_FAIL}, since
+ * the server uses it to signal a failed login.
+ * 
+ * @see AtomicRequestIdGenerator
+ */
+@FunctionalInterface
+public interface RequestIdGenerator {
+
+	/**
+	 * Returns the next request ID
+	 * 
+	 * @return a request ID that is not {@link Packet#REQUEST_ID_AUTH_FAIL}
+	 */
+	int nextRequestID();
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiFunction;
+
+/**
+ * Executes the commands received by an {@link RConServer}.
+ * <p>
+ * The handler is called on a selector thread of the server, so it must not
+ * block. Handlers that have to wait, e.g. for an upstream server, return a
+ * stage that is completed later. The response is sent once the stage
+ * completes. If it completes exceptionally, the response is empty.
+ */
+@FunctionalInterface
+public interface CommandHandler {
+
+	/**
+	 * Handles a command of an authenticated session
+	 *
+	 * @param session
+	 *            the session that sent the command
+	 * @param command
+	 *            the command, e.g. {@code time set 0}
+	 * @return a stage that completes with the output of the command
+	 */
+	CompletionStage<String> handleCommand(RConSession session, String command);
+
+	/**
+	 * Creates a handler from a function that computes the output right away.
+	 * Exceptions thrown by the function lead to an empty response.
+	 *
+	 * @param function
+	 *            computes the output of a command, must not block
+	 * @return the handler
+	 */
+	static CommandHandler of(BiFunction<RConSession, String, String> function) {
+		return (session, command) -> {
+			try {
+				return CompletableFuture.completedFuture(function.apply(session, command));
+			} catch (RuntimeException e) {
+				CompletableFuture<String> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e);
+				return failed;
+			}
+		};
+	}
+
+}
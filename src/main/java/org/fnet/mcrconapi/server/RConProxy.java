@@ -0,0 +1,563 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fnet.mcrconapi.RConClient;
+import org.fnet.mcrconapi.RConEndpoint;
+import org.fnet.mcrconapi.RConEventLoop;
+import org.fnet.mcrconapi.ReconnectPolicy;
+import org.fnet.mcrconapi.ResponseTermination;
+import org.fnet.mcrconapi.TokenBucket;
+
+/**
+ * A gateway that lets many RCON clients share a few connections to one
+ * server. Clients connect to the proxy and authenticate with its own
+ * password. Their commands are forwarded over a small pool of authenticated,
+ * pipelined upstream connections:
+ *
+ * <pre>
+ * try (RConProxy proxy = RConProxy.builder(new RConEndpoint("mc.example.com", "secret"), "local-secret")
+ * 		.upstreamConnections(2).rateLimit(10, 20).build()) {
+ * 	proxy.bind(new InetSocketAddress(25576));
+ * 	...
+ * }
+ * </pre>
+ *
+ * Every upstream command gets a request ID of its upstream connection, and
+ * the response is sent back with the request ID the client used. All commands
+ * of a client go over the same upstream connection, in the order they were
+ * received, so clients that rely on the order of responses, like clients in
+ * {@link ResponseTermination#SENTINEL} mode, keep working.
+ * New clients are assigned to the upstream connection with the fewest
+ * commands in flight.
+ * <p>
+ * Broken upstream connections are reopened with the next command, after a
+ * delay given by the {@link ReconnectPolicy} once an attempt failed. A
+ * connection that doesn't answer a command within the upstream timeout counts
+ * as broken, too. Commands that fail because the server can't be reached or
+ * timed out get an empty response.
+ */
+public class RConProxy implements Closeable {
+
+	private final RConEndpoint upstream;
+	private final ReconnectPolicy policy;
+	private final ResponseTermination responseTermination;
+	private final double permitsPerSecond;
+	private final int burst;
+	private final long upstreamTimeout;
+	private final RConEventLoop eventLoop;
+	private final ScheduledExecutorService scheduler;
+	private final Upstream[] upstreams;
+	private final RConServer server;
+	private final AtomicLong forwardedCommands = new AtomicLong();
+
+	private RConProxy(Builder builder) throws IOException {
+		upstream = builder.upstream;
+		policy = builder.policy;
+		responseTermination = builder.responseTermination;
+		permitsPerSecond = builder.permitsPerSecond;
+		burst = builder.burst;
+		upstreamTimeout = builder.upstreamTimeout;
+		eventLoop = new RConEventLoop(builder.threadCount);
+		scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "RCON proxy scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		upstreams = new Upstream[builder.upstreamConnections];
+		for (int i = 0; i < upstreams.length; i++)
+			upstreams[i] = new Upstream();
+		try {
+			server = new RConServer(builder.password, this::handleCommand, builder.threadCount);
+		} catch (IOException e) {
+			scheduler.shutdownNow();
+			eventLoop.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a builder for a proxy
+	 *
+	 * @param upstream
+	 *            the server to forward commands to and its password
+	 * @param password
+	 *            the password clients of the proxy have to authenticate with
+	 * @return a new builder
+	 */
+	public static Builder builder(RConEndpoint upstream, String password) {
+		return new Builder(upstream, password);
+	}
+
+	/**
+	 * Starts accepting clients on the given address
+	 *
+	 * @param address
+	 *            the local address, with port zero to pick a free port
+	 * @throws IOException
+	 *             if the address can't be bound
+	 * @see RConServer#bind(InetSocketAddress)
+	 */
+	public void bind(InetSocketAddress address) throws IOException {
+		server.bind(address);
+	}
+
+	/**
+	 * Returns the port the proxy accepts clients on
+	 *
+	 * @return the local port
+	 */
+	public int getPort() {
+		return server.getPort();
+	}
+
+	/**
+	 * Returns the server that accepts the clients of this proxy, e.g. to
+	 * inspect its sessions
+	 *
+	 * @return the downstream server
+	 */
+	public RConServer getServer() {
+		return server;
+	}
+
+	/**
+	 * Returns the server commands are forwarded to
+	 *
+	 * @return the upstream endpoint
+	 */
+	public RConEndpoint getUpstream() {
+		return upstream;
+	}
+
+	/**
+	 * Returns the number of commands forwarded to the upstream server so far
+	 *
+	 * @return the number of forwarded commands
+	 */
+	public long getForwardedCommandCount() {
+		return forwardedCommands.get();
+	}
+
+	private CompletionStage<String> handleCommand(RConSession session, String command) {
+		// Commands of a session are handled one at a time on its selector
+		// thread, so the state can be created lazily without a race
+		ClientState state = (ClientState) session.getAttachment();
+		if (state == null) {
+			state = new ClientState(leastLoaded(),
+					permitsPerSecond > 0 ? new TokenBucket(permitsPerSecond, burst) : null);
+			session.setAttachment(state);
+		}
+		Upstream target = state.upstream;
+		long wait = state.rateLimit == null ? 0 : state.rateLimit.reserve();
+		if (wait == 0)
+			return target.forward(command);
+		CompletableFuture<String> response = new CompletableFuture<>();
+		scheduler.schedule(() -> target.forward(command).whenComplete((output, error) -> {
+			if (error == null)
+				response.complete(output);
+			else
+				response.completeExceptionally(error);
+		}), wait, TimeUnit.NANOSECONDS);
+		return response;
+	}
+
+	private Upstream leastLoaded() {
+		Upstream least = upstreams[0];
+		for (Upstream candidate : upstreams)
+			if (candidate.inFlight.get() < least.inFlight.get())
+				least = candidate;
+		return least;
+	}
+
+	/**
+	 * Stops accepting clients, closes all client and upstream connections
+	 */
+	@Override
+	public void close() throws IOException {
+		server.close();
+		for (Upstream upstream : upstreams)
+			upstream.close();
+		scheduler.shutdownNow();
+		eventLoop.close();
+	}
+
+	private static final class ClientState {
+
+		private final Upstream upstream;
+		private final TokenBucket rateLimit;
+
+		private ClientState(Upstream upstream, TokenBucket rateLimit) {
+			this.upstream = upstream;
+			this.rateLimit = rateLimit;
+		}
+
+	}
+
+	/**
+	 * A pipelined connection to the upstream server that is reopened once it
+	 * broke. Commands that arrive while it is being opened wait in a queue, so
+	 * they are sent in the order they arrived.
+	 */
+	private final class Upstream {
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+		/**
+		 * Commands waiting for the connection, guarded by {@code this} like
+		 * the fields below
+		 */
+		private final Queue<Forward> waiting = new ArrayDeque<>();
+		private RConClient client;
+		private boolean connecting;
+		private boolean sending;
+		private boolean closed;
+		private int failedAttempts;
+
+		CompletableFuture<String> forward(String command) {
+			forwardedCommands.incrementAndGet();
+			inFlight.incrementAndGet();
+			Forward forward = new Forward(command);
+			forward.response.whenComplete((output, error) -> inFlight.decrementAndGet());
+			synchronized (this) {
+				waiting.add(forward);
+			}
+			drain();
+			return forward.response;
+		}
+
+		/**
+		 * Sends the waiting commands over the connection, or reopens it if it
+		 * broke. Only one thread sends at a time, so that commands keep their
+		 * order, and it sends without holding the lock, because a failed
+		 * response is sent to the client right away.
+		 */
+		private void drain() {
+			synchronized (this) {
+				if (sending)
+					return;
+				sending = true;
+			}
+			while (true) {
+				RConClient connected;
+				Forward next;
+				boolean start = false;
+				synchronized (this) {
+					connected = client != null && client.isConnected() ? client : null;
+					next = connected == null ? null : waiting.poll();
+					if (next == null) {
+						sending = false;
+						if (connected == null && !waiting.isEmpty() && !connecting) {
+							connecting = true;
+							start = true;
+						}
+					}
+				}
+				if (next == null) {
+					if (start)
+						reconnect();
+					return;
+				}
+				send(next, connected);
+			}
+		}
+
+		private void send(Forward forward, RConClient connected) {
+			CompletableFuture<String> response;
+			try {
+				response = connected.sendCommandAsync(forward.command, upstreamTimeout, TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				forward.response.completeExceptionally(e);
+				return;
+			}
+			response.whenComplete((output, error) -> {
+				if (error == null) {
+					forward.response.complete(output);
+					return;
+				}
+				// A connection that doesn't answer still looks connected,
+				// drop it so that the next command opens a new one
+				if (error instanceof TimeoutException)
+					invalidate(connected);
+				forward.response.completeExceptionally(error);
+			});
+		}
+
+		private void invalidate(RConClient stalled) {
+			synchronized (this) {
+				if (client != stalled)
+					return;
+				client = null;
+			}
+			// Closing fails the other commands in flight on it
+			closeQuietly(stalled);
+		}
+
+		/**
+		 * Opens a new connection, called without holding the lock after
+		 * setting {@code connecting}
+		 */
+		private void reconnect() {
+			RConClient broken;
+			boolean proxyClosed;
+			int attempts;
+			synchronized (this) {
+				broken = client;
+				client = null;
+				proxyClosed = closed;
+				attempts = failedAttempts;
+			}
+			if (broken != null)
+				closeQuietly(broken);
+			if (proxyClosed) {
+				connected(null, new IOException("Proxy closed"));
+				return;
+			}
+			long delay = attempts == 0 ? 0
+					: policy.getDelay(attempts - 1, ThreadLocalRandom.current().nextDouble());
+			if (delay == 0) {
+				connect().whenComplete(this::connected);
+				return;
+			}
+			try {
+				scheduler.schedule(() -> {
+					connect().whenComplete(this::connected);
+				}, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				connected(null, new IOException("Proxy closed"));
+			}
+		}
+
+		private CompletableFuture<RConClient> connect() {
+			return RConClient.connect(eventLoop, upstream.getHost(), upstream.getPort())
+					.thenCompose(fresh -> {
+						fresh.setResponseTermination(responseTermination);
+						return fresh.authenticateAsync(upstream.getPassword()).whenComplete((ok, error) -> {
+							if (error != null)
+								closeQuietly(fresh);
+						}).thenApply(ok -> fresh);
+					});
+		}
+
+		private void connected(RConClient connected, Throwable error) {
+			List<Forward> failed = new ArrayList<>();
+			synchronized (this) {
+				connecting = false;
+				if (error == null && closed) {
+					closeQuietly(connected);
+					error = new IOException("Proxy closed");
+				}
+				if (error == null) {
+					failedAttempts = 0;
+					client = connected;
+				} else {
+					failedAttempts++;
+					failed.addAll(waiting);
+					waiting.clear();
+				}
+			}
+			// Send and fail outside of the lock, a completed response is sent
+			// to the client right away
+			if (error == null)
+				drain();
+			for (Forward forward : failed)
+				forward.response.completeExceptionally(error);
+		}
+
+		void close() {
+			RConClient broken;
+			List<Forward> failed;
+			synchronized (this) {
+				closed = true;
+				broken = client;
+				failed = new ArrayList<>(waiting);
+				waiting.clear();
+			}
+			if (broken != null)
+				closeQuietly(broken);
+			for (Forward forward : failed)
+				forward.response.completeExceptionally(new IOException("Proxy closed"));
+		}
+
+	}
+
+	/**
+	 * A command on its way to the upstream server
+	 */
+	private static final class Forward {
+
+		private final String command;
+		private final CompletableFuture<String> response = new CompletableFuture<>();
+
+		private Forward(String command) {
+			this.command = command;
+		}
+
+	}
+
+	private static void closeQuietly(RConClient client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+			// Ignore: the connection is dropped anyway
+		}
+	}
+
+	/**
+	 * Builds an {@link RConProxy}. All setters return the builder.
+	 */
+	public static final class Builder {
+
+		private final RConEndpoint upstream;
+		private final String password;
+		private int upstreamConnections = 2;
+		private double permitsPerSecond;
+		private int burst;
+		private int threadCount = 1;
+		private long upstreamTimeout = TimeUnit.SECONDS.toMillis(30);
+		private ReconnectPolicy policy = ReconnectPolicy.DEFAULT;
+		private ResponseTermination responseTermination = ResponseTermination.LENGTH_HEURISTIC;
+
+		private Builder(RConEndpoint upstream, String password) {
+			this.upstream = Objects.requireNonNull(upstream, "upstream");
+			this.password = Objects.requireNonNull(password, "password");
+		}
+
+		/**
+		 * Sets the number of connections to the upstream server. Two by
+		 * default.
+		 *
+		 * @param connections
+		 *            the number of upstream connections
+		 * @return this builder
+		 */
+		public Builder upstreamConnections(int connections) {
+			if (connections < 1)
+				throw new IllegalArgumentException("Upstream connections must be at least one");
+			upstreamConnections = connections;
+			return this;
+		}
+
+		/**
+		 * Limits how many commands per second each client may send. Commands
+		 * beyond the limit are delayed, not rejected. Once a client has
+		 * {@link RConServer#getMaxPendingCommands()} delayed commands, the
+		 * proxy stops reading from it. There is no limit by default.
+		 *
+		 * @param permitsPerSecond
+		 *            the sustained number of commands per second
+		 * @param burst
+		 *            the number of commands an idle client may send at once
+		 * @return this builder
+		 */
+		public Builder rateLimit(double permitsPerSecond, int burst) {
+			if (!(permitsPerSecond > 0))
+				throw new IllegalArgumentException("Rate must be positive");
+			if (burst < 1)
+				throw new IllegalArgumentException("Burst must be at least one");
+			this.permitsPerSecond = permitsPerSecond;
+			this.burst = burst;
+			return this;
+		}
+
+		/**
+		 * Sets the number of selector threads for the client connections and,
+		 * separately, for the upstream connections. One by default.
+		 *
+		 * @param threadCount
+		 *            the number of threads
+		 * @return this builder
+		 */
+		public Builder threads(int threadCount) {
+			if (threadCount < 1)
+				throw new IllegalArgumentException("Thread count must be at least one");
+			this.threadCount = threadCount;
+			return this;
+		}
+
+		/**
+		 * Sets how long to wait before reopening an upstream connection after
+		 * a failed attempt
+		 *
+		 * @param policy
+		 *            the reconnect policy, {@link ReconnectPolicy#DEFAULT} by
+		 *            default
+		 * @return this builder
+		 */
+		public Builder reconnectPolicy(ReconnectPolicy policy) {
+			this.policy = Objects.requireNonNull(policy, "policy");
+			return this;
+		}
+
+		/**
+		 * Sets how long to wait for the response to a forwarded command. The
+		 * command then gets an empty response, and the upstream connection is
+		 * closed and reopened with the next command, because a server that
+		 * stopped answering would otherwise stall all clients assigned to it.
+		 * 30 seconds by default.
+		 *
+		 * @param timeout
+		 *            the timeout, must be positive
+		 * @param unit
+		 *            the unit of the timeout
+		 * @return this builder
+		 */
+		public Builder upstreamTimeout(long timeout, TimeUnit unit) {
+			if (timeout <= 0)
+				throw new IllegalArgumentException("Timeout must be positive");
+			upstreamTimeout = Math.max(1, unit.toMillis(timeout));
+			return this;
+		}
+
+		/**
+		 * Sets how the end of an upstream response is detected. Responses
+		 * whose last fragment is exactly full only reach the client with
+		 * {@link ResponseTermination#SENTINEL}, at the cost of an extra
+		 * command per command.
+		 *
+		 * @param responseTermination
+		 *            the termination mode of the upstream connections,
+		 *            {@link ResponseTermination#LENGTH_HEURISTIC} by default
+		 * @return this builder
+		 */
+		public Builder responseTermination(ResponseTermination responseTermination) {
+			this.responseTermination = Objects.requireNonNull(responseTermination, "responseTermination");
+			return this;
+		}
+
+		/**
+		 * Creates the proxy. It doesn't accept clients until
+		 * {@link RConProxy#bind(InetSocketAddress)} is called, upstream
+		 * connections are opened with the first command.
+		 *
+		 * @return the proxy
+		 * @throws IOException
+		 *             if a selector can't be opened
+		 */
+		public RConProxy build() throws IOException {
+			return new RConProxy(this);
+		}
+
+	}
+
+}
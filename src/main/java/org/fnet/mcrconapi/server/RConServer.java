@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fnet.mcrconapi.nio.SelectorLoop;
+import org.fnet.mcrconapi.packet.Packet;
+
+/**
+ * A non-blocking RCON server. Connections are multiplexed on one or a few
+ * selector threads, so a server can hold thousands of sessions. Commands of
+ * authenticated sessions are passed to a {@link CommandHandler}, and its output
+ * is split into fragments like a Minecraft server does.
+ *
+ * <pre>
+ * try (RConServer server = new RConServer("secret", CommandHandler.of((session, command) -&gt; "Ran " + command))) {
+ * 	server.bind(new InetSocketAddress(25575));
+ * 	...
+ * }
+ * </pre>
+ *
+ * Responses are sent in the order of the requests, like a Minecraft server
+ * does. If an asynchronous command completes after later ones, their
+ * responses wait until its response was sent. This keeps clients working that
+ * depend on the order, e.g. with
+ * {@link org.fnet.mcrconapi.ResponseTermination#SENTINEL}.
+ */
+public class RConServer implements Closeable {
+
+	/**
+	 * The maximum payload size of a response fragment. Full fragments have a
+	 * length field of 4096, which tells clients that more fragments follow.
+	 */
+	public static final int MAX_FRAGMENT_PAYLOAD_LENGTH = 4096 - 10;
+
+	/**
+	 * The default maximum number of commands per session that are being
+	 * handled at the same time
+	 */
+	public static final int DEFAULT_MAX_PENDING_COMMANDS = 64;
+
+	/**
+	 * Size of the direct buffer each selector thread reads into. It is shared
+	 * by all sessions of the thread.
+	 */
+	static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final String password;
+	private final CommandHandler handler;
+	private final SelectorLoop[] threads;
+	private final AtomicInteger nextThread = new AtomicInteger();
+	private final AtomicLong nextSessionID = new AtomicLong();
+	private final Map<Long, RConSession> sessions = new ConcurrentHashMap<>();
+	private volatile Charset payloadCharset = Packet.DEFAULT_PAYLOAD_CHARSET;
+	private volatile int maxPendingCommands = DEFAULT_MAX_PENDING_COMMANDS;
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * Creates a server with a single selector thread. It doesn't accept
+	 * connections until {@link RConServer#bind(InetSocketAddress)} is called.
+	 *
+	 * @param password
+	 *            the password clients have to authenticate with
+	 * @param handler
+	 *            executes the commands
+	 * @throws IOException
+	 *             if the selector can't be opened
+	 */
+	public RConServer(String password, CommandHandler handler) throws IOException {
+		this(password, handler, 1);
+	}
+
+	/**
+	 * Creates a server with the given number of selector threads. Sessions are
+	 * distributed across the threads round robin.
+	 *
+	 * @param password
+	 *            the password clients have to authenticate with
+	 * @param handler
+	 *            executes the commands
+	 * @param threadCount
+	 *            the number of selector threads
+	 * @throws IOException
+	 *             if a selector can't be opened
+	 */
+	public RConServer(String password, CommandHandler handler, int threadCount) throws IOException {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("Thread count must be at least one");
+		this.password = Objects.requireNonNull(password, "password");
+		this.handler = Objects.requireNonNull(handler, "handler");
+		threads = new SelectorLoop[threadCount];
+		try {
+			for (int i = 0; i < threadCount; i++)
+				threads[i] = new SelectorLoop("RCON server " + i, READ_BUFFER_SIZE);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		for (SelectorLoop thread : threads)
+			thread.start();
+	}
+
+	/**
+	 * Starts accepting connections on the given address
+	 *
+	 * @param address
+	 *            the local address, with port zero to pick a free port
+	 * @throws IOException
+	 *             if the address can't be bound
+	 * @throws IllegalStateException
+	 *             if the server is already bound
+	 */
+	public synchronized void bind(InetSocketAddress address) throws IOException {
+		if (serverChannel != null)
+			throw new IllegalStateException("Server already bound");
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.bind(address);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		serverChannel = channel;
+		SelectorLoop acceptor = threads[0];
+		try {
+			acceptor.execute(() -> {
+				try {
+					acceptor.register(channel, SelectionKey.OP_ACCEPT, (key, readBuffer) -> {
+						if (key.isValid() && key.isAcceptable())
+							accept(channel);
+					});
+				} catch (IOException e) {
+					closeQuietly(channel);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			closeQuietly(channel);
+			throw new IOException("Server closed", e);
+		}
+	}
+
+	/**
+	 * Returns the port the server accepts connections on
+	 *
+	 * @return the local port
+	 * @throws IllegalStateException
+	 *             if the server is not bound
+	 */
+	public synchronized int getPort() {
+		if (serverChannel == null)
+			throw new IllegalStateException("Server not bound");
+		return serverChannel.socket().getLocalPort();
+	}
+
+	private void accept(ServerSocketChannel serverChannel) {
+		SocketChannel channel;
+		try {
+			while ((channel = serverChannel.accept()) != null) {
+				SocketChannel accepted = channel;
+				try {
+					accepted.configureBlocking(false);
+					accepted.socket().setTcpNoDelay(true);
+					SelectorLoop thread = threads[Math.floorMod(nextThread.getAndIncrement(), threads.length)];
+					RConSession session = new RConSession(nextSessionID.incrementAndGet(), this, accepted, thread);
+					sessions.put(session.getId(), session);
+					try {
+						thread.execute(() -> {
+							try {
+								session.start();
+							} catch (IOException e) {
+								session.closeQuietly();
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						session.closeQuietly();
+					}
+				} catch (IOException e) {
+					closeQuietly(accepted);
+				}
+			}
+		} catch (IOException e) {
+			// The server channel was closed, or the process ran out of file
+			// descriptors. Keep serving the existing sessions.
+		}
+	}
+
+	boolean checkPassword(byte[] attempt) {
+		// Compare in constant time, so the password can't be guessed from
+		// response times
+		return MessageDigest.isEqual(password.getBytes(payloadCharset), attempt);
+	}
+
+	void removeSession(RConSession session) {
+		sessions.remove(session.getId(), session);
+	}
+
+	CommandHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Sets the charset of the payloads of all sessions
+	 *
+	 * @param charset
+	 *            the payload charset, UTF-8 by default
+	 */
+	public void setPayloadCharset(Charset charset) {
+		payloadCharset = Objects.requireNonNull(charset, "charset");
+	}
+
+	/**
+	 * Returns the charset of the payloads
+	 *
+	 * @return the payload charset
+	 */
+	public Charset getPayloadCharset() {
+		return payloadCharset;
+	}
+
+	/**
+	 * Sets how many commands of a session may be handled or wait for earlier
+	 * responses at the same time. Once the limit is reached, the session stops
+	 * reading until a response was sent.
+	 *
+	 * @param maxPendingCommands
+	 *            the maximum number of pending commands per session
+	 */
+	public void setMaxPendingCommands(int maxPendingCommands) {
+		if (maxPendingCommands < 1)
+			throw new IllegalArgumentException("Maximum pending commands must be at least one");
+		this.maxPendingCommands = maxPendingCommands;
+	}
+
+	/**
+	 * Returns how many commands of a session may be handled at the same time
+	 *
+	 * @return the maximum number of pending commands per session
+	 */
+	public int getMaxPendingCommands() {
+		return maxPendingCommands;
+	}
+
+	/**
+	 * Returns the currently open sessions
+	 *
+	 * @return an unmodifiable snapshot of the sessions
+	 */
+	public Collection<RConSession> getSessions() {
+		return Collections.unmodifiableList(new ArrayList<>(sessions.values()));
+	}
+
+	/**
+	 * Returns the number of open sessions
+	 *
+	 * @return the number of sessions
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Stops accepting connections, closes all sessions and stops the selector
+	 * threads
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (serverChannel != null)
+				closeQuietly(serverChannel);
+		}
+		for (RConSession session : getSessions())
+			session.closeQuietly();
+		for (SelectorLoop thread : threads)
+			if (thread != null)
+				thread.shutdown();
+	}
+
+	private static void closeQuietly(Closeable channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Ignore: the channel is dropped anyway
+		}
+	}
+
+}
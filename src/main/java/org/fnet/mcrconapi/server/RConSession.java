@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi.server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fnet.mcrconapi.nio.FrameAccumulator;
+import org.fnet.mcrconapi.nio.SelectorLoop;
+import org.fnet.mcrconapi.packet.ClientPacket;
+import org.fnet.mcrconapi.packet.Packet;
+import org.fnet.mcrconapi.packet.PacketType;
+
+/**
+ * A client connection of an {@link RConServer}. Its packets are decoded on the
+ * selector thread the session belongs to, responses can be sent from any
+ * thread.
+ * <p>
+ * A session stops reading while too many of its commands are still being
+ * handled or too much of its output is not sent yet, so that a client that
+ * floods the server or doesn't read its responses can't make it buffer
+ * unbounded amounts of data.
+ */
+public final class RConSession implements Closeable {
+
+	/**
+	 * Size of the fixed part of a frame: the length, request ID and type
+	 * fields and the two terminator bytes
+	 */
+	private static final int FRAME_OVERHEAD = Integer.BYTES * 3 + 2;
+	private static final int INITIAL_WRITE_BUFFER_SIZE = 8 * 1024;
+	/**
+	 * Reading stops while more output than this is waiting to be sent
+	 */
+	private static final int WRITE_HIGH_WATER_MARK = 1024 * 1024;
+
+	private final long id;
+	private final RConServer server;
+	private final SocketChannel channel;
+	private final InetSocketAddress remoteAddress;
+	private final SelectorLoop thread;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final AtomicInteger pendingCommands = new AtomicInteger();
+	/**
+	 * Responses in the order of their requests that were not sent yet,
+	 * guarded by {@code this}. A response is only sent after all responses
+	 * before it.
+	 */
+	private final Queue<Response> responses = new ArrayDeque<>();
+	private SelectionKey key;
+	private volatile boolean authenticated;
+	private volatile boolean readPaused;
+	private volatile Object attachment;
+	/**
+	 * Set while packets are decoded, so that responses sent by synchronous
+	 * handlers don't start decoding again. Only accessed by the selector
+	 * thread.
+	 */
+	private boolean decoding;
+
+	/**
+	 * Bytes of frames that are not complete yet or were not handled while
+	 * reading was paused. Only accessed by the selector thread.
+	 */
+	private final FrameAccumulator received = new FrameAccumulator(1024);
+	/**
+	 * Encoded responses that were not written yet, in write mode. Guarded by
+	 * {@code this}.
+	 */
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+	RConSession(long id, RConServer server, SocketChannel channel, SelectorLoop thread) throws IOException {
+		this.id = id;
+		this.server = server;
+		this.channel = channel;
+		this.thread = thread;
+		remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+	}
+
+	/**
+	 * Registers the channel and starts reading, called on the selector thread
+	 */
+	void start() throws IOException {
+		key = thread.register(channel, SelectionKey.OP_READ, new SelectorLoop.Handler() {
+			@Override
+			public void handle(SelectionKey key, ByteBuffer readBuffer) {
+				RConSession.this.handle(key, readBuffer);
+			}
+
+			@Override
+			public void abort(IOException cause) {
+				closeQuietly();
+			}
+		});
+	}
+
+	private void handle(SelectionKey key, ByteBuffer readBuffer) {
+		try {
+			if (key.isValid() && key.isReadable())
+				read(readBuffer);
+			if (key.isValid() && key.isWritable())
+				flush();
+		} catch (CancelledKeyException | IOException e) {
+			closeQuietly();
+		}
+	}
+
+	private void read(ByteBuffer readBuffer) throws IOException {
+		readBuffer.clear();
+		int read = channel.read(readBuffer);
+		if (read == -1)
+			throw new EOFException("Connection closed by client");
+		readBuffer.flip();
+		received.accept(readBuffer, this::decode);
+		updateInterest();
+	}
+
+	/**
+	 * Decodes and handles packets until the buffer is empty or the session
+	 * has too many pending commands. Packets that are left stay buffered until
+	 * the session resumes.
+	 */
+	private void decode(ByteBuffer buffer) throws IOException {
+		decoding = true;
+		try {
+			ClientPacket packet;
+			while (!closed.get() && pendingCommands.get() < server.getMaxPendingCommands()
+					&& (packet = ClientPacket.decode(buffer)) != null) {
+				if (packet.getType() == PacketType.AUTH)
+					authenticate(packet);
+				else if (authenticated)
+					execute(packet);
+				else
+					// Servers answer commands of unauthenticated clients like a
+					// failed login
+					respond(enqueue(Packet.REQUEST_ID_AUTH_FAIL, PacketType.AUTH_RESPONSE), "");
+			}
+		} finally {
+			decoding = false;
+		}
+	}
+
+	private void authenticate(ClientPacket packet) throws IOException {
+		authenticated = server.checkPassword(packet.getPayload());
+		respond(enqueue(authenticated ? packet.getRequestID() : Packet.REQUEST_ID_AUTH_FAIL,
+				PacketType.AUTH_RESPONSE), "");
+	}
+
+	private void execute(ClientPacket packet) {
+		Response response = enqueue(packet.getRequestID(), PacketType.COMMAND_RESPONSE);
+		CompletionStage<String> output;
+		try {
+			output = server.getHandler().handleCommand(this,
+					packet.getPayloadAsString(server.getPayloadCharset()));
+		} catch (RuntimeException e) {
+			CompletableFuture<String> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			output = failed;
+		}
+		output.whenComplete((result, error) -> {
+			try {
+				respond(response, error == null && result != null ? result : "");
+			} catch (IOException e) {
+				closeQuietly();
+			}
+		});
+	}
+
+	/**
+	 * Reserves the place of a response in the order of the requests. Called on
+	 * the selector thread while decoding.
+	 */
+	private synchronized Response enqueue(int requestID, PacketType type) {
+		pendingCommands.incrementAndGet();
+		Response response = new Response(requestID, type);
+		responses.add(response);
+		return response;
+	}
+
+	/**
+	 * Completes a response. Once all responses before it are sent, it is
+	 * encoded together with the completed ones that follow, and as much of
+	 * them is sent as the channel accepts.
+	 */
+	private void respond(Response response, String output) throws IOException {
+		byte[] payload = output.getBytes(server.getPayloadCharset());
+		boolean encoded = false;
+		synchronized (this) {
+			response.payload = payload;
+			Response next;
+			while ((next = responses.peek()) != null && next.payload != null) {
+				responses.poll();
+				pendingCommands.decrementAndGet();
+				if (!closed.get()) {
+					encode(next.requestID, next.type, next.payload);
+					encoded = true;
+				}
+			}
+		}
+		if (encoded)
+			flush();
+	}
+
+	/**
+	 * Appends a response to the write buffer, split into fragments of at most
+	 * {@link RConServer#MAX_FRAGMENT_PAYLOAD_LENGTH} bytes
+	 */
+	private synchronized void encode(int requestID, PacketType type, byte[] payload) {
+		int fragments = Math.max(1, (payload.length + RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH - 1)
+				/ RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH);
+		int required = payload.length + fragments * FRAME_OVERHEAD;
+		if (writeBuffer.remaining() < required) {
+			ByteBuffer grown = ByteBuffer
+					.allocate(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + required))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			writeBuffer.flip();
+			writeBuffer = grown.put(writeBuffer);
+		}
+		int offset = 0;
+		do {
+			int length = Math.min(payload.length - offset, RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH);
+			writeBuffer.putInt(length + FRAME_OVERHEAD - Integer.BYTES);
+			writeBuffer.putInt(requestID);
+			writeBuffer.putInt(type.getId());
+			writeBuffer.put(payload, offset, length);
+			writeBuffer.put((byte) 0);
+			writeBuffer.put((byte) 0);
+			offset += length;
+		} while (offset < payload.length);
+	}
+
+	/**
+	 * Sends as much of the buffered output as the channel accepts. Handlers
+	 * may run when the session resumes, so this must not be called while
+	 * holding the lock of the session.
+	 */
+	private void flush() throws IOException {
+		boolean remaining = write();
+		if (thread.isCurrentThread())
+			resume();
+		else if (remaining || readPaused) {
+			try {
+				thread.execute(this::resume);
+			} catch (RejectedExecutionException e) {
+				closeQuietly();
+			}
+		}
+	}
+
+	private synchronized boolean write() throws IOException {
+		writeBuffer.flip();
+		channel.write(writeBuffer);
+		writeBuffer.compact();
+		return writeBuffer.position() > 0;
+	}
+
+	/**
+	 * Updates the interest set after output was sent and handles the buffered
+	 * packets if the session is no longer overloaded. Called on the selector
+	 * thread.
+	 */
+	private void resume() {
+		updateInterest();
+		if (readPaused || !received.hasBuffered() || decoding)
+			return;
+		try {
+			received.decodeBuffered(this::decode);
+			updateInterest();
+		} catch (IOException e) {
+			closeQuietly();
+		}
+	}
+
+	/**
+	 * Registers interest in writability while output is left and pauses
+	 * reading while the session is overloaded. Called on the selector thread.
+	 */
+	private synchronized void updateInterest() {
+		readPaused = pendingCommands.get() >= server.getMaxPendingCommands()
+				|| writeBuffer.position() > WRITE_HIGH_WATER_MARK;
+		int ops = readPaused ? 0 : SelectionKey.OP_READ;
+		if (writeBuffer.position() > 0)
+			ops |= SelectionKey.OP_WRITE;
+		try {
+			key.interestOps(ops);
+		} catch (CancelledKeyException e) {
+			// The session was closed concurrently
+		}
+	}
+
+	/**
+	 * Returns the ID of this session, unique per server
+	 *
+	 * @return the ID
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the server this session belongs to
+	 *
+	 * @return the server
+	 */
+	public RConServer getServer() {
+		return server;
+	}
+
+	/**
+	 * Returns the address of the client
+	 *
+	 * @return the remote address
+	 */
+	public InetSocketAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * Returns if the client sent the correct password
+	 *
+	 * @return true if authenticated
+	 */
+	public boolean isAuthenticated() {
+		return authenticated;
+	}
+
+	/**
+	 * Returns if the connection is still open
+	 *
+	 * @return true if open
+	 */
+	public boolean isOpen() {
+		return !closed.get();
+	}
+
+	/**
+	 * Attaches an object to this session, e.g. state that a
+	 * {@link CommandHandler} keeps per client. The object is dropped together
+	 * with the session.
+	 *
+	 * @param attachment
+	 *            the object to attach, may be null
+	 */
+	public void setAttachment(Object attachment) {
+		this.attachment = attachment;
+	}
+
+	/**
+	 * Returns the attached object
+	 *
+	 * @return the attachment, null if there is none
+	 */
+	public Object getAttachment() {
+		return attachment;
+	}
+
+	/**
+	 * Returns the number of commands of this session whose response was not
+	 * sent yet
+	 *
+	 * @return the number of pending commands
+	 */
+	public int getPendingCommandCount() {
+		return pendingCommands.get();
+	}
+
+	/**
+	 * Closes the connection. Responses to commands that are still being
+	 * handled are dropped.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed.compareAndSet(false, true))
+			return;
+		server.removeSession(this);
+		channel.close();
+	}
+
+	void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			// Ignore: the connection is dropped anyway
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RConSession[id=" + id + ", remoteAddress=" + remoteAddress + ", authenticated=" + authenticated
+				+ "]";
+	}
+
+	/**
+	 * A response waiting for its output or for the responses before it
+	 */
+	private static final class Response {
+
+		private final int requestID;
+		private final PacketType type;
+		/**
+		 * The encoded output, null while the command is being handled.
+		 * Guarded by the session.
+		 */
+		private byte[] payload;
+
+		private Response(int requestID, PacketType type) {
+			this.requestID = requestID;
+			this.type = type;
+		}
+
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class CachingCommandSenderTest {
+
+	private final AtomicLong now = new AtomicLong();
+	private final AtomicInteger sent = new AtomicInteger();
+	private final CommandSender counting = command -> command + " #" + sent.incrementAndGet();
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(5, TimeUnit.SECONDS);
+
+	@Test
+	public void testNormalize() {
+		assertEquals("list", CachingCommandSender.normalize("  /LIST "));
+		assertEquals("time query daytime", CachingCommandSender.normalize("Time   query\tdaytime"));
+		assertEquals("tell Notch Hi", CachingCommandSender.normalize("TELL Notch Hi"));
+	}
+
+	@Test
+	public void testCachesMatchingCommandsUntilTheyExpire() throws Exception {
+		CachingCommandSender cached = new CachingCommandSender(counting, 16, now::get);
+		cached.cache("list", 1, TimeUnit.SECONDS);
+		cached.cache("time query .*", 2, TimeUnit.SECONDS);
+		assertEquals("list #1", cached.sendCommand("list"));
+		assertEquals("list #1", cached.sendCommand("/LIST"));
+		assertEquals("time query daytime #2", cached.sendCommand("time query daytime"));
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+		assertEquals("list #3", cached.sendCommand("list"));
+		assertEquals("time query daytime #2", cached.sendCommand("time  query daytime"));
+		assertEquals(2, cached.getHitCount());
+		assertEquals(3, cached.getMissCount());
+		cached.invalidate("time query daytime");
+		assertEquals("time query daytime #4", cached.sendCommand("time query daytime"));
+	}
+
+	@Test
+	public void testPassesOtherCommandsThrough() throws Exception {
+		CachingCommandSender cached = new CachingCommandSender(counting);
+		cached.cache("list", 1, TimeUnit.SECONDS);
+		assertEquals("say hi #1", cached.sendCommand("say hi"));
+		assertEquals("say hi #2", cached.sendCommand("say hi"));
+		assertEquals(0, cached.size());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		CachingCommandSender cached = new CachingCommandSender(counting, 2, now::get);
+		cached.cache("data get entity .*", 1, TimeUnit.MINUTES);
+		cached.sendCommand("data get entity a");
+		cached.sendCommand("data get entity b");
+		cached.sendCommand("data get entity a");
+		cached.sendCommand("data get entity c");
+		assertEquals(2, cached.size());
+		assertEquals("data get entity a #1", cached.sendCommand("data get entity a"));
+		assertEquals("data get entity b #4", cached.sendCommand("data get entity b"));
+	}
+
+	@Test
+	public void testConcurrentRequestsShareOneRoundTrip() throws Exception {
+		final int threads = 8;
+		CountDownLatch release = new CountDownLatch(1);
+		CachingCommandSender cached = new CachingCommandSender(command -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			return command + " #" + sent.incrementAndGet();
+		});
+		cached.cache("list", 1, TimeUnit.MINUTES);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<String>> responses = new ArrayList<>();
+			for (int i = 0; i < threads; i++)
+				responses.add(executor.submit(() -> cached.sendCommand("list")));
+			while (cached.getHitCount() + cached.getMissCount() < threads)
+				Thread.sleep(5);
+			release.countDown();
+			for (Future<String> response : responses)
+				assertEquals("list #1", response.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, sent.get());
+		assertEquals(1, cached.getMissCount());
+	}
+
+	@Test
+	public void testDoesNotCacheFailures() throws Exception {
+		CachingCommandSender cached = new CachingCommandSender(command -> {
+			if (sent.incrementAndGet() == 1)
+				throw new IOException("Connection lost");
+			return "ok";
+		});
+		cached.cache("list", 1, TimeUnit.MINUTES);
+		try {
+			cached.sendCommand("list");
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertEquals("Connection lost", e.getMessage());
+		}
+		assertEquals("ok", cached.sendCommand("list"));
+		assertEquals("ok", cached.sendCommand("list"));
+		assertEquals(2, sent.get());
+	}
+
+	@Test
+	public void testSendsNormalizedCommand() throws Exception {
+		List<String> received = new ArrayList<>();
+		CachingCommandSender cached = new CachingCommandSender(command -> {
+			received.add(command);
+			return command;
+		});
+		cached.cache("time query .*", 1, TimeUnit.MINUTES);
+		assertEquals("time query daytime", cached.sendCommand(" /TIME  query daytime"));
+		assertEquals("time query daytime", cached.sendCommand("time query daytime"));
+		assertEquals("/SAY  Hi", cached.sendCommand("/SAY  Hi"));
+		assertEquals(Arrays.asList("time query daytime", "/SAY  Hi"), received);
+	}
+
+	@Test
+	public void testErrorReleasesWaitingCallers() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CachingCommandSender cached = new CachingCommandSender(command -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			if (sent.incrementAndGet() == 1)
+				throw new AssertionError("Broken delegate");
+			return "ok";
+		});
+		cached.cache("list", 1, TimeUnit.MINUTES);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<String>> responses = new ArrayList<>();
+			for (int i = 0; i < 2; i++)
+				responses.add(executor.submit(() -> cached.sendCommand("list")));
+			while (cached.getHitCount() + cached.getMissCount() < 2)
+				Thread.sleep(5);
+			release.countDown();
+			for (Future<String> response : responses) {
+				try {
+					response.get();
+					fail("Expected an AssertionError");
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof AssertionError);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals("ok", cached.sendCommand("list"));
+		assertEquals(1, cached.getHitCount());
+	}
+
+}
@@ -4,15 +4,66 @@
  */
 package org.fnet.mcrconapi;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.fnet.mcrconapi.cli.CommandLineMain;
+import org.fnet.mcrconapi.cli.Repl;
+import org.fnet.mcrconapi.cli.ScriptRunner;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static org.junit.Assert.*;
 
 public class CliTest {
 
+	private static final String HELP_OUTPUT = "/gamerule <rule> [<value>]/give <targets> <item>/list [uuids]/locate";
+
+	private static RConTestServer rConTestServer;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		rConTestServer = new RConTestServer();
+		rConTestServer.start();
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		rConTestServer.close();
+		rConTestServer = null;
+	}
+
+	private static ScriptRunner.Summary runScript(String script, boolean json, int pipelineDepth,
+			ByteArrayOutputStream output) throws Exception {
+		return runScript(script, json, pipelineDepth, RConClientOptions.DEFAULT, output);
+	}
+
+	private static ScriptRunner.Summary runScript(String script, boolean json, int pipelineDepth,
+			RConClientOptions options, ByteArrayOutputStream output) throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rConTestServer.getPort(), RConClientTest.PASSWORD,
+				options)) {
+			PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8.name());
+			return new ScriptRunner(client, out, json, pipelineDepth)
+					.run(new BufferedReader(new StringReader(script)));
+		}
+	}
+
 	@Test
 	public void testParseArguments() {
 		final String cmdstring = "42", loginstring = "testpassword";
@@ -51,4 +102,130 @@ public class CliTest {
 		assertEquals("Key 'show' is not mapped to 'b'", "b", args.get("show"));
 	}
 
+	@Test
+	public void testScript() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ScriptRunner.Summary summary = runScript(RConClientTest.SHORT_COMMAND_REQUEST
+				+ "\n# a comment\n\n  echo first  \nunknownCommand\necho second\n", false, 1, output);
+		assertEquals(4, summary.getCommandCount());
+		assertEquals(1, summary.getFailedCount());
+		assertFalse(summary.isAborted());
+		String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+		assertEquals(4, lines.length);
+		assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, lines[0]);
+		assertEquals("first", lines[1]);
+		assertTrue(lines[2], lines[2].startsWith("Line 5 failed: "));
+		assertEquals("second", lines[3]);
+		assertTrue(summary.toString(), summary.toString().startsWith("4 commands, 1 failed in "));
+	}
+
+	@Test
+	public void testPipelinedJsonScript() throws Exception {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < 50; i++)
+			script.append(RConClientTest.ECHO_COMMAND_PREFIX).append("line \"").append(i).append("\"\n");
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ScriptRunner.Summary summary = runScript(script.toString(), true, 8, output);
+		assertEquals(50, summary.getCommandCount());
+		assertEquals(0, summary.getFailedCount());
+		String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\\R");
+		assertEquals(50, lines.length);
+		for (int i = 0; i < lines.length; i++)
+			assertTrue(lines[i], lines[i].startsWith("{\"line\":" + (i + 1) + ",\"command\":\"echo line \\\"" + i
+					+ "\\\"\",\"status\":\"ok\",\"output\":\"line \\\"" + i + "\\\"\",\"micros\":"));
+	}
+
+	@Test
+	public void testScriptStopsWhenTheConnectionBreaks() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ScriptRunner.Summary summary = runScript("echo a\n" + RConClientTest.DISCONNECT_COMMAND_REQUEST + "\necho b\n",
+				false, 1, output);
+		assertTrue(summary.isAborted());
+		assertEquals(2, summary.getCommandCount());
+		assertEquals(1, summary.getFailedCount());
+	}
+
+	@Test(timeout = 2000)
+	public void testPipelinedScriptUsesReadTimeout() throws Exception {
+		RConClientOptions options = RConClientOptions.builder().readTimeout(100, TimeUnit.MILLISECONDS).build();
+		for (int pipelineDepth : new int[] { 1, 4 }) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			ScriptRunner.Summary summary = runScript(
+					"echo a\n" + RConClientTest.SILENT_COMMAND_REQUEST + "\necho b\n", false, pipelineDepth, options,
+					output);
+			assertTrue(summary.isAborted());
+			assertEquals(1, summary.getFailedCount());
+		}
+	}
+
+	private static CommandSender fakeServer() {
+		return command -> {
+			if (command.equals("help"))
+				return HELP_OUTPUT;
+			if (command.equals("fail"))
+				throw new IOException("Connection reset");
+			return "ran " + command;
+		};
+	}
+
+	@Test
+	public void testParseHelp() {
+		assertEquals(Arrays.asList("gamerule", "give", "list", "locate"),
+				Arrays.asList(Repl.parseHelp(HELP_OUTPUT).toArray()));
+	}
+
+	@Test
+	public void testRepl() throws Exception {
+		Path historyFile = temporaryFolder.getRoot().toPath().resolve("history");
+		Files.write(historyFile, Arrays.asList("seed"));
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		String input = "list\n:timing\nsay hi\n!!\n!1\ng\t\nlo\t\nfail\n:history\n:quit\nnever sent\n";
+		Repl repl = new Repl(fakeServer(), new BufferedReader(new StringReader(input)),
+				new PrintStream(output, true, StandardCharsets.UTF_8.name()), historyFile);
+		repl.run();
+		String printed = new String(output.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(printed, printed.contains("ran list"));
+		assertTrue(printed, printed.contains("Timing on"));
+		assertTrue(printed, printed.matches("(?s).*ran say hi\\R\\(\\d+\\.\\d{3} ms\\).*"));
+		assertTrue(printed, printed.contains("ran seed"));
+		assertTrue(printed, printed.contains("gamerule  give"));
+		assertTrue(printed, printed.contains("locate"));
+		assertTrue(printed, printed.contains("Connection lost"));
+		assertFalse(printed, printed.contains("never sent"));
+		assertEquals(Arrays.asList("seed", "list", "say hi", "seed", "fail"), repl.getHistory());
+		assertEquals(Arrays.asList("seed", "list", "say hi", "seed", "fail"), Files.readAllLines(historyFile));
+	}
+
+	@Test
+	public void testParseHosts() {
+		List<RConEndpoint> hosts = CommandLineMain.parseHosts(Arrays.asList("# inventory", "", "lobby.example.com:25575:secret",
+				"  survival::pass:with:colons  ", "[::1]:25580:v6"), RConClient.DEFAULT_RCON_PORT);
+		assertEquals(Arrays.asList(new RConEndpoint("lobby.example.com", 25575, "secret"),
+				new RConEndpoint("survival", RConClient.DEFAULT_RCON_PORT, "pass:with:colons"),
+				new RConEndpoint("::1", 25580, "v6")), hosts);
+		for (String invalid : new String[] { "nohost", "host:25575", ":25575:secret", "host:port:secret",
+				"host:70000:secret", "[::1:25575:secret" }) {
+			try {
+				CommandLineMain.parseHosts(Arrays.asList("a:1:b", invalid), RConClient.DEFAULT_RCON_PORT);
+				fail("Expected " + invalid + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2: "));
+			}
+		}
+	}
+
+	@Test
+	public void testFormatFleetResult() {
+		RConEndpoint endpoint = new RConEndpoint("127.0.0.1", 25575, "secret");
+		FleetResult success = new FleetResult(endpoint, "first\nsecond", null, TimeUnit.MILLISECONDS.toNanos(3));
+		assertEquals("[127.0.0.1:25575] first" + System.lineSeparator() + "[127.0.0.1:25575] second",
+				CommandLineMain.formatResult(success, false));
+		assertEquals("{\"host\":\"127.0.0.1\",\"port\":25575,\"status\":\"ok\",\"output\":\"first\\nsecond\",\"micros\":3000}",
+				CommandLineMain.formatResult(success, true));
+		FleetResult failure = new FleetResult(endpoint, null, new IOException("Connection refused"), 0);
+		assertEquals("[127.0.0.1:25575] error: java.io.IOException: Connection refused",
+				CommandLineMain.formatResult(failure, false));
+		assertTrue(CommandLineMain.formatResult(failure, true).contains("\"status\":\"error\""));
+	}
+
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.fnet.mcrconapi.CommandScheduler.Priority;
+import org.fnet.mcrconapi.metrics.RConMetricsRecorder;
+import org.fnet.mcrconapi.metrics.RConMetricsSnapshot;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class CommandSchedulerTest {
+
+	private static RConTestServer rConTestServer;
+	private RConClient client;
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(10, TimeUnit.SECONDS);
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		rConTestServer = new RConTestServer();
+		rConTestServer.start();
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		rConTestServer.close();
+		rConTestServer = null;
+	}
+
+	@Before
+	public void connect() throws Exception {
+		client = new RConClient("127.0.0.1", rConTestServer.getPort(), RConClientTest.PASSWORD);
+	}
+
+	@After
+	public void disconnect() throws IOException {
+		client.close();
+	}
+
+	private static String echo(String text) {
+		return RConClientTest.ECHO_COMMAND_PREFIX + text;
+	}
+
+	@Test
+	public void testSendCommand() throws Exception {
+		try (CommandScheduler scheduler = new CommandScheduler(client, null)) {
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE,
+					scheduler.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			assertEquals("hello", scheduler.submit(echo("hello"), Priority.BULK).get());
+		}
+	}
+
+	@Test
+	public void testUrgentCommandsJumpTheQueue() throws Exception {
+		List<String> completed = Collections.synchronizedList(new ArrayList<>());
+		try (CommandScheduler scheduler = new CommandScheduler(client, new TokenBucket(10, 1))) {
+			List<CompletableFuture<String>> outputs = new ArrayList<>();
+			for (int i = 0; i < 3; i++)
+				outputs.add(scheduler.submit(echo("bulk" + i), Priority.BULK));
+			outputs.add(scheduler.submit(echo("normal"), Priority.NORMAL));
+			outputs.add(scheduler.submit(echo("urgent"), Priority.URGENT));
+			List<CompletableFuture<Void>> recorded = new ArrayList<>();
+			for (CompletableFuture<String> output : outputs)
+				recorded.add(output.thenAccept(completed::add));
+			CompletableFuture.allOf(recorded.toArray(new CompletableFuture<?>[0])).get();
+		}
+		// The first bulk command may have been sent before the others were
+		// queued, the rest has to wait for permits
+		int urgent = completed.indexOf("urgent");
+		assertTrue(completed.toString(), urgent <= 1);
+		assertEquals(completed.toString(), urgent + 1, completed.indexOf("normal"));
+		assertEquals("bulk2", completed.get(4));
+	}
+
+	@Test
+	public void testRateLimit() throws Exception {
+		try (CommandScheduler scheduler = new CommandScheduler(client, new TokenBucket(100, 1), 4)) {
+			long start = System.nanoTime();
+			List<CompletableFuture<String>> outputs = new ArrayList<>();
+			for (int i = 0; i < 11; i++)
+				outputs.add(scheduler.submit(echo(Integer.toString(i)), Priority.NORMAL));
+			for (int i = 0; i < outputs.size(); i++)
+				assertEquals(Integer.toString(i), outputs.get(i).get());
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(95));
+			assertEquals(0, scheduler.getQueueDepth());
+			assertEquals(0, scheduler.getInFlightCount());
+		}
+	}
+
+	@Test
+	public void testRecordsQueueMetrics() throws Exception {
+		RConMetricsRecorder recorder = new RConMetricsRecorder();
+		client.setMetrics(recorder);
+		try (CommandScheduler scheduler = new CommandScheduler(client, new TokenBucket(200, 1))) {
+			List<CompletableFuture<String>> outputs = new ArrayList<>();
+			for (int i = 0; i < 5; i++)
+				outputs.add(scheduler.submit(echo(Integer.toString(i)), Priority.BULK));
+			CompletableFuture.allOf(outputs.toArray(new CompletableFuture<?>[0])).get();
+		}
+		RConMetricsSnapshot snapshot = recorder.snapshot();
+		assertEquals(5, snapshot.getQueueDepths().getCount());
+		assertEquals(5, snapshot.getQueueWaits().getCount());
+		assertTrue(snapshot.getQueueWaits().getMax() >= TimeUnit.MILLISECONDS.toNanos(15));
+		// The client records the latency in a callback that may run after the
+		// output was passed on
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (recorder.snapshot().getCommandLatencies().getCount() < 5 && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		assertEquals(5, recorder.snapshot().getCommandLatencies().getCount());
+	}
+
+	@Test
+	public void testCloseFailsQueuedCommands() throws Exception {
+		CommandScheduler scheduler = new CommandScheduler(client, new TokenBucket(1, 1));
+		CompletableFuture<String> first = scheduler.submit(echo("first"), Priority.NORMAL);
+		CompletableFuture<String> second = scheduler.submit(echo("second"), Priority.NORMAL);
+		assertEquals("first", first.get());
+		scheduler.close();
+		try {
+			second.get();
+			fail("Expected the queued command to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertTrue(scheduler.submit(echo("third"), Priority.URGENT).isCompletedExceptionally());
+		assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.fnet.mcrconapi.commands.Commands;
+import org.fnet.mcrconapi.commands.DataGetCommand;
+import org.fnet.mcrconapi.commands.PlayerList;
+import org.fnet.mcrconapi.commands.TimeQueryCommand.Query;
+import org.fnet.mcrconapi.commands.UnexpectedOutputException;
+import org.fnet.mcrconapi.server.CommandHandler;
+import org.fnet.mcrconapi.server.RConServer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class CommandsTest {
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(5, TimeUnit.SECONDS);
+
+	@Test
+	public void testCommandStrings() {
+		assertEquals("list", Commands.list().toCommandString());
+		assertEquals("list uuids", Commands.listUuids().toCommandString());
+		assertEquals("time query daytime", Commands.timeQuery(Query.DAYTIME).toCommandString());
+		assertEquals("time query gametime", Commands.timeQuery(Query.GAMETIME).toCommandString());
+		assertEquals("time query day", Commands.timeQuery(Query.DAY).toCommandString());
+		assertEquals("worldborder get", Commands.worldBorderGet().toCommandString());
+		assertEquals("scoreboard players get Notch Kills",
+				Commands.scoreboardPlayersGet("Notch", "Kills").toCommandString());
+		assertEquals("data get entity Notch", Commands.dataGetEntity("Notch").toCommandString());
+		assertEquals("data get entity @p Pos[0] 10",
+				Commands.dataGetEntity("@p").path("Pos[0]").scale(10).toCommandString());
+		assertEquals("data get block 1 -64 3 Items", Commands.dataGetBlock(1, -64, 3).path("Items").toCommandString());
+		assertEquals("data get storage minecraft:test a 0.5",
+				Commands.dataGetStorage("minecraft:test").path("a").scale(0.5).toCommandString());
+	}
+
+	@Test
+	public void testInvalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> Commands.scoreboardPlayersGet("Notch", "My Kills"));
+		assertThrows(IllegalArgumentException.class, () -> Commands.scoreboardPlayersGet("", "Kills"));
+		assertThrows(IllegalArgumentException.class, () -> Commands.dataGetEntity("Notch\nstop"));
+		assertThrows(IllegalStateException.class, () -> Commands.dataGetEntity("Notch").scale(2));
+	}
+
+	@Test
+	public void testParseList() throws Exception {
+		PlayerList players = Commands.list().parse("There are 3 of a max of 20 players online: Notch, jeb_, Dinnerbone");
+		assertEquals(3, players.getOnlineCount());
+		assertEquals(20, players.getMaxPlayers());
+		assertEquals(Arrays.asList("Notch", "jeb_", "Dinnerbone"), players.getPlayers());
+		assertEquals(Collections.emptyList(), players.getUuids());
+
+		players = Commands.list().parse("There are 0 of a max of 20 players online: ");
+		assertEquals(0, players.getOnlineCount());
+		assertEquals(Collections.emptyList(), players.getPlayers());
+
+		players = Commands.list().parse("There are 2/10 players online:\nNotch, jeb_");
+		assertEquals(2, players.getOnlineCount());
+		assertEquals(10, players.getMaxPlayers());
+		assertEquals(Arrays.asList("Notch", "jeb_"), players.getPlayers());
+
+		players = Commands.listUuids().parse("There are 1 of a max of 20 players online: "
+				+ "Notch (069a79f4-44e9-4726-a5be-fca90e38aaf5)");
+		assertEquals(Collections.singletonList("Notch"), players.getPlayers());
+		assertEquals(Collections.singletonList(UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5")),
+				players.getUuids());
+
+		assertThrows(UnexpectedOutputException.class, () -> Commands.list().parse("Unknown command"));
+		assertThrows(UnexpectedOutputException.class, () -> Commands.listUuids().parse(
+				"There are 1 of a max of 20 players online: Notch"));
+	}
+
+	@Test
+	public void testParseNumbers() throws Exception {
+		assertEquals(Long.valueOf(6000), Commands.timeQuery(Query.DAYTIME).parse("The time is 6000"));
+		assertEquals(Long.valueOf(8589934592L), Commands.timeQuery(Query.GAMETIME).parse("The time is 8589934592"));
+		assertEquals(59999968.0, Commands.worldBorderGet().parse("The world border is currently 59999968 blocks wide"),
+				0);
+		assertEquals(1.5, Commands.worldBorderGet().parse("The world border is currently 1.5 blocks wide"), 0);
+		assertEquals(Integer.valueOf(12), Commands.scoreboardPlayersGet("@p", "Kills").parse("Notch has 12 [Kills]"));
+		assertEquals(Integer.valueOf(-3),
+				Commands.scoreboardPlayersGet("Notch", "Balance").parse("Notch has -3 [Balance]"));
+
+		assertThrows(UnexpectedOutputException.class, () -> Commands.timeQuery(Query.DAY).parse("The time is"));
+		assertThrows(UnexpectedOutputException.class,
+				() -> Commands.timeQuery(Query.DAY).parse("The time is 99999999999999999999"));
+		// Wraps around to a positive number when checked with next < value
+		assertThrows(UnexpectedOutputException.class,
+				() -> Commands.timeQuery(Query.DAY).parse("The time is 21000000000000000000"));
+		assertThrows(UnexpectedOutputException.class,
+				() -> Commands.timeQuery(Query.DAY).parse("The time is 9223372036854775808"));
+		assertEquals(Long.valueOf(Long.MAX_VALUE),
+				Commands.timeQuery(Query.GAMETIME).parse("The time is 9223372036854775807"));
+		assertEquals(Long.valueOf(Long.MIN_VALUE),
+				Commands.timeQuery(Query.GAMETIME).parse("The time is -9223372036854775808"));
+		assertEquals(Integer.valueOf(Integer.MIN_VALUE),
+				Commands.scoreboardPlayersGet("Notch", "Balance").parse("Notch has -2147483648 [Balance]"));
+		assertThrows(UnexpectedOutputException.class,
+				() -> Commands.scoreboardPlayersGet("Notch", "Balance").parse("Notch has 2147483648 [Balance]"));
+		UnexpectedOutputException e = assertThrows(UnexpectedOutputException.class,
+				() -> Commands.scoreboardPlayersGet("Notch", "Kills").parse("Can't get value of Kills for Notch; none is set"));
+		assertEquals("Can't get value of Kills for Notch; none is set", e.getOutput());
+	}
+
+	@Test
+	public void testParseData() throws Exception {
+		assertEquals("20.0f", Commands.dataGetEntity("Notch").path("Health")
+				.parse("Notch has the following entity data: 20.0f"));
+		assertEquals("{Items: [], id: \"minecraft:chest\"}", Commands.dataGetBlock(0, 64, 0)
+				.parse("0, 64, 0 has the following block data: {Items: [], id: \"minecraft:chest\"}"));
+		assertEquals("{a: 1}", Commands.dataGetStorage("minecraft:test")
+				.parse("Storage minecraft:test has the following contents: {a: 1}"));
+		DataGetCommand scaled = Commands.dataGetEntity("Notch").path("Health").scale(10);
+		assertEquals("200", scaled.parse("Health on Notch after scale factor of 10.0 is 200"));
+
+		assertThrows(UnexpectedOutputException.class,
+				() -> Commands.dataGetEntity("Notch").parse("No entity was found"));
+		assertThrows(UnexpectedOutputException.class, () -> scaled.parse("Found no elements matching Health"));
+	}
+
+	@Test
+	public void testExecute() throws Exception {
+		CommandSender sender = command -> command.equals("time query day") ? "The time is 42" : "Unknown command";
+		assertEquals(Long.valueOf(42), Commands.timeQuery(Query.DAY).execute(sender));
+		assertThrows(UnexpectedOutputException.class, () -> Commands.worldBorderGet().execute(sender));
+	}
+
+	@Test
+	public void testExecuteAsync() throws Exception {
+		CommandHandler handler = CommandHandler.of((session, command) -> {
+			switch (command) {
+			case "list":
+				return "There are 1 of a max of 8 players online: Notch";
+			case "time query daytime":
+				return "The time is 1000";
+			default:
+				return "Unknown or incomplete command";
+			}
+		});
+		try (RConServer server = new RConServer("password", handler)) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try (RConClient client = new RConClient("127.0.0.1", server.getPort(), "password")) {
+				CompletableFuture<PlayerList> players = Commands.list().executeAsync(client);
+				CompletableFuture<Long> time = Commands.timeQuery(Query.DAYTIME).executeAsync(client);
+				CompletableFuture<Double> border = Commands.worldBorderGet().executeAsync(client);
+				assertEquals(Collections.singletonList("Notch"), players.get().getPlayers());
+				assertEquals(Long.valueOf(1000), time.get());
+				ExecutionException e = assertThrows(ExecutionException.class, border::get);
+				assertTrue(e.getCause() instanceof UnexpectedOutputException);
+			}
+		}
+	}
+
+}
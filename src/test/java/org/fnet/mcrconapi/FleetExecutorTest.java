@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class FleetExecutorTest {
+
+	private static RConTestServer rConTestServer;
+	private static RConEndpoint endpoint;
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(5, TimeUnit.SECONDS);
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		rConTestServer = new RConTestServer();
+		rConTestServer.start();
+		endpoint = new RConEndpoint("127.0.0.1", rConTestServer.getPort(), RConClientTest.PASSWORD);
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		rConTestServer.close();
+		rConTestServer = null;
+	}
+
+	@Test
+	public void testUsesVirtualThreadsIfAvailable() throws Exception {
+		boolean available = Arrays.stream(Executors.class.getMethods())
+				.anyMatch(method -> method.getName().equals("newVirtualThreadPerTaskExecutor"));
+		try (FleetExecutor fleet = new FleetExecutor()) {
+			assertEquals(available, fleet.isUsingVirtualThreads());
+		}
+		try (FleetExecutor fleet = new FleetExecutor(4, RConClientOptions.DEFAULT, false)) {
+			assertFalse(fleet.isUsingVirtualThreads());
+		}
+	}
+
+	@Test
+	public void testBroadcast() throws Exception {
+		List<RConEndpoint> targets = Collections.nCopies(50, endpoint);
+		ConcurrentLinkedQueue<FleetResult> streamed = new ConcurrentLinkedQueue<>();
+		try (FleetExecutor fleet = new FleetExecutor(8, RConClientOptions.DEFAULT, false)) {
+			List<FleetResult> results = fleet
+					.broadcast(targets, RConClientTest.SHORT_COMMAND_REQUEST, 2, TimeUnit.SECONDS, streamed::add)
+					.get();
+			assertEquals(50, results.size());
+			assertEquals(50, streamed.size());
+			for (FleetResult result : results) {
+				assertTrue(result.toString(), result.isSuccessful());
+				assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, result.getResponse());
+				assertEquals(endpoint, result.getEndpoint());
+			}
+		}
+	}
+
+	@Test
+	public void testBroadcastUsesPayloadCharset() throws Exception {
+		try (FleetExecutor fleet = new FleetExecutor(2, RConClientOptions.DEFAULT, false)) {
+			fleet.setPayloadCharset(StandardCharsets.ISO_8859_1);
+			FleetResult result = fleet.broadcast(Collections.singletonList(endpoint),
+					RConClientTest.UTF8_COMMAND_REQUEST, 2, TimeUnit.SECONDS).get().get(0);
+			assertTrue(result.toString(), result.isSuccessful());
+			// The test server answers in UTF-8, the session decodes it byte by
+			// byte
+			assertEquals(new String(RConClientTest.UTF8_COMMAND_RESPONSE.getBytes(StandardCharsets.UTF_8),
+					StandardCharsets.ISO_8859_1), result.getResponse());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEndpointRejectsInvalidPort() {
+		new RConEndpoint("127.0.0.1", 70000, "x");
+	}
+
+	@Test
+	public void testBroadcastCompletesIfSessionThrows() throws Exception {
+		// A null target makes the session fail with a runtime exception
+		try (FleetExecutor fleet = new FleetExecutor(2, RConClientOptions.DEFAULT, false)) {
+			List<FleetResult> results = fleet
+					.broadcast(Arrays.asList(endpoint, null), RConClientTest.SHORT_COMMAND_REQUEST, 2, TimeUnit.SECONDS)
+					.get(3, TimeUnit.SECONDS);
+			assertEquals(2, results.size());
+			int failed = 0;
+			for (FleetResult result : results) {
+				if (result.getEndpoint() == null) {
+					assertTrue(result.getError() instanceof NullPointerException);
+					failed++;
+				} else {
+					assertTrue(result.toString(), result.isSuccessful());
+				}
+			}
+			assertEquals(1, failed);
+		}
+	}
+
+	@Test
+	public void testBroadcastReportsFailingTargets() throws Exception {
+		int closedPort;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			closedPort = socket.getLocalPort();
+		}
+		RConEndpoint wrongPassword = new RConEndpoint("127.0.0.1", rConTestServer.getPort(), "wrong");
+		RConEndpoint unreachable = new RConEndpoint("127.0.0.1", closedPort, RConClientTest.PASSWORD);
+		try (FleetExecutor fleet = new FleetExecutor()) {
+			List<FleetResult> results = fleet.broadcast(Arrays.asList(endpoint, wrongPassword, unreachable),
+					RConClientTest.SHORT_COMMAND_REQUEST, 2, TimeUnit.SECONDS).get();
+			assertEquals(3, results.size());
+			for (FleetResult result : results) {
+				if (result.getEndpoint() == endpoint)
+					assertTrue(result.isSuccessful());
+				else if (result.getEndpoint() == wrongPassword)
+					assertTrue(result.getError() instanceof AuthenticationException);
+				else
+					assertFalse(result.isSuccessful());
+			}
+		}
+	}
+
+	@Test
+	public void testBroadcastTimeout() throws Exception {
+		try (FleetExecutor fleet = new FleetExecutor(2, RConClientOptions.DEFAULT, false)) {
+			List<FleetResult> results = fleet.broadcast(Collections.nCopies(4, endpoint),
+					RConClientTest.SILENT_COMMAND_REQUEST, 200, TimeUnit.MILLISECONDS).get();
+			assertEquals(4, results.size());
+			for (FleetResult result : results) {
+				assertTrue(result.getError() instanceof TimeoutException);
+				assertTrue(result.getDuration(TimeUnit.MILLISECONDS) < 1000);
+			}
+		}
+	}
+
+	@Test
+	public void testBroadcastToNoTargets() throws Exception {
+		try (FleetExecutor fleet = new FleetExecutor()) {
+			assertEquals(new ArrayList<>(), fleet.broadcast(Collections.emptyList(), "list", 1, TimeUnit.SECONDS).get());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testBroadcastThrowsExceptionIfClosed() {
+		FleetExecutor fleet = new FleetExecutor();
+		fleet.close();
+		fleet.broadcast(Collections.singletonList(endpoint), "list", 1, TimeUnit.SECONDS);
+	}
+
+}
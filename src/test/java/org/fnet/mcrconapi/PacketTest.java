@@ -5,16 +5,37 @@
 package org.fnet.mcrconapi;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.fnet.mcrconapi.packet.AtomicRequestIdGenerator;
 import org.fnet.mcrconapi.packet.ClientPacket;
 import org.fnet.mcrconapi.packet.Packet;
+import org.fnet.mcrconapi.packet.PacketEncoder;
 import org.fnet.mcrconapi.packet.PacketType;
+import org.fnet.mcrconapi.packet.PayloadDecoder;
+import org.fnet.mcrconapi.packet.RequestIdGenerator;
 import org.fnet.mcrconapi.packet.ServerPacket;
 import org.junit.Test;
 
@@ -71,9 +92,52 @@ public class PacketTest {
 
 	@Test
 	public void testAsciiEncoding() {
-		Packet packet = new ClientPacket(PacketType.AUTH, "üa");
-		assertNotEquals('ü', packet.getPayloadAsString().charAt(0));
-		assertEquals('a', packet.getPayloadAsString().charAt(1));
+		Packet packet = new ClientPacket(PacketType.AUTH, "\u00fca", StandardCharsets.US_ASCII);
+		assertNotEquals('\u00fc', packet.getPayloadAsString(StandardCharsets.US_ASCII).charAt(0));
+		assertEquals('a', packet.getPayloadAsString(StandardCharsets.US_ASCII).charAt(1));
+	}
+
+	@Test
+	public void testUtf8Encoding() {
+		Packet packet = new ClientPacket(PacketType.AUTH, "\u00fca\u20ac");
+		assertEquals(6, packet.getPayload().length);
+		assertEquals("\u00fca\u20ac", packet.getPayloadAsString());
+	}
+
+	@Test
+	public void testPayloadStringIsCached() {
+		Packet packet = new ServerPacket(PacketType.COMMAND_RESPONSE, "cached");
+		assertSame(packet.getPayloadAsString(), packet.getPayloadAsString());
+		packet.setPayload("changed");
+		assertEquals("changed", packet.getPayloadAsString());
+	}
+
+	@Test
+	public void testPayloadDecoderJoinsSplitCharacters() {
+		byte[] bytes = "a\u00fc\u20ac\ud83d\ude00b".getBytes(StandardCharsets.UTF_8);
+		for (int split = 0; split <= bytes.length; split++) {
+			PayloadDecoder decoder = new PayloadDecoder(StandardCharsets.UTF_8);
+			String first = decoder.decode(Arrays.copyOfRange(bytes, 0, split), false);
+			String second = decoder.decode(Arrays.copyOfRange(bytes, split, bytes.length), true);
+			assertEquals("a\u00fc\u20ac\ud83d\ude00b", first + second);
+		}
+	}
+
+	@Test
+	public void testPayloadDecoderReplacesIncompleteCharacterAtEnd() {
+		PayloadDecoder decoder = new PayloadDecoder(StandardCharsets.UTF_8);
+		byte[] bytes = "a\u20ac".getBytes(StandardCharsets.UTF_8);
+		assertEquals("a\ufffd", decoder.decode(Arrays.copyOf(bytes, 3), true));
+		assertEquals("b", decoder.decode(new byte[] { 'b' }, true));
+	}
+
+	@Test
+	public void testEncoderCharset() throws IOException {
+		PacketEncoder encoder = new PacketEncoder(StandardCharsets.ISO_8859_1);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		encoder.writeTo(stream, 3, PacketType.COMMAND, "\u00fc");
+		Packet packet = new ClientPacket(new ByteArrayInputStream(stream.toByteArray()));
+		assertArrayEquals(new byte[] { (byte) 0xFC }, packet.getPayload());
 	}
 
 	@Test
@@ -125,4 +189,224 @@ public class PacketTest {
 		}
 	}
 
+	@Test(expected = MalformedPacketException.class)
+	public void testReadFromThrowsExceptionIfLengthExceedsMaximum() throws IOException {
+		// A corrupt length must be rejected before the payload is allocated
+		byte[] packetData = new byte[] { -1, -1, -1, 127, 1, 0, 0, 0, 0, 0, 0, 0, 84, 101, 115, 116, 0, 0 };
+		try (ByteArrayInputStream inputStream = new ByteArrayInputStream(packetData);
+				DataInputStream dataStream = new DataInputStream(inputStream)) {
+			new ServerPacket(dataStream);
+		}
+	}
+
+	@Test
+	public void testDecodeIncrementally() throws IOException {
+		byte[] packetData = new byte[] { 14, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 84, 101, 115, 116, 0, 0 };
+		ByteBuffer buffer = ByteBuffer.allocate(packetData.length);
+		for (int i = 0; i < packetData.length - 1; i++) {
+			buffer.put(packetData[i]);
+			buffer.flip();
+			assertNull(ServerPacket.decode(buffer));
+			assertEquals(0, buffer.position());
+			buffer.position(buffer.limit());
+			buffer.limit(buffer.capacity());
+		}
+		buffer.put(packetData[packetData.length - 1]);
+		buffer.flip();
+		Packet packet = ServerPacket.decode(buffer);
+		assertNotNull(packet);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(1, packet.getRequestID());
+		assertEquals(PacketType.COMMAND_RESPONSE, packet.getType());
+		assertEquals("Test", packet.getPayloadAsString());
+	}
+
+	@Test
+	public void testWriteToBufferAndDecode() throws IOException {
+		Packet packet = new ClientPacket(PacketType.COMMAND, "say hi");
+		ByteBuffer buffer = ByteBuffer.allocate(packet.getLength() + 4);
+		packet.writeTo(buffer);
+		buffer.flip();
+		Packet decoded = ClientPacket.decode(buffer);
+		assertEquals(packet.getRequestID(), decoded.getRequestID());
+		assertEquals(PacketType.COMMAND, decoded.getType());
+		assertEquals("say hi", decoded.getPayloadAsString());
+	}
+
+	@Test(expected = MalformedPacketException.class)
+	public void testDecodeThrowsExceptionIfLengthTooShort() throws IOException {
+		ServerPacket.decode(ByteBuffer.wrap(new byte[] { 9, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0 }));
+	}
+
+	@Test
+	public void testEncoderMatchesWriteTo() throws IOException {
+		Packet packet = new ClientPacket(PacketType.COMMAND, "say Hello World");
+		try (ByteArrayOutputStream expected = new ByteArrayOutputStream();
+				ByteArrayOutputStream actual = new ByteArrayOutputStream()) {
+			packet.writeTo(expected);
+			new PacketEncoder().writeTo(actual, packet.getRequestID(), packet.getType(), "say Hello World");
+			assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+		}
+	}
+
+	@Test
+	public void testEncoderIntoBuffer() throws IOException {
+		PacketEncoder encoder = new PacketEncoder();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(encoder.maxFrameLength("Test"));
+		encoder.encode(1, PacketType.AUTH, "Test", buffer);
+		buffer.flip();
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		assertArrayEquals(new byte[] { 14, 0, 0, 0, 1, 0, 0, 0, 3, 0, 0, 0, 84, 101, 115, 116, 0, 0 }, data);
+	}
+
+	@Test
+	public void testEncoderSteadyStateDoesNotAllocate() throws IOException {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		assumeTrue(allocationBean.isThreadAllocatedMemorySupported()
+				&& allocationBean.isThreadAllocatedMemoryEnabled());
+		final String command = "scoreboard players set @a[team=red] points 42";
+		final int iterations = 200_000;
+		PacketEncoder encoder = new PacketEncoder();
+		OutputStream sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+		// Warm up so the encoder buffers have grown and the JIT compiled the
+		// send path
+		for (int i = 0; i < iterations; i++)
+			encoder.writeTo(sink, i, PacketType.COMMAND, command);
+		long threadId = Thread.currentThread().getId();
+		long before = allocationBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < iterations; i++)
+			encoder.writeTo(sink, i, PacketType.COMMAND, command);
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+		// Allow a little slack for the measurement itself
+		assertTrue("Encoder allocated " + allocated + " bytes", allocated < 4096);
+	}
+
+	@Test
+	public void testSocketTransportSendPath() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				SocketTransport transport = new SocketTransport("127.0.0.1", server.getLocalPort(),
+						RConClientOptions.DEFAULT);
+				Socket peer = server.accept()) {
+			assertSendPath(transport, peer);
+		}
+	}
+
+	@Test
+	public void testChannelTransportSendPath() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				RConEventLoop eventLoop = new RConEventLoop(1)) {
+			try (ChannelTransport transport = eventLoop
+					.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()), RConClientOptions.DEFAULT).get();
+					Socket peer = server.accept()) {
+				assertSendPath(transport, peer);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a transport sends the frames of the packet encoder and that
+	 * encoding and flushing don't allocate once its buffers have grown
+	 */
+	private static void assertSendPath(Transport transport, Socket peer) throws Exception {
+		final String command = "scoreboard players set @a[team=red] points 42";
+		final int iterations = 20_000;
+		Packet packet = new ClientPacket(PacketType.COMMAND, command);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		packet.writeTo(expected);
+		transport.encode(packet.getRequestID(), PacketType.COMMAND, command);
+		transport.encode(packet.getRequestID(), PacketType.COMMAND, command);
+		transport.flush();
+		byte[] received = new byte[expected.size() * 2];
+		new DataInputStream(peer.getInputStream()).readFully(received);
+		assertArrayEquals(expected.toByteArray(), Arrays.copyOf(received, expected.size()));
+		assertArrayEquals(expected.toByteArray(), Arrays.copyOfRange(received, expected.size(), received.length));
+
+		long total = (long) expected.size() * iterations * 2;
+		ExecutorService drain = Executors.newSingleThreadExecutor();
+		try {
+			Future<Long> drained = drain.submit(() -> {
+				byte[] buffer = new byte[65536];
+				long count = 0;
+				int read;
+				while (count < total && (read = peer.getInputStream().read(buffer)) != -1)
+					count += read;
+				return count;
+			});
+			// Warm up so the write buffer has grown and the JIT compiled the
+			// send path
+			for (int i = 0; i < iterations; i++) {
+				transport.encode(i, PacketType.COMMAND, command);
+				transport.flush();
+			}
+			long before = allocatedBytes();
+			for (int i = 0; i < iterations; i++) {
+				transport.encode(i, PacketType.COMMAND, command);
+				transport.flush();
+			}
+			long allocated = allocatedBytes() - before;
+			// Allow a little slack for the measurement itself
+			if (before != -1)
+				assertTrue("Send path allocated " + allocated + " bytes", allocated < 4096);
+			assertEquals(total, (long) drained.get());
+		} finally {
+			drain.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread so far, or -1 if the
+	 * JVM can't measure them
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	public void testRequestIdGeneratorWrapsAround() {
+		RequestIdGenerator generator = new AtomicRequestIdGenerator(Integer.MAX_VALUE);
+		assertEquals(Integer.MAX_VALUE, generator.nextRequestID());
+		assertEquals(1, generator.nextRequestID());
+		assertEquals(2, generator.nextRequestID());
+	}
+
+	@Test
+	public void testRequestIdGeneratorIsUniqueAcrossThreads() throws Exception {
+		final int threads = 8, idsPerThread = 50_000;
+		RequestIdGenerator generator = new AtomicRequestIdGenerator();
+		Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < idsPerThread; i++)
+						assertTrue("Duplicate request ID", ids.add(generator.nextRequestID()));
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(threads * idsPerThread, ids.size());
+		assertFalse(ids.contains(Packet.REQUEST_ID_AUTH_FAIL));
+	}
+
 }
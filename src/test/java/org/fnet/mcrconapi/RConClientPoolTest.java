@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class RConClientPoolTest {
+
+	private static RConTestServer rConTestServer;
+	private static RConEndpoint endpoint;
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(2, TimeUnit.SECONDS);
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		rConTestServer = new RConTestServer();
+		rConTestServer.start();
+		endpoint = new RConEndpoint("127.0.0.1", rConTestServer.getPort(), RConClientTest.PASSWORD);
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		rConTestServer.close();
+		rConTestServer = null;
+	}
+
+	@Test
+	public void testBorrowReusesReleasedClient() throws IOException, AuthenticationException {
+		try (RConClientPool pool = new RConClientPool()) {
+			RConClient client = pool.borrow(endpoint);
+			assertTrue(client.isAuthenticated());
+			pool.release(endpoint, client);
+			assertEquals(1, pool.getIdleCount(endpoint));
+			assertSame(client, pool.borrow(endpoint));
+			assertEquals(0, pool.getIdleCount(endpoint));
+		}
+	}
+
+	@Test
+	public void testWithClient() throws IOException, AuthenticationException {
+		try (RConClientPool pool = new RConClientPool()) {
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE,
+					pool.withClient(endpoint, client -> client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST)));
+			assertEquals(1, pool.getIdleCount(endpoint));
+		}
+	}
+
+	@Test
+	public void testReleaseClosesClientsBeyondMaxIdle() throws IOException, AuthenticationException {
+		try (RConClientPool pool = new RConClientPool(0, 1, 1, TimeUnit.MINUTES)) {
+			RConClient first = pool.borrow(endpoint);
+			RConClient second = pool.borrow(endpoint);
+			pool.release(endpoint, first);
+			pool.release(endpoint, second);
+			assertEquals(1, pool.getIdleCount(endpoint));
+			assertFalse(second.isConnected());
+		}
+	}
+
+	@Test
+	public void testBorrowSkipsClosedClients() throws IOException, AuthenticationException {
+		try (RConClientPool pool = new RConClientPool()) {
+			RConClient client = pool.borrow(endpoint);
+			pool.release(endpoint, client);
+			client.close();
+			RConClient replacement = pool.borrow(endpoint);
+			assertNotSame(client, replacement);
+			assertTrue(replacement.isConnected());
+		}
+	}
+
+	@Test
+	public void testMaintenanceKeepsMinIdleSessions() throws Exception {
+		try (RConClientPool pool = new RConClientPool(2, 4, 20, TimeUnit.MILLISECONDS)) {
+			pool.setHealthCheckCommand(RConClientTest.SHORT_COMMAND_REQUEST);
+			RConClient client = pool.borrow(endpoint);
+			client.close();
+			pool.release(endpoint, client);
+			while (pool.getIdleCount(endpoint) < 2)
+				Thread.sleep(10);
+			RConClient pooled = pool.borrow(endpoint);
+			assertTrue(pooled.isAuthenticated());
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, pooled.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testHealthCheckClosesSessionsThatDontAnswer() throws Exception {
+		try (RConClientPool pool = new RConClientPool(1, 4, 20, TimeUnit.MILLISECONDS)) {
+			pool.setHealthCheckCommand(RConClientTest.SILENT_COMMAND_REQUEST);
+			pool.setHealthCheckTimeout(50, TimeUnit.MILLISECONDS);
+			RConClient client = pool.borrow(endpoint);
+			pool.release(endpoint, client);
+			while (client.isConnected())
+				Thread.sleep(10);
+			// The stalled session is replaced to keep minIdle sessions
+			while (pool.getIdleCount(endpoint) < 1)
+				Thread.sleep(10);
+			assertNotSame(client, pool.borrow(endpoint));
+		}
+	}
+
+	@Test
+	public void testHealthCheckKeepsReadTimeout() throws Exception {
+		try (RConClientPool pool = new RConClientPool(0, 4, 200, TimeUnit.MILLISECONDS)) {
+			pool.setHealthCheckCommand(RConClientTest.SHORT_COMMAND_REQUEST);
+			pool.setClientOptions(RConClientOptions.builder().readTimeout(100, TimeUnit.MILLISECONDS).build());
+			RConClient client = pool.borrow(endpoint);
+			pool.release(endpoint, client);
+			// The probe switches the session to pipelined mode
+			while (!client.isPipelined() || pool.getIdleCount(endpoint) < 1)
+				Thread.sleep(10);
+			RConClient pooled = pool.borrow(endpoint);
+			assertSame(client, pooled);
+			assertThrows(SocketTimeoutException.class, () -> pooled.sendCommand(RConClientTest.SILENT_COMMAND_REQUEST));
+			pool.invalidate(pooled);
+		}
+	}
+
+}
@@ -7,8 +7,20 @@ package org.fnet.mcrconapi;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.fnet.mcrconapi.metrics.RConMetrics;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -20,12 +32,42 @@ public class RConClientTest {
 	static final String PASSWORD = "rbfH3x";
 	static final String SHORT_COMMAND_RESPONSE = "shortresponse";
 	static final String SHORT_COMMAND_REQUEST = "shortrequest";
+	static final String SILENT_COMMAND_REQUEST = "silentrequest";
+	static final String ECHO_COMMAND_PREFIX = "echo ";
+	static final String DISCONNECT_COMMAND_REQUEST = "disconnectrequest";
+	static final String LARGE_COMMAND_REQUEST = "largerequest";
+	static final String LARGE_COMMAND_RESPONSE = createLargeResponse(16);
+	static final String EXACT_FRAGMENT_COMMAND_REQUEST = "exactrequest";
+	static final String EXACT_FRAGMENT_COMMAND_RESPONSE = LARGE_COMMAND_RESPONSE.substring(0,
+			RConTestServer.FRAGMENT_PAYLOAD_LENGTH * 2);
+	static final String UTF8_COMMAND_REQUEST = "utf8request";
+	static final String UTF8_COMMAND_RESPONSE = createUtf8Response();
 	private static RConTestServer rConTestServer;
 	private static int rconPort;
 	
 	@Rule
 	public Timeout globalTimeout = new Timeout(2, TimeUnit.SECONDS);
 
+	private static String createLargeResponse(int fragments) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < RConTestServer.FRAGMENT_PAYLOAD_LENGTH * fragments + 42; i++)
+			builder.append((char) ('a' + i % 26));
+		return builder.toString();
+	}
+
+	/**
+	 * Creates an output whose multi-byte characters end up split across
+	 * fragments
+	 */
+	private static String createUtf8Response() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < RConTestServer.FRAGMENT_PAYLOAD_LENGTH - 1; i++)
+			builder.append('a');
+		for (int i = 0; i < 1000; i++)
+			builder.append("\u00a7cGr\u00fc\u00dfe \u20ac\u2713 ");
+		return builder.toString();
+	}
+
 	@BeforeClass
 	public static void setUp() throws Exception {
 		rConTestServer = new RConTestServer();
@@ -69,6 +111,22 @@ public class RConClientTest {
 		}
 	}
 
+	@Test
+	public void testSendCommandLargeResponse() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort)) {
+			client.authenticate(PASSWORD);
+			assertEquals(LARGE_COMMAND_RESPONSE, client.sendCommand(LARGE_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testRepeatedLargeResponses() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			for (int i = 0; i < 20; i++)
+				assertEquals(LARGE_COMMAND_RESPONSE, client.sendCommand(LARGE_COMMAND_REQUEST));
+		}
+	}
+
 	@Test(expected = InvalidPacketException.class)
 	public void testSendCommandThrowsExceptionOnUnknownCommand() throws IOException, AuthenticationException {
 		try (RConClient client = new RConClient("127.0.0.1", rconPort)) {
@@ -77,4 +135,358 @@ public class RConClientTest {
 		}
 	}
 
+	@Test
+	public void testPipelinedCommandFailsIfReaderThreadDies() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.enablePipelining();
+			client.setMetrics(new RConMetrics() {
+				@Override
+				public void bytesReceived(long bytes) {
+					throw new IllegalStateException("Broken metrics");
+				}
+			});
+			CompletableFuture<String> response = client.sendCommandAsync(SHORT_COMMAND_REQUEST);
+			ExecutionException e = assertThrows(ExecutionException.class, response::get);
+			assertTrue(e.getCause() instanceof IOException);
+			assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testPipelinedBlockingCommandUsesReadTimeout() throws Exception {
+		RConClientOptions options = RConClientOptions.builder().readTimeout(100, TimeUnit.MILLISECONDS).build();
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD, options)) {
+			client.enablePipelining();
+			assertThrows(SocketTimeoutException.class, () -> client.sendCommand(SILENT_COMMAND_REQUEST));
+			// Responses are routed by request ID, so the connection stays usable
+			assertTrue(client.isConnected());
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommand(SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testPipelinedConcurrentCommands() throws Exception {
+		final int threads = 8, commandsPerThread = 50;
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.enablePipelining();
+			assertTrue(client.isPipelined());
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<?>> futures = new ArrayList<>();
+				for (int t = 0; t < threads; t++) {
+					final int thread = t;
+					futures.add(executor.submit(() -> {
+						for (int i = 0; i < commandsPerThread; i++) {
+							String expected = thread + "-" + i;
+							assertEquals(expected, client.sendCommand(ECHO_COMMAND_PREFIX + expected));
+							if (i % 10 == 0)
+								assertEquals(LARGE_COMMAND_RESPONSE, client.sendCommand(LARGE_COMMAND_REQUEST));
+						}
+						return null;
+					}));
+				}
+				for (Future<?> future : futures)
+					future.get();
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	@Test(expected = InvalidPacketException.class)
+	public void testPipelinedSendCommandThrowsExceptionOnUnknownCommand() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.enablePipelining();
+			client.sendCommand("unknownCommand");
+		}
+	}
+
+	@Test
+	public void testAuthenticateAsync() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort)) {
+			client.authenticateAsync(PASSWORD).get();
+			assertTrue(client.isAuthenticated());
+			assertTrue(client.isPipelined());
+		}
+	}
+
+	@Test
+	public void testAuthenticateAsyncCompletesExceptionallyOnWrongPassword() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort)) {
+			try {
+				client.authenticateAsync("wrongPassword").get();
+				fail("Authentication with wrong password succeeded");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof AuthenticationException);
+				assertEquals(AuthenticationException.ErrorType.WRONG_PASSWORD,
+						((AuthenticationException) e.getCause()).getType());
+			}
+			assertFalse(client.isAuthenticated());
+		}
+	}
+
+	@Test
+	public void testSendCommandAsync() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort)) {
+			CompletableFuture<String> response = client.authenticateAsync(PASSWORD)
+					.thenCompose(ignored -> client.sendCommandAsync(SHORT_COMMAND_REQUEST));
+			assertEquals(SHORT_COMMAND_RESPONSE, response.get());
+		}
+	}
+
+	@Test
+	public void testSendCommandAsyncCompletesExceptionallyIfNotAuthenticated() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort)) {
+			try {
+				client.sendCommandAsync(SHORT_COMMAND_REQUEST).get();
+				fail("Command was sent without authentication");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof AuthenticationException);
+			}
+		}
+	}
+
+	@Test
+	public void testSendCommandAsyncCompletesExceptionallyOnUnknownCommand() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			try {
+				client.sendCommandAsync("unknownCommand").get();
+				fail("Empty response was accepted");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof InvalidPacketException);
+			}
+		}
+	}
+
+	@Test
+	public void testSendCommandAsyncTimeout() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			try {
+				client.sendCommandAsync(SILENT_COMMAND_REQUEST, 50, TimeUnit.MILLISECONDS).get();
+				fail("Command without response did not time out");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommandAsync(SHORT_COMMAND_REQUEST).get());
+		}
+	}
+
+	@Test
+	public void testSendCommandAsyncCancel() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			CompletableFuture<String> cancelled = client.sendCommandAsync(SILENT_COMMAND_REQUEST);
+			cancelled.cancel(false);
+			assertTrue(cancelled.isCancelled());
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommandAsync(SHORT_COMMAND_REQUEST).get());
+		}
+	}
+
+	@Test
+	public void testSentinelTermination() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.setResponseTermination(ResponseTermination.SENTINEL);
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommand(SHORT_COMMAND_REQUEST));
+			assertEquals(LARGE_COMMAND_RESPONSE, client.sendCommand(LARGE_COMMAND_REQUEST));
+			assertEquals(EXACT_FRAGMENT_COMMAND_RESPONSE, client.sendCommand(EXACT_FRAGMENT_COMMAND_REQUEST));
+			assertEquals("", client.sendCommand("unknownCommand"));
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommand(SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testPipelinedSentinelTermination() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.setResponseTermination(ResponseTermination.SENTINEL);
+			client.enablePipelining();
+			CompletableFuture<String> exact = client.sendCommandAsync(EXACT_FRAGMENT_COMMAND_REQUEST);
+			CompletableFuture<String> large = client.sendCommandAsync(LARGE_COMMAND_REQUEST);
+			CompletableFuture<String> empty = client.sendCommandAsync("unknownCommand");
+			assertEquals(EXACT_FRAGMENT_COMMAND_RESPONSE, exact.get());
+			assertEquals(LARGE_COMMAND_RESPONSE, large.get());
+			assertEquals("", empty.get());
+		}
+	}
+
+	@Test
+	public void testSendBatch() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			assertBatchResults(client.sendBatch(createBatch(200)));
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommand(SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testSendBatchSmallChunks() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			assertBatchResults(client.sendBatch(createBatch(10), 3));
+		}
+	}
+
+	@Test
+	public void testPipelinedSendBatch() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.enablePipelining();
+			assertBatchResults(client.sendBatch(createBatch(200)));
+		}
+	}
+
+	@Test
+	public void testSentinelSendBatch() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.setResponseTermination(ResponseTermination.SENTINEL);
+			assertBatchResults(client.sendBatch(createBatch(20), 7));
+		}
+	}
+
+	@Test
+	public void testSendBatchReportsFailedCommands() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			List<CommandResult> results = client
+					.sendBatch(Arrays.asList(SHORT_COMMAND_REQUEST, "unknownCommand", LARGE_COMMAND_REQUEST));
+			assertEquals(3, results.size());
+			assertEquals(SHORT_COMMAND_RESPONSE, results.get(0).getResponse());
+			assertFalse(results.get(1).isSuccessful());
+			assertEquals("unknownCommand", results.get(1).getCommand());
+			assertTrue(results.get(1).getError() instanceof InvalidPacketException);
+			assertEquals(LARGE_COMMAND_RESPONSE, results.get(2).getResponse());
+		}
+	}
+
+	@Test(expected = AuthenticationException.class)
+	public void testSendBatchThrowsExceptionIfNotAuthenticated() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort)) {
+			client.sendBatch(Arrays.asList(SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testClientOptions() throws IOException, AuthenticationException {
+		RConClientOptions options = RConClientOptions.builder().connectTimeout(1, TimeUnit.SECONDS)
+				.readTimeout(1, TimeUnit.SECONDS).keepAlive(true).sendBufferSize(32 * 1024)
+				.receiveBufferSize(128 * 1024).inputBufferSize(1024).build();
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD, options)) {
+			assertEquals(LARGE_COMMAND_RESPONSE, client.sendCommand(LARGE_COMMAND_REQUEST));
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommand(SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testUnbufferedInput() throws IOException, AuthenticationException {
+		RConClientOptions options = RConClientOptions.builder().bufferedInput(false).tcpNoDelay(false).build();
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD, options)) {
+			assertEquals(LARGE_COMMAND_RESPONSE, client.sendCommand(LARGE_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testReadTimeoutClosesConnection() throws IOException, AuthenticationException {
+		RConClientOptions options = RConClientOptions.builder().readTimeout(100, TimeUnit.MILLISECONDS).build();
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD, options)) {
+			try {
+				client.sendCommand(SILENT_COMMAND_REQUEST);
+				fail("Expected a SocketTimeoutException");
+			} catch (SocketTimeoutException e) {
+				assertFalse(client.isConnected());
+			}
+		}
+	}
+
+	@Test
+	public void testReadTimeoutDoesNotApplyToPipelinedMode() throws Exception {
+		RConClientOptions options = RConClientOptions.builder().readTimeout(50, TimeUnit.MILLISECONDS).build();
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD, options)) {
+			client.enablePipelining();
+			Thread.sleep(150);
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommandAsync(SHORT_COMMAND_REQUEST).get());
+		}
+	}
+
+	@Test
+	public void testStreamCommand() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			List<String> fragments = new ArrayList<>();
+			assertEquals(LARGE_COMMAND_RESPONSE.length(), client.streamCommand(LARGE_COMMAND_REQUEST, fragments::add));
+			assertEquals(17, fragments.size());
+			assertEquals(LARGE_COMMAND_RESPONSE, String.join("", fragments));
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommand(SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testStreamCommandAsync() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			StringBuilder builder = new StringBuilder();
+			CompletableFuture<Long> length = client.streamCommandAsync(LARGE_COMMAND_REQUEST, builder::append);
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommandAsync(SHORT_COMMAND_REQUEST).get());
+			assertEquals(LARGE_COMMAND_RESPONSE.length(), (long) length.get());
+			assertEquals(LARGE_COMMAND_RESPONSE, builder.toString());
+		}
+	}
+
+	@Test
+	public void testStreamCommandRethrowsConsumerException() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			try {
+				client.streamCommand(LARGE_COMMAND_REQUEST, fragment -> {
+					throw new IllegalStateException("consumer failed");
+				});
+				fail("Expected the exception of the consumer");
+			} catch (IllegalStateException e) {
+				assertEquals("consumer failed", e.getMessage());
+			}
+			// The rest of the output was discarded
+			assertEquals(SHORT_COMMAND_RESPONSE, client.sendCommand(SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testSentinelStreamCommand() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.setResponseTermination(ResponseTermination.SENTINEL);
+			StringBuilder builder = new StringBuilder();
+			client.streamCommand(EXACT_FRAGMENT_COMMAND_REQUEST, builder::append);
+			assertEquals(EXACT_FRAGMENT_COMMAND_RESPONSE, builder.toString());
+		}
+	}
+
+	@Test
+	public void testUtf8Payloads() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			assertEquals(UTF8_COMMAND_RESPONSE, client.sendCommand(UTF8_COMMAND_REQUEST));
+			assertEquals("Gr\u00fc\u00dfe \u20ac", client.sendCommand(ECHO_COMMAND_PREFIX + "Gr\u00fc\u00dfe \u20ac"));
+		}
+	}
+
+	@Test
+	public void testPipelinedUtf8Payloads() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.setResponseTermination(ResponseTermination.SENTINEL);
+			assertEquals(UTF8_COMMAND_RESPONSE, client.sendCommandAsync(UTF8_COMMAND_REQUEST).get());
+		}
+	}
+
+	@Test
+	public void testPayloadCharset() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, PASSWORD)) {
+			client.setPayloadCharset(StandardCharsets.US_ASCII);
+			assertEquals(StandardCharsets.US_ASCII, client.getPayloadCharset());
+			assertEquals("Gr??e", client.sendCommand(ECHO_COMMAND_PREFIX + "Gr\u00fc\u00dfe"));
+		}
+	}
+
+	private static List<String> createBatch(int size) {
+		List<String> commands = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			commands.add(i % 10 == 0 ? LARGE_COMMAND_REQUEST : ECHO_COMMAND_PREFIX + i);
+		return commands;
+	}
+
+	private static void assertBatchResults(List<CommandResult> results) {
+		for (int i = 0; i < results.size(); i++) {
+			CommandResult result = results.get(i);
+			assertTrue(result.toString(), result.isSuccessful());
+			assertEquals(i % 10 == 0 ? LARGE_COMMAND_RESPONSE : String.valueOf(i), result.getResponse());
+		}
+	}
+
 }
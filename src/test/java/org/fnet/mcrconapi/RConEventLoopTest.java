@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fnet.mcrconapi.metrics.RConMetrics;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class RConEventLoopTest {
+
+	private static RConTestServer rConTestServer;
+	private static int rconPort;
+	private RConEventLoop eventLoop;
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(5, TimeUnit.SECONDS);
+
+	@BeforeClass
+	public static void setUpServer() throws Exception {
+		rConTestServer = new RConTestServer();
+		rConTestServer.start();
+		rconPort = rConTestServer.getPort();
+	}
+
+	@AfterClass
+	public static void tearDownServer() throws Exception {
+		rConTestServer.close();
+		rConTestServer = null;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		eventLoop = new RConEventLoop(2);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		eventLoop.close();
+	}
+
+	@Test
+	public void testSendCommand() throws IOException, AuthenticationException {
+		try (RConClient client = new RConClient(eventLoop, "127.0.0.1", rconPort)) {
+			assertTrue(client.isPipelined());
+			client.authenticate(RConClientTest.PASSWORD);
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			assertEquals(RConClientTest.LARGE_COMMAND_RESPONSE, client.sendCommand(RConClientTest.LARGE_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testManyConnections() throws Exception {
+		final int connections = 64;
+		List<CompletableFuture<String>> responses = new ArrayList<>();
+		List<RConClient> clients = new ArrayList<>();
+		for (int i = 0; i < connections; i++) {
+			final String expected = "client-" + i;
+			responses.add(RConClient.connect(eventLoop, "127.0.0.1", rconPort).thenCompose(client -> {
+				synchronized (clients) {
+					clients.add(client);
+				}
+				return client.authenticateAsync(RConClientTest.PASSWORD)
+						.thenCompose(ignored -> client.sendCommandAsync(RConClientTest.ECHO_COMMAND_PREFIX + expected));
+			}));
+		}
+		try {
+			for (int i = 0; i < connections; i++)
+				assertEquals("client-" + i, responses.get(i).get());
+		} finally {
+			for (RConClient client : clients)
+				client.close();
+		}
+	}
+
+	@Test
+	public void testCloseFailsPendingResponses() throws Exception {
+		RConClient client = new RConClient(eventLoop, "127.0.0.1", rconPort, RConClientTest.PASSWORD);
+		CompletableFuture<String> response = client.sendCommandAsync(RConClientTest.SILENT_COMMAND_REQUEST);
+		eventLoop.close();
+		try {
+			response.get();
+			fail("Response completed after the event loop was closed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void testConnectFailsAfterClose() throws IOException {
+		eventLoop.close();
+		assertThrows(IOException.class, () -> new RConClient(eventLoop, "127.0.0.1", rconPort));
+	}
+
+	@Test
+	public void testFailingHandlerOnlyAbortsItsConnection() throws Exception {
+		try (RConEventLoop single = new RConEventLoop(1);
+				RConClient broken = new RConClient(single, "127.0.0.1", rconPort, RConClientTest.PASSWORD);
+				RConClient healthy = new RConClient(single, "127.0.0.1", rconPort, RConClientTest.PASSWORD)) {
+			broken.setMetrics(new RConMetrics() {
+				@Override
+				public void bytesReceived(long bytes) {
+					throw new IllegalStateException("Broken metrics");
+				}
+			});
+			ExecutionException e = assertThrows(ExecutionException.class,
+					() -> broken.sendCommandAsync(RConClientTest.SHORT_COMMAND_REQUEST).get());
+			assertTrue(e.getCause() instanceof IOException);
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE,
+					healthy.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testFailedAuthenticationClosesConnection() throws Exception {
+		assertThrows(AuthenticationException.class,
+				() -> new RConClient(eventLoop, "127.0.0.1", rconPort, "wrong" + RConClientTest.PASSWORD));
+		while (rConTestServer.getSessionCount() > 0)
+			Thread.sleep(10);
+	}
+
+	@Test
+	public void testAppliesClientOptions() throws Exception {
+		AtomicLong sent = new AtomicLong();
+		RConClientOptions options = RConClientOptions.builder().readTimeout(100, TimeUnit.MILLISECONDS)
+				.metrics(new RConMetrics() {
+					@Override
+					public void bytesSent(long bytes) {
+						sent.addAndGet(bytes);
+					}
+				}).build();
+		try (RConClient client = new RConClient(eventLoop, "127.0.0.1", rconPort, RConClientTest.PASSWORD,
+				options)) {
+			assertTrue(sent.get() > 0);
+			assertThrows(SocketTimeoutException.class,
+					() -> client.sendCommand(RConClientTest.SILENT_COMMAND_REQUEST));
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+		}
+	}
+
+}
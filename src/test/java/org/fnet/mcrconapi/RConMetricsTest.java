@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.fnet.mcrconapi.metrics.Histogram;
+import org.fnet.mcrconapi.metrics.RConMetricsRecorder;
+import org.fnet.mcrconapi.metrics.RConMetricsSnapshot;
+import org.fnet.mcrconapi.packet.Packet;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class RConMetricsTest {
+
+	private static RConTestServer rConTestServer;
+	private static int rconPort;
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(5, TimeUnit.SECONDS);
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		rConTestServer = new RConTestServer();
+		rConTestServer.start();
+		rconPort = rConTestServer.getPort();
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		rConTestServer.close();
+		rConTestServer = null;
+	}
+
+	@Test
+	public void testHistogramPercentiles() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 10000; i++)
+			histogram.record(i);
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(10000, snapshot.getCount());
+		assertEquals(1, snapshot.getMin());
+		assertEquals(10000, snapshot.getMax());
+		assertEquals(5000.5, snapshot.getMean(), 0.001);
+		double precision = 1.0 / Histogram.SUB_BUCKETS;
+		assertEquals(5000, snapshot.getValueAtPercentile(50), 5000 * precision);
+		assertEquals(9900, snapshot.getValueAtPercentile(99), 9900 * precision);
+		assertEquals(10000, snapshot.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testHistogramSmallValuesAreExact() {
+		Histogram histogram = new Histogram();
+		for (int i = 0; i < Histogram.SUB_BUCKETS; i++)
+			histogram.record(i);
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		for (int i = 1; i < Histogram.SUB_BUCKETS; i++)
+			assertEquals(i - 1, snapshot.getValueAtPercentile(100.0 * i / Histogram.SUB_BUCKETS));
+		histogram = new Histogram();
+		histogram.record(-5);
+		assertEquals(0, histogram.snapshot().getMax());
+	}
+
+	@Test
+	public void testRecordsClientActivity() throws Exception {
+		RConMetricsRecorder recorder = new RConMetricsRecorder();
+		RConClientOptions options = RConClientOptions.builder().metrics(recorder).build();
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, RConClientTest.PASSWORD, options)) {
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			assertEquals(RConClientTest.LARGE_COMMAND_RESPONSE, client.sendCommand(RConClientTest.LARGE_COMMAND_REQUEST));
+			try {
+				client.sendCommand("unknownCommand");
+				fail("Expected an InvalidPacketException");
+			} catch (InvalidPacketException e) {
+				// Expected
+			}
+		}
+		RConMetricsSnapshot snapshot = recorder.snapshot();
+		assertEquals(1, snapshot.getConnectDurations().getCount());
+		assertEquals(1, snapshot.getAuthenticationDurations().getCount());
+		assertEquals(2, snapshot.getCommandLatencies().getCount());
+		int largeFragments = (RConClientTest.LARGE_COMMAND_RESPONSE.getBytes(Packet.DEFAULT_PAYLOAD_CHARSET).length
+				+ RConTestServer.FRAGMENT_PAYLOAD_LENGTH - 1) / RConTestServer.FRAGMENT_PAYLOAD_LENGTH;
+		assertEquals(1, snapshot.getFragmentsPerResponse().getMin());
+		assertEquals(largeFragments, snapshot.getFragmentsPerResponse().getMax());
+		assertEquals(1, snapshot.getInvalidPackets());
+		assertEquals(0, snapshot.getFailedCommands());
+		assertTrue(snapshot.getBytesSent() > 0);
+		assertTrue(snapshot.getBytesReceived() > RConClientTest.LARGE_COMMAND_RESPONSE.length());
+	}
+
+	@Test
+	public void testRecordsPipelinedCommands() throws Exception {
+		RConMetricsRecorder recorder = new RConMetricsRecorder();
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, RConClientTest.PASSWORD)) {
+			client.setMetrics(recorder);
+			client.enablePipelining();
+			for (int i = 0; i < 10; i++)
+				client.sendCommandAsync(RConClientTest.ECHO_COMMAND_PREFIX + i).get();
+		}
+		RConMetricsSnapshot snapshot = recorder.snapshot();
+		assertEquals(10, snapshot.getCommandLatencies().getCount());
+		assertEquals(0, snapshot.getConnectDurations().getCount());
+		assertTrue(snapshot.getBytesReceived() > 0);
+	}
+
+	@Test
+	public void testRecordsAuthenticationFailures() throws Exception {
+		RConMetricsRecorder recorder = new RConMetricsRecorder();
+		RConClientOptions options = RConClientOptions.builder().metrics(recorder).build();
+		try (RConClient client = new RConClient("127.0.0.1", rconPort, options)) {
+			try {
+				client.authenticate("wrong");
+				fail("Expected an AuthenticationException");
+			} catch (AuthenticationException e) {
+				assertEquals(AuthenticationException.ErrorType.WRONG_PASSWORD, e.getType());
+			}
+		}
+		assertEquals(1, recorder.snapshot().getAuthenticationFailures());
+		assertEquals(0, recorder.snapshot().getAuthenticationDurations().getCount());
+	}
+
+	@Test
+	public void testRegistersMBean() throws Exception {
+		RConMetricsRecorder recorder = new RConMetricsRecorder();
+		ObjectName name = recorder.registerMBean("metrics-test");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			recorder.commandCompleted(TimeUnit.MILLISECONDS.toNanos(2), 3);
+			assertEquals(1L, server.getAttribute(name, "CommandCount"));
+			assertEquals(3.0, (Double) server.getAttribute(name, "FragmentsPerResponseMean"), 0.001);
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fnet.mcrconapi.server.RConProxy;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class RConProxyTest {
+
+	private static final String PROXY_PASSWORD = "proxy-test";
+	private static final ReconnectPolicy FAST_POLICY = ReconnectPolicy.builder()
+			.initialDelay(10, TimeUnit.MILLISECONDS).maxDelay(50, TimeUnit.MILLISECONDS).build();
+
+	private static RConTestServer rConTestServer;
+	private static RConEndpoint upstream;
+	private RConProxy proxy;
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(10, TimeUnit.SECONDS);
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		rConTestServer = new RConTestServer();
+		rConTestServer.start();
+		upstream = new RConEndpoint("127.0.0.1", rConTestServer.getPort(), RConClientTest.PASSWORD);
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		rConTestServer.close();
+		rConTestServer = null;
+	}
+
+	@After
+	public void closeProxy() throws IOException {
+		if (proxy != null)
+			proxy.close();
+	}
+
+	private RConProxy startProxy(RConProxy.Builder builder) throws IOException {
+		proxy = builder.reconnectPolicy(FAST_POLICY).build();
+		proxy.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		return proxy;
+	}
+
+	@Test
+	public void testAuthenticatesLocally() throws Exception {
+		startProxy(RConProxy.builder(upstream, PROXY_PASSWORD));
+		try (RConClient client = new RConClient("127.0.0.1", proxy.getPort())) {
+			try {
+				client.authenticate(RConClientTest.PASSWORD);
+				fail("The upstream password must not work at the proxy");
+			} catch (AuthenticationException e) {
+				assertEquals(AuthenticationException.ErrorType.WRONG_PASSWORD, e.getType());
+			}
+			client.authenticate(PROXY_PASSWORD);
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			assertEquals(RConClientTest.LARGE_COMMAND_RESPONSE, client.sendCommand(RConClientTest.LARGE_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testSentinelTermination() throws Exception {
+		startProxy(RConProxy.builder(upstream, PROXY_PASSWORD).responseTermination(ResponseTermination.SENTINEL));
+		try (RConClient client = new RConClient("127.0.0.1", proxy.getPort(), PROXY_PASSWORD)) {
+			client.setResponseTermination(ResponseTermination.SENTINEL);
+			assertEquals(RConClientTest.EXACT_FRAGMENT_COMMAND_RESPONSE,
+					client.sendCommand(RConClientTest.EXACT_FRAGMENT_COMMAND_REQUEST));
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testMultiplexesClientsOntoFewConnections() throws Exception {
+		final int clients = 20, commandsPerClient = 25;
+		int upstreamSessionsBefore = rConTestServer.getSessionCount();
+		startProxy(RConProxy.builder(upstream, PROXY_PASSWORD).upstreamConnections(2));
+		ExecutorService executor = Executors.newFixedThreadPool(clients);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int c = 0; c < clients; c++) {
+				final int clientIndex = c;
+				futures.add(executor.submit(() -> {
+					try (RConClient client = new RConClient("127.0.0.1", proxy.getPort(), PROXY_PASSWORD)) {
+						client.enablePipelining();
+						for (int i = 0; i < commandsPerClient; i++) {
+							String expected = clientIndex + "-" + i;
+							assertEquals(expected, client.sendCommand(RConClientTest.ECHO_COMMAND_PREFIX + expected));
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(clients * commandsPerClient, proxy.getForwardedCommandCount());
+		assertTrue(rConTestServer.getSessionCount() - upstreamSessionsBefore <= 2);
+	}
+
+	@Test
+	public void testReconnectsUpstream() throws Exception {
+		startProxy(RConProxy.builder(upstream, PROXY_PASSWORD).upstreamConnections(1));
+		try (RConClient client = new RConClient("127.0.0.1", proxy.getPort(), PROXY_PASSWORD)) {
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			rConTestServer.disconnectClients();
+			String response = null;
+			while (response == null) {
+				try {
+					response = client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST);
+				} catch (InvalidPacketException e) {
+					// The command was sent before the proxy noticed the closed
+					// connection, it got an empty response
+				}
+			}
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, response);
+			assertTrue(client.isConnected());
+		}
+	}
+
+	@Test
+	public void testReopensStalledUpstream() throws Exception {
+		int upstreamSessionsBefore = rConTestServer.getSessionCount();
+		startProxy(RConProxy.builder(upstream, PROXY_PASSWORD).upstreamConnections(1)
+				.upstreamTimeout(200, TimeUnit.MILLISECONDS));
+		try (RConClient client = new RConClient("127.0.0.1", proxy.getPort(), PROXY_PASSWORD)) {
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			try {
+				client.sendCommand(RConClientTest.SILENT_COMMAND_REQUEST);
+				fail("The command must get an empty response once the upstream timed out");
+			} catch (InvalidPacketException e) {
+				// Expected
+			}
+			// The stalled upstream connection is closed...
+			while (rConTestServer.getSessionCount() > upstreamSessionsBefore)
+				Thread.sleep(10);
+			// ...and reopened with the next command
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			assertTrue(client.isConnected());
+		}
+	}
+
+	@Test
+	public void testRateLimitsEachClient() throws Exception {
+		startProxy(RConProxy.builder(upstream, PROXY_PASSWORD).rateLimit(50, 2));
+		try (RConClient client = new RConClient("127.0.0.1", proxy.getPort(), PROXY_PASSWORD);
+				RConClient other = new RConClient("127.0.0.1", proxy.getPort(), PROXY_PASSWORD)) {
+			long start = System.nanoTime();
+			for (int i = 0; i < 7; i++)
+				client.sendCommand(RConClientTest.ECHO_COMMAND_PREFIX + i);
+			// Two commands pass right away, the other five take 20 ms each
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+			start = System.nanoTime();
+			other.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST);
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(90));
+		}
+	}
+
+	@Test
+	public void testTokenBucket() {
+		AtomicLong now = new AtomicLong();
+		TokenBucket bucket = new TokenBucket(10, 2, now::get);
+		assertTrue(bucket.tryAcquire());
+		assertEquals(0, bucket.reserve());
+		assertFalse(bucket.tryAcquire());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.reserve());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(200), bucket.reserve());
+		now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+		assertTrue(bucket.tryAcquire());
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+	}
+
+}
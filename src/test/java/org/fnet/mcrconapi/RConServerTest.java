@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.fnet.mcrconapi.packet.PacketType;
+import org.fnet.mcrconapi.packet.ServerPacket;
+import org.fnet.mcrconapi.server.CommandHandler;
+import org.fnet.mcrconapi.server.RConServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class RConServerTest {
+
+	private static final String PASSWORD = "server-test";
+
+	private final List<CompletableFuture<String>> deferred = new ArrayList<>();
+	private RConServer server;
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(20, TimeUnit.SECONDS);
+
+	@Before
+	public void setUp() throws IOException {
+		server = new RConServer(PASSWORD, (session, command) -> {
+			if (command.equals("deferred")) {
+				CompletableFuture<String> future = new CompletableFuture<>();
+				synchronized (deferred) {
+					deferred.add(future);
+				}
+				return future;
+			}
+			if (command.equals("fail"))
+				throw new IllegalStateException("Handler failed");
+			if (command.equals("utf8"))
+				return CompletableFuture.completedFuture(RConClientTest.UTF8_COMMAND_RESPONSE);
+			if (command.equals("close")) {
+				try {
+					session.close();
+				} catch (IOException e) {
+					// Ignore: the client notices the closed connection anyway
+				}
+				return new CompletableFuture<>();
+			}
+			if (command.startsWith("repeat ")) {
+				StringBuilder builder = new StringBuilder();
+				for (int i = Integer.parseInt(command.substring(7)); i > 0; i--)
+					builder.append((char) ('a' + i % 26));
+				return CompletableFuture.completedFuture(builder.toString());
+			}
+			return CompletableFuture.completedFuture(session.getId() + ":" + command);
+		}, 2);
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	public void testAuthentication() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", server.getPort())) {
+			try {
+				client.authenticate("wrong");
+				fail("Expected an AuthenticationException");
+			} catch (AuthenticationException e) {
+				assertEquals(AuthenticationException.ErrorType.WRONG_PASSWORD, e.getType());
+			}
+			client.authenticate(PASSWORD);
+			assertTrue(client.sendCommand("list").endsWith(":list"));
+		}
+	}
+
+	@Test
+	public void testFragmentsLargeResponses() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", server.getPort(), PASSWORD)) {
+			for (int length : new int[] { 1, RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH - 1,
+					RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH + 1, RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH * 20 + 7 })
+				assertEquals(length, client.sendCommand("repeat " + length).length());
+			client.setResponseTermination(ResponseTermination.SENTINEL);
+			assertEquals(RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH * 3,
+					client.sendCommand("repeat " + RConServer.MAX_FRAGMENT_PAYLOAD_LENGTH * 3).length());
+		}
+	}
+
+	@Test
+	public void testSplitsMultiByteCharactersAtByteBoundaries() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", server.getPort(), PASSWORD)) {
+			assertEquals(RConClientTest.UTF8_COMMAND_RESPONSE, client.sendCommand("utf8"));
+		}
+	}
+
+	@Test
+	public void testClosesSessionOnInvalidPacketType() throws Exception {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			// A COMMAND_RESPONSE is not a valid packet type for clients
+			ServerPacket packet = new ServerPacket(PacketType.COMMAND_RESPONSE, "list");
+			packet.writeTo(socket.getOutputStream());
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+	@Test
+	public void testHandlerClosesSession() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", server.getPort(), PASSWORD)) {
+			try {
+				client.sendCommand("close");
+				fail("Expected an IOException");
+			} catch (IOException e) {
+				// The session was closed without a response
+			}
+		}
+		while (server.getSessionCount() > 0)
+			Thread.sleep(5);
+	}
+
+	@Test
+	public void testAsynchronousHandler() throws Exception {
+		for (ResponseTermination termination : ResponseTermination.values()) {
+			try (RConClient client = new RConClient("127.0.0.1", server.getPort(), PASSWORD)) {
+				client.setResponseTermination(termination);
+				client.enablePipelining();
+				CompletableFuture<String> slow = client.sendCommandAsync("deferred");
+				CompletableFuture<String> fast = client.sendCommandAsync("fast");
+				// The response to the fast command waits for the slow one
+				while (server.getSessions().iterator().next().getPendingCommandCount() < 2)
+					Thread.sleep(5);
+				assertFalse(fast.isDone());
+				synchronized (deferred) {
+					assertEquals(1, deferred.size());
+					deferred.remove(0).complete("finally");
+				}
+				assertEquals("finally", slow.get());
+				assertTrue(fast.get().endsWith(":fast"));
+			}
+			while (!server.getSessions().isEmpty())
+				Thread.sleep(5);
+		}
+	}
+
+	@Test(expected = InvalidPacketException.class)
+	public void testFailingHandlerSendsEmptyResponse() throws Exception {
+		try (RConClient client = new RConClient("127.0.0.1", server.getPort(), PASSWORD)) {
+			client.sendCommand("fail");
+		}
+	}
+
+	@Test
+	public void testPausesReadingWhenTooManyCommandsArePending() throws Exception {
+		server.setMaxPendingCommands(2);
+		try (RConClient client = new RConClient("127.0.0.1", server.getPort(), PASSWORD)) {
+			client.enablePipelining();
+			List<CompletableFuture<String>> responses = new ArrayList<>();
+			for (int i = 0; i < 5; i++)
+				responses.add(client.sendCommandAsync("deferred"));
+			while (true) {
+				synchronized (deferred) {
+					if (deferred.size() == 2)
+						break;
+				}
+				Thread.sleep(5);
+			}
+			for (int completed = 0; completed < 5; completed++) {
+				CompletableFuture<String> next;
+				while (true) {
+					synchronized (deferred) {
+						if (deferred.size() > completed) {
+							assertTrue(deferred.size() <= completed + 2);
+							next = deferred.get(completed);
+							break;
+						}
+					}
+					Thread.sleep(5);
+				}
+				next.complete("done " + completed);
+			}
+			for (CompletableFuture<String> response : responses)
+				assertTrue(response.get().startsWith("done "));
+		}
+	}
+
+	@Test
+	public void testManyConcurrentSessions() throws Exception {
+		final int sessions = 2000;
+		try (RConEventLoop eventLoop = new RConEventLoop(2)) {
+			List<CompletableFuture<String>> responses = new ArrayList<>();
+			List<RConClient> clients = new ArrayList<>();
+			for (int i = 0; i < sessions; i++) {
+				final int index = i;
+				RConClient client = new RConClient(eventLoop, "127.0.0.1", server.getPort());
+				clients.add(client);
+				responses.add(client.authenticateAsync(PASSWORD)
+						.thenCompose(authenticated -> client.sendCommandAsync("ping " + index)));
+			}
+			for (int i = 0; i < sessions; i++)
+				assertTrue(responses.get(i).get().endsWith(":ping " + i));
+			assertEquals(sessions, server.getSessionCount());
+			for (RConClient client : clients)
+				client.close();
+		}
+		while (server.getSessionCount() > 0)
+			Thread.sleep(5);
+	}
+
+	@Test
+	public void testCommandHandlerOf() throws Exception {
+		CommandHandler handler = CommandHandler.of((session, command) -> {
+			throw new IllegalArgumentException(command);
+		});
+		assertTrue(handler.handleCommand(null, "x").toCompletableFuture().isCompletedExceptionally());
+	}
+
+}
@@ -4,12 +4,17 @@
  */
 package org.fnet.mcrconapi;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.fnet.mcrconapi.packet.ClientPacket;
@@ -17,8 +22,19 @@ import org.fnet.mcrconapi.packet.Packet;
 import org.fnet.mcrconapi.packet.PacketType;
 import org.fnet.mcrconapi.packet.ServerPacket;
 
+/**
+ * A blocking thread-per-connection server for the client tests. It is kept
+ * independent of {@link org.fnet.mcrconapi.server.RConServer}, so that the
+ * client isn't only tested against the library's own server code.
+ */
 final class RConTestServer implements Runnable, AutoCloseable {
 
+	/**
+	 * Payload size of a full response fragment, so that the packet length is
+	 * 4096
+	 */
+	static final int FRAGMENT_PAYLOAD_LENGTH = 4096 - 10;
+
 	private final ServerSocket server;
 	private final Thread serverThread;
 	private final List<Thread> clientThreads;
@@ -26,9 +42,8 @@ final class RConTestServer implements Runnable, AutoCloseable {
 	private final int port;
 
 	public RConTestServer() throws IOException {
-		serverThread = new Thread(this);
-		server = new ServerSocket();
-		server.bind(null);
+		serverThread = new Thread(this, "RCON test server");
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
 		this.port = server.getLocalPort();
 		clientThreads = new ArrayList<>();
 		clientSockets = new ArrayList<>();
@@ -37,47 +52,16 @@ final class RConTestServer implements Runnable, AutoCloseable {
 	@Override
 	public void run() {
 		try {
-			while (server.isBound()) {
+			while (!server.isClosed()) {
 				Socket client = server.accept();
-				clientSockets.add(client);
-				Thread clientThread = new Thread(() -> {
-					try {
-						while (client.isConnected()) {
-							Packet packet = new ClientPacket(client.getInputStream());
-							switch (packet.getType()) {
-							case AUTH:
-								Packet response = new ServerPacket(PacketType.AUTH_RESPONSE, "");
-								if (packet.getPayloadAsString().equals(RConClientTest.PASSWORD)) {
-									response.setRequestID(packet.getRequestID());
-								} else {
-									response.setRequestID(-1);
-								}
-								response.writeTo(client.getOutputStream());
-								break;
-							case COMMAND:
-								if (packet.getPayloadAsString().equals(RConClientTest.SHORT_COMMAND_REQUEST)) {
-									Packet crsp = new ServerPacket(PacketType.COMMAND_RESPONSE,
-											RConClientTest.SHORT_COMMAND_RESPONSE);
-									crsp.writeTo(client.getOutputStream());
-								} else {
-									Packet crsp = new ServerPacket(PacketType.COMMAND_RESPONSE, "");
-									crsp.writeTo(client.getOutputStream());
-								}
-								break;
-							default:
-								System.err.println("INVALID REQUEST TYPE " + packet.getType());
-								Packet errrsp = new ServerPacket(PacketType.AUTH_RESPONSE, "");
-								errrsp.setRequestID(Packet.REQUEST_ID_AUTH_FAIL);
-								errrsp.writeTo(client.getOutputStream());
-								break;
-							}
-						}
-					} catch (EOFException e) {
-						// Ignore: this means that client closed connection
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				});
+				synchronized (clientSockets) {
+					clientSockets.add(client);
+				}
+				Thread clientThread = new Thread(() -> serve(client), "RCON test connection");
+				clientThread.setDaemon(true);
+				synchronized (clientThreads) {
+					clientThreads.add(clientThread);
+				}
 				clientThread.start();
 			}
 		} catch (SocketException e) {
@@ -87,24 +71,131 @@ final class RConTestServer implements Runnable, AutoCloseable {
 		}
 	}
 
+	private void serve(Socket client) {
+		try {
+			InputStream input = client.getInputStream();
+			OutputStream output = client.getOutputStream();
+			while (!client.isClosed()) {
+				Packet packet = new ClientPacket(input);
+				switch (packet.getType()) {
+				case AUTH:
+					Packet response = new ServerPacket(PacketType.AUTH_RESPONSE, "");
+					if (packet.getPayloadAsString().equals(RConClientTest.PASSWORD)) {
+						response.setRequestID(packet.getRequestID());
+					} else {
+						response.setRequestID(Packet.REQUEST_ID_AUTH_FAIL);
+					}
+					response.writeTo(output);
+					break;
+				case COMMAND:
+					if (packet.getPayloadAsString().equals(RConClientTest.DISCONNECT_COMMAND_REQUEST))
+						client.close();
+					else
+						writeCommandResponse(packet, output);
+					break;
+				default:
+					Packet error = new ServerPacket(PacketType.AUTH_RESPONSE, "");
+					error.setRequestID(Packet.REQUEST_ID_AUTH_FAIL);
+					error.writeTo(output);
+					break;
+				}
+			}
+		} catch (EOFException | SocketException e) {
+			// Ignore: this means that the connection was closed
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// Ignore: the connection is finished anyway
+			}
+			synchronized (clientSockets) {
+				clientSockets.remove(client);
+			}
+		}
+	}
+
+	private static void writeCommandResponse(Packet request, OutputStream stream) throws IOException {
+		String command = request.getPayloadAsString();
+		if (command.equals(RConClientTest.SHORT_COMMAND_REQUEST)) {
+			writeFragmented(RConClientTest.SHORT_COMMAND_RESPONSE, request.getRequestID(), stream);
+		} else if (command.equals(RConClientTest.LARGE_COMMAND_REQUEST)) {
+			writeFragmented(RConClientTest.LARGE_COMMAND_RESPONSE, request.getRequestID(), stream);
+		} else if (command.equals(RConClientTest.EXACT_FRAGMENT_COMMAND_REQUEST)) {
+			writeFragmented(RConClientTest.EXACT_FRAGMENT_COMMAND_RESPONSE, request.getRequestID(), stream);
+		} else if (command.equals(RConClientTest.UTF8_COMMAND_REQUEST)) {
+			writeFragmented(RConClientTest.UTF8_COMMAND_RESPONSE, request.getRequestID(), stream);
+		} else if (command.equals(RConClientTest.SILENT_COMMAND_REQUEST)) {
+			// Never respond, used to test timeouts
+		} else if (command.startsWith(RConClientTest.ECHO_COMMAND_PREFIX)) {
+			writeFragmented(command.substring(RConClientTest.ECHO_COMMAND_PREFIX.length()), request.getRequestID(),
+					stream);
+		} else {
+			writeFragmented("", request.getRequestID(), stream);
+		}
+	}
+
+	private static void writeFragmented(String response, int requestID, OutputStream stream) throws IOException {
+		// Split at byte boundaries like real servers do, even inside multi-byte characters
+		byte[] bytes = response.getBytes(Packet.DEFAULT_PAYLOAD_CHARSET);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		int offset = 0;
+		do {
+			int end = Math.min(offset + FRAGMENT_PAYLOAD_LENGTH, bytes.length);
+			Packet fragment = new ServerPacket(PacketType.COMMAND_RESPONSE, "");
+			fragment.setPayload(Arrays.copyOfRange(bytes, offset, end));
+			fragment.setRequestID(requestID);
+			fragment.writeTo(buffer);
+			offset = end;
+		} while (offset < bytes.length);
+		stream.write(buffer.toByteArray());
+	}
+
 	public void start() {
 		serverThread.start();
 	}
 
-	@Override
-	public void close() throws Exception {
-		for (Socket s : clientSockets)
-			if (!s.isClosed())
+	/**
+	 * Closes all client connections but keeps accepting new ones, like a
+	 * restarting server
+	 */
+	public void disconnectClients() throws IOException {
+		synchronized (clientSockets) {
+			for (Socket s : clientSockets)
 				s.close();
-		for (Thread t : clientThreads)
-			if (t.isAlive())
-				t.join();
+			clientSockets.clear();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
 		if (!server.isClosed())
 			server.close();
-		serverThread.join();
+		try {
+			serverThread.join();
+			disconnectClients();
+			List<Thread> threads;
+			synchronized (clientThreads) {
+				threads = new ArrayList<>(clientThreads);
+			}
+			for (Thread t : threads)
+				t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of open client connections
+	 */
+	public int getSessionCount() {
+		synchronized (clientSockets) {
+			return clientSockets.size();
+		}
 	}
 
 	public int getPort() {
 		return port;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2021 Felix Solcher
+ * Licensed under the terms of the MIT license.
+ */
+package org.fnet.mcrconapi;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class ResilientRConClientTest {
+
+	private static final ReconnectPolicy FAST_POLICY = ReconnectPolicy.builder()
+			.initialDelay(10, TimeUnit.MILLISECONDS).maxDelay(50, TimeUnit.MILLISECONDS).maxAttempts(3).build();
+
+	private static RConTestServer rConTestServer;
+	private static RConEndpoint endpoint;
+
+	@Rule
+	public Timeout globalTimeout = new Timeout(5, TimeUnit.SECONDS);
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		rConTestServer = new RConTestServer();
+		rConTestServer.start();
+		endpoint = new RConEndpoint("127.0.0.1", rConTestServer.getPort(), RConClientTest.PASSWORD);
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		rConTestServer.close();
+		rConTestServer = null;
+	}
+
+	@Test
+	public void testReconnectsAfterServerRestart() throws Exception {
+		try (ResilientRConClient client = new ResilientRConClient(endpoint, RConClientOptions.DEFAULT, FAST_POLICY)) {
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			rConTestServer.disconnectClients();
+			while (client.isConnected())
+				Thread.sleep(5);
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			assertEquals(1, client.getReconnectCount());
+		}
+	}
+
+	@Test
+	public void testRetriesIdempotentCommands() throws IOException, AuthenticationException {
+		try (ResilientRConClient client = new ResilientRConClient(endpoint, RConClientOptions.DEFAULT, FAST_POLICY)) {
+			client.addIdempotentCommand("/" + RConClientTest.DISCONNECT_COMMAND_REQUEST.toUpperCase());
+			assertTrue(client.isIdempotent(RConClientTest.DISCONNECT_COMMAND_REQUEST + " now"));
+			try {
+				client.sendCommand(RConClientTest.DISCONNECT_COMMAND_REQUEST);
+				fail("Expected an IOException");
+			} catch (IOException e) {
+				assertEquals(ReconnectPolicy.DEFAULT.getCommandRetries(), client.getReconnectCount());
+			}
+		}
+	}
+
+	@Test
+	public void testStalledServerTimesOut() throws Exception {
+		RConClientOptions options = RConClientOptions.builder().readTimeout(100, TimeUnit.MILLISECONDS).build();
+		try (ResilientRConClient client = new ResilientRConClient(endpoint, options, FAST_POLICY)) {
+			assertThrows(SocketTimeoutException.class,
+					() -> client.sendCommand(RConClientTest.SILENT_COMMAND_REQUEST));
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+		}
+	}
+
+	@Test
+	public void testInterruptKeepsConnection() throws Exception {
+		try (ResilientRConClient client = new ResilientRConClient(endpoint, RConClientOptions.DEFAULT, FAST_POLICY)) {
+			client.addIdempotentCommand(RConClientTest.SILENT_COMMAND_REQUEST);
+			RConClient connection = client.connect();
+			AtomicReference<Throwable> failure = new AtomicReference<>();
+			Thread caller = new Thread(() -> {
+				try {
+					client.sendCommand(RConClientTest.SILENT_COMMAND_REQUEST);
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+			});
+			caller.start();
+			Thread.sleep(100);
+			caller.interrupt();
+			caller.join();
+			assertTrue(String.valueOf(failure.get()), failure.get() instanceof InterruptedIOException);
+			assertSame(connection, client.connect());
+			assertTrue(connection.isConnected());
+			assertEquals(0, client.getReconnectCount());
+		}
+	}
+
+	@Test
+	public void testDoesNotRetryOtherCommands() throws IOException, AuthenticationException {
+		try (ResilientRConClient client = new ResilientRConClient(endpoint, RConClientOptions.DEFAULT, FAST_POLICY)) {
+			try {
+				client.sendCommand(RConClientTest.DISCONNECT_COMMAND_REQUEST);
+				fail("Expected an IOException");
+			} catch (IOException e) {
+				assertEquals(0, client.getReconnectCount());
+			}
+			assertEquals(RConClientTest.SHORT_COMMAND_RESPONSE, client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST));
+			assertEquals(1, client.getReconnectCount());
+		}
+	}
+
+	@Test(expected = InvalidPacketException.class)
+	public void testInvalidResponseKeepsConnection() throws IOException, AuthenticationException {
+		try (ResilientRConClient client = new ResilientRConClient(endpoint, RConClientOptions.DEFAULT, FAST_POLICY)) {
+			client.sendCommand("unknownCommand", true);
+		}
+	}
+
+	@Test(expected = AuthenticationException.class)
+	public void testWrongPasswordIsNotRetried() throws IOException, AuthenticationException {
+		RConEndpoint wrongPassword = new RConEndpoint("127.0.0.1", rConTestServer.getPort(), "wrong");
+		try (ResilientRConClient client = new ResilientRConClient(wrongPassword, RConClientOptions.DEFAULT,
+				ReconnectPolicy.builder().initialDelay(10, TimeUnit.SECONDS).build())) {
+			client.connect();
+		}
+	}
+
+	@Test
+	public void testGivesUpAfterMaxAttempts() throws Exception {
+		int closedPort;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			closedPort = socket.getLocalPort();
+		}
+		RConEndpoint unreachable = new RConEndpoint("127.0.0.1", closedPort, RConClientTest.PASSWORD);
+		try (ResilientRConClient client = new ResilientRConClient(unreachable, RConClientOptions.DEFAULT,
+				FAST_POLICY)) {
+			long start = System.nanoTime();
+			try {
+				client.sendCommand(RConClientTest.SHORT_COMMAND_REQUEST);
+				fail("Expected an IOException");
+			} catch (IOException e) {
+				// The two delays between three attempts are at least 5 and 10 ms
+				assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(15));
+				assertFalse(client.isConnected());
+			}
+		}
+	}
+
+	@Test
+	public void testBackoffDelay() {
+		ReconnectPolicy policy = ReconnectPolicy.builder().initialDelay(100, TimeUnit.MILLISECONDS)
+				.maxDelay(1, TimeUnit.SECONDS).multiplier(2).jitter(0.5).build();
+		assertEquals(100, policy.getDelay(0, 0));
+		assertEquals(400, policy.getDelay(2, 0));
+		assertEquals(200, policy.getDelay(2, 1));
+		assertEquals(1000, policy.getDelay(10, 0));
+		assertEquals(500, policy.getDelay(30, 1));
+	}
+
+}